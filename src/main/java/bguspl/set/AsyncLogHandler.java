@@ -0,0 +1,262 @@
+package bguspl.set;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+import java.util.Formatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * A log handler that copies the records into a pre-allocated ring buffer and returns immediately. A background
+ * thread formats the records and writes them to the log file in batches.
+ * When the ring is full, records are either dropped (and counted) or the logging thread waits for room, according to
+ * the overflow policy. Closing the handler marks the tail of the ring, so every record that got a slot before the close
+ * is written, and every later record is ignored.
+ */
+public final class AsyncLogHandler extends Handler {
+
+    /**
+     * What to do with a record when the ring is full.
+     */
+    public enum Overflow {
+        /**
+         * Drop the record (the number of dropped records is written to the log later).
+         */
+        DROP,
+        /**
+         * Wait until there is room for the record.
+         */
+        BLOCK;
+
+        /**
+         * Parses a policy name (case-insensitive).
+         *
+         * @param name - the policy name.
+         * @return - the matching policy, or null if there is none.
+         */
+        public static Overflow parse(String name) {
+            for (Overflow overflow : values())
+                if (overflow.name().equalsIgnoreCase(name.trim())) return overflow;
+            return null;
+        }
+    }
+
+    /**
+     * A slot of the ring (the fields of a record needed for formatting).
+     */
+    private static final class Entry {
+        long millis;
+        Level level;
+        String message;
+        Object[] parameters;
+    }
+
+    private static final long CLOSED = 1L << 62;
+
+    private final Writer out;
+
+    // a bounded multi-producer queue: sequences[i] tells whether entries[i] is free for ticket i or full for ticket i+1
+    private final Entry[] entries;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // the CLOSED bit is set once the handler is closed
+    private volatile long head; // written by the writer thread only
+    private volatile long flushed; // the records before this ticket are in the file
+
+    private final Thread writer;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+
+    private volatile Overflow overflow = Overflow.DROP;
+    private volatile String format = "[%1$tT.%1$tL] [%2$-7s] %3$s%n";
+
+    private final LongAdder dropped = new LongAdder();
+
+    // used by the writer thread only
+    private final StringBuilder line = new StringBuilder(256);
+    private final Formatter formatter = new Formatter(line);
+
+    /**
+     * @param fileName - the log file.
+     * @param capacity - the number of records the ring can hold (rounded up to a power of 2).
+     * @throws IOException - if the log file cannot be opened.
+     */
+    public AsyncLogHandler(String fileName, int capacity) throws IOException {
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8), 1 << 16);
+
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        entries = new Entry[size];
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry();
+            sequences.set(i, i);
+        }
+
+        writer = new Thread(this::run, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @param format - the java.util.Formatter format of a line (arguments: time, level name, message).
+     */
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    /**
+     * @param overflow - what to do with a record when the ring is full.
+     */
+    public void setOverflow(Overflow overflow) {
+        this.overflow = overflow;
+    }
+
+    /**
+     * @return - the number of records dropped because the ring was full.
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record))
+            return;
+
+        long ticket;
+        while (true) {
+            ticket = tail.get();
+            if (ticket >= CLOSED)
+                return;
+            long sequence = sequences.get((int) ticket & mask);
+            if (sequence == ticket) {
+                if (tail.compareAndSet(ticket, ticket + 1)) break;
+            } else if (sequence < ticket) { // the ring is full
+                if (overflow == Overflow.DROP) {
+                    dropped.increment();
+                    return;
+                }
+                Thread.yield();
+            }
+        }
+
+        Entry entry = entries[(int) ticket & mask];
+        entry.millis = record.getMillis();
+        entry.level = record.getLevel();
+        entry.message = record.getMessage();
+        entry.parameters = record.getParameters();
+        sequences.set((int) ticket & mask, ticket + 1);
+        if (waiting) LockSupport.unpark(writer);
+    }
+
+    /**
+     * The main loop of the writer thread.
+     */
+    private void run() {
+        long reportedDrops = 0;
+        while (true) {
+            int written = 0;
+            while (true) {
+                int index = (int) head & mask;
+                if (sequences.get(index) != head + 1) break;
+                write(entries[index]);
+                entries[index].message = null;
+                entries[index].parameters = null;
+                sequences.set(index, head + entries.length);
+                head = head + 1;
+                ++written;
+            }
+
+            long drops = dropped.sum();
+            if (drops != reportedDrops) {
+                writeLine(System.currentTimeMillis(), Level.WARNING, "dropped " + (drops - reportedDrops) + " log records.");
+                reportedDrops = drops;
+                ++written;
+            }
+
+            try {
+                if (written > 0) out.flush();
+            } catch (IOException e) {
+                reportError(null, e, ErrorManager.FLUSH_FAILURE);
+            }
+            flushed = head;
+
+            if (closed && written == 0) {
+                if (head == (tail.get() & ~CLOSED)) // every ticket taken before the close is written
+                    break;
+                Thread.yield(); // a producer took a ticket and is still copying its record
+                continue;
+            }
+            if (written == 0) {
+                waiting = true;
+                if (sequences.get((int) head & mask) != head + 1 && !closed)
+                    LockSupport.park(this);
+                waiting = false;
+            }
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            reportError(null, e, ErrorManager.CLOSE_FAILURE);
+        }
+    }
+
+    private void write(Entry entry) {
+        String message = entry.message;
+        if (entry.parameters != null && entry.parameters.length > 0 && message != null && message.indexOf('{') >= 0) {
+            try {
+                message = MessageFormat.format(message, entry.parameters);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        writeLine(entry.millis, entry.level, message);
+    }
+
+    private void writeLine(long millis, Level level, String message) {
+        line.setLength(0);
+        try {
+            formatter.format(format, millis, level.getLocalizedName(), message);
+            out.append(line);
+        } catch (IOException | RuntimeException e) {
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    /**
+     * Waits until all the records published so far are written to the file.
+     */
+    @Override
+    public void flush() {
+        long target = tail.get() & ~CLOSED;
+        while (flushed < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Writes the remaining records and closes the file.
+     */
+    @Override
+    public void close() {
+        tail.getAndUpdate(ticket -> ticket | CLOSED);
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
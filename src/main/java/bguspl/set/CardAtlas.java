@@ -0,0 +1,220 @@
+package bguspl.set;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * All the card images packed in a single file (built by the main method of this class during the build), which is
+ * memory mapped at runtime. Card images are sliced from the mapped file and decoded on demand.
+ * <p>
+ * File format (big endian): magic, version, entries count, then per entry: name length (short), name (UTF-8),
+ * offset (long, from the start of the file) and length (int) of the PNG data, followed by the PNG data of all the
+ * entries.
+ */
+public class CardAtlas {
+
+    /**
+     * The resource name of the atlas.
+     */
+    public static final String RESOURCE = "cards/cards.atlas";
+
+    private static final int MAGIC = 0x53474341; // "SGCA"
+    private static final int VERSION = 1;
+
+    private final MappedByteBuffer data;
+
+    /**
+     * The position and length of the PNG data of each image, by image name (e.g. "0121" or "empty_card").
+     */
+    private final Map<String, long[]> index = new HashMap<>();
+
+    /**
+     * One PNG reader per decoding thread, created once and reused for every image.
+     */
+    private final ThreadLocal<ImageReader> readers = ThreadLocal.withInitial(
+            () -> ImageIO.getImageReadersByFormatName("png").next());
+
+    private CardAtlas(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.getInt() != MAGIC || data.getInt() != VERSION)
+            throw new IOException("not a card atlas (or an unsupported version): " + file);
+        int count = data.getInt();
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[data.getShort()];
+            data.get(name);
+            index.put(new String(name, StandardCharsets.UTF_8), new long[]{data.getLong(), data.getInt()});
+        }
+    }
+
+    /**
+     * Opens the atlas resource. If the resource is inside a jar, it is extracted (once) to a temporary file so it can
+     * be mapped.
+     *
+     * @param logger - the logger.
+     * @return - the atlas, or null if there is no (valid) atlas resource.
+     */
+    public static CardAtlas open(Logger logger) {
+        URL resource = CardAtlas.class.getClassLoader().getResource(RESOURCE);
+        if (resource == null) {
+            logger.warning("no card atlas found, loading card images one by one.");
+            return null;
+        }
+        try {
+            Path file;
+            if ("file".equals(resource.getProtocol()))
+                file = Paths.get(resource.toURI());
+            else {
+                file = Files.createTempFile("cards", ".atlas");
+                file.toFile().deleteOnExit();
+                try (InputStream is = resource.openStream()) {
+                    Files.copy(is, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            return new CardAtlas(file);
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            logger.severe("cannot open the card atlas: " + e.getMessage() + " loading card images one by one.");
+            return null;
+        }
+    }
+
+    /**
+     * @param name - the image name (the file name without the .png extension).
+     * @return - true iff the atlas contains the image.
+     */
+    public boolean contains(String name) {
+        return index.containsKey(name);
+    }
+
+    /**
+     * @param name - the image name.
+     * @return - a view of the PNG data of the image (no copy), or null if the atlas does not contain it.
+     */
+    public ByteBuffer slice(String name) {
+        long[] entry = index.get(name);
+        if (entry == null) return null;
+        return data.slice((int) entry[0], (int) entry[1]);
+    }
+
+    /**
+     * Decodes an image of the atlas.
+     *
+     * @param name - the image name.
+     * @return - the decoded image, or null if the atlas does not contain it.
+     */
+    public BufferedImage decode(String name) {
+        ByteBuffer png = slice(name);
+        if (png == null) return null;
+        ImageReader reader = readers.get();
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteBufferInputStream(png))) {
+            reader.setInput(input, true, true);
+            return reader.read(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            reader.setInput(null);
+        }
+    }
+
+    /**
+     * Reads a ByteBuffer (from its position to its limit) as a stream.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) return -1;
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Packs all the PNG images of a directory into an atlas file (runs as part of the build).
+     *
+     * @param args - the images directory and the atlas file to write.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: CardAtlas <images directory> <atlas file>");
+            System.exit(1);
+        }
+
+        File[] images;
+        try (Stream<Path> files = Files.list(Paths.get(args[0]))) {
+            images = files.filter(path -> path.getFileName().toString().endsWith(".png"))
+                    .sorted().map(Path::toFile).toArray(File[]::new);
+        }
+
+        // the header size must be known to compute the data offsets
+        byte[][] names = new byte[images.length][];
+        long offset = 3 * Integer.BYTES;
+        for (int i = 0; i < images.length; i++) {
+            String fileName = images[i].getName();
+            names[i] = fileName.substring(0, fileName.length() - ".png".length()).getBytes(StandardCharsets.UTF_8);
+            offset += Short.BYTES + names[i].length + Long.BYTES + Integer.BYTES;
+        }
+
+        Path atlas = Paths.get(args[1]);
+        if (atlas.getParent() != null) Files.createDirectories(atlas.getParent());
+        try (OutputStream os = Files.newOutputStream(atlas);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(images.length);
+            for (int i = 0; i < images.length; i++) {
+                out.writeShort(names[i].length);
+                out.write(names[i]);
+                out.writeLong(offset);
+                out.writeInt((int) images[i].length());
+                offset += images[i].length();
+            }
+            for (File image : images)
+                Files.copy(image.toPath(), out);
+        }
+        System.out.println("packed " + images.length + " card images into " + atlas);
+    }
+}
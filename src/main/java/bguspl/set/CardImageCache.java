@@ -0,0 +1,198 @@
+package bguspl.set;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+import java.util.logging.Logger;
+
+/**
+ * A bounded cache of card images, scaled to the size of a table cell. A card image is decoded (in the background)
+ * the first time it is needed, and a placeholder is shown until it is ready. The least recently used images are
+ * evicted when the cache is full.
+ */
+public class CardImageCache {
+
+    private final Logger logger;
+    private final Config config;
+    private final int capacity;
+
+    /**
+     * The cached images, in access order (guarded by itself).
+     */
+    private final LinkedHashMap<Integer, Image> images;
+
+    /**
+     * The cards being decoded.
+     */
+    private final Set<Integer> decoding = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService decoders;
+    private final Image placeholder;
+
+    /**
+     * The packed card images (null if there is no atlas, in which case each image is read from its own resource).
+     */
+    private final CardAtlas atlas;
+
+    /**
+     * Called (on a decoder thread) with the card id whenever a card image is ready.
+     */
+    private final List<IntConsumer> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param logger   - the logger.
+     * @param config   - the game configuration (card names and cell size).
+     * @param capacity - the maximal number of cached card images.
+     */
+    public CardImageCache(Logger logger, Config config, int capacity) {
+        this.logger = logger;
+        this.config = config;
+        this.capacity = Math.max(capacity, 1);
+        this.images = new LinkedHashMap<Integer, Image>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Image> eldest) {
+                return size() > CardImageCache.this.capacity;
+            }
+        };
+        this.decoders = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+            Thread thread = new Thread(task, "card-decoder");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.atlas = CardAtlas.open(logger);
+        this.placeholder = decode("empty_card");
+    }
+
+    /**
+     * @return - the image of an empty cell (also shown while a card image is decoded).
+     */
+    public Image placeholder() {
+        return placeholder;
+    }
+
+    /**
+     * Registers a listener that is called (on a decoder thread) with the card id whenever a card image is ready.
+     *
+     * @param listener - the listener.
+     */
+    public void addListener(IntConsumer listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns the image of a card, or the placeholder if the card image is not decoded yet (in which case decoding
+     * starts in the background, and the listeners are called when it is ready).
+     *
+     * @param card - the card id.
+     * @return - the image of the card, or the placeholder.
+     */
+    public Image get(int card) {
+        Image image;
+        synchronized (images) {
+            image = images.get(card);
+        }
+        if (image != null)
+            return image;
+        load(card);
+        return placeholder;
+    }
+
+    /**
+     * Decodes card images in the background (in parallel), as long as there is room in the cache.
+     *
+     * @param cards - the card ids.
+     */
+    public void prefetch(int... cards) {
+        for (int i = 0; i < Math.min(cards.length, capacity); i++)
+            load(cards[i]);
+    }
+
+    /**
+     * Stops the decoder threads.
+     */
+    public void shutdown() {
+        decoders.shutdownNow();
+    }
+
+    private void load(int card) {
+        synchronized (images) {
+            if (images.containsKey(card))
+                return;
+        }
+        if (!decoding.add(card))
+            return; // already being decoded
+
+        decoders.execute(() -> {
+            try {
+                Image image = decode(imageName(card));
+                synchronized (images) {
+                    images.put(card, image);
+                }
+                for (IntConsumer listener : listeners)
+                    listener.accept(card);
+            } catch (RuntimeException e) {
+                logger.severe("cannot load the image of card " + card + ": " + e.getMessage());
+            } finally {
+                decoding.remove(card);
+            }
+        });
+    }
+
+    private String imageName(int card) {
+        return UserInterfaceSwing.intInBaseToPaddedString(card, config.featureCount, config.featureSize);
+    }
+
+    /**
+     * Reads an image (from the atlas, or from its own resource file) and scales it to the size of a cell.
+     *
+     * @param name - the image name (e.g. "0121" or "empty_card").
+     */
+    private Image decode(String name) {
+        if (atlas != null && atlas.contains(name))
+            return scale(atlas.decode(name));
+
+        String filename = "cards/" + name + ".png";
+        URL imageResource = getClass().getClassLoader().getResource(filename);
+        if (imageResource == null)
+            throw new RuntimeException(new FileNotFoundException(filename));
+        BufferedImage source;
+        try {
+            source = ImageIO.read(imageResource);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return scale(source);
+    }
+
+    /**
+     * @param source - an image.
+     * @return - a copy of the image, scaled to the size of a cell.
+     */
+    private Image scale(BufferedImage source) {
+        BufferedImage scaled = new BufferedImage(config.cellWidth, config.cellHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(source, 0, 0, config.cellWidth, config.cellHeight, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+}
@@ -0,0 +1,62 @@
+package bguspl.set;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The game time: all the timing of the game entities (turn timeouts, freezes, table delays and the dealer's wake ups)
+ * goes through the clock of the game environment, so a game can run in wall clock time (SystemClock) or in virtual
+ * time (VirtualClock).
+ */
+public interface Clock {
+
+    /**
+     * @return - the current time in milliseconds.
+     */
+    long currentTimeMillis();
+
+    /**
+     * Blocks the calling thread for a period of time.
+     *
+     * @param millis - the time to sleep (nothing happens if it is not positive).
+     * @throws InterruptedException - if the thread was interrupted while sleeping.
+     */
+    void sleep(long millis) throws InterruptedException;
+
+    /**
+     * Waits on a condition until it is signalled or the timeout passes (like Condition.await with a timeout).
+     *
+     * @param lock      - the lock of the condition (held by the calling thread).
+     * @param condition - the condition to wait on.
+     * @param millis    - the maximal time to wait.
+     * @return - false iff the timeout passed.
+     * @throws InterruptedException - if the thread was interrupted while waiting.
+     */
+    boolean await(ReentrantLock lock, Condition condition, long millis) throws InterruptedException;
+
+    /**
+     * Runs a short task once after a delay.
+     *
+     * @param task  - the task to run (on a timer thread).
+     * @param delay - the delay in milliseconds.
+     */
+    void schedule(Runnable task, long delay);
+
+    /**
+     * Adds the calling thread to the threads of the game (a virtual clock only advances when all of them are idle).
+     */
+    default void register() {
+    }
+
+    /**
+     * Removes the calling thread from the threads of the game.
+     */
+    default void unregister() {
+    }
+
+    /**
+     * Stops the threads of the clock (if any).
+     */
+    default void shutdown() {
+    }
+}
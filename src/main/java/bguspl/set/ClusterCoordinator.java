@@ -0,0 +1,500 @@
+package bguspl.set;
+
+import bguspl.set.ex.GameSnapshot;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import static bguspl.set.ClusterLink.*;
+
+/**
+ * Shards games across worker processes (see ClusterWorker), each running its games on its own GameHost. The coordinator
+ * keeps the routing table from a game to the worker that runs it: it sends the presses of the players to that worker,
+ * and applies the user interface calls the worker sends back to the game's user interface.
+ * <p>
+ * A new game goes to the least loaded worker that is not draining and has room for it. Draining a worker moves its games
+ * to the other workers: each game stops right after a checkpoint (see Dealer.checkpoint), resumes from it on another
+ * worker, and its route is switched. The presses made while a game moves are dropped, as while the dealer reshuffles.
+ * <p>
+ * Usage: ClusterCoordinator [workers] [games] [seconds before draining worker 0] [config file] (plays that many
+ * headless games on that many local worker processes, drains the first worker, and prints the accounting)
+ */
+public class ClusterCoordinator implements AutoCloseable {
+
+    private final Logger logger;
+    private final Config config;
+    private final List<Worker> workers = new CopyOnWriteArrayList<>();
+    private final Map<Long, Route> routes = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+
+    /**
+     * Orders the moves of games (one drain at a time).
+     */
+    private final ReentrantLock drainLock = new ReentrantLock();
+
+    /**
+     * The answers to a MIGRATE other than a snapshot: the game had ended, or it did not stop in time and goes on running
+     * on its worker.
+     */
+    private static final Object GAME_ENDED = new Object();
+    private static final Object GAME_KEPT = new Object();
+
+    /**
+     * How many request timeouts to wait for the answer to a MIGRATE (the worker gives up the checkpoint after one, and
+     * answers KEPT).
+     */
+    private static final int MIGRATE_TIMEOUTS = 3;
+
+    private final LongAdder presses = new LongAdder();
+    private final LongAdder droppedPresses = new LongAdder();
+    private final LongAdder events = new LongAdder();
+    private final LongAdder migrations = new LongAdder();
+    private final Histogram migrationLatency = new Histogram();
+
+    /**
+     * A worker process and the connection to it.
+     */
+    public final class Worker {
+
+        public final int index;
+        private final Process process;
+        private final ClusterLink link;
+        private final Thread reader;
+        private final AtomicInteger games = new AtomicInteger();
+        private volatile boolean draining;
+
+        private Worker(int index, Process process, SocketChannel channel) throws IOException {
+            this.index = index;
+            this.process = process;
+            this.link = new ClusterLink(channel, config.serverBufferSize, "cluster-writer-" + index);
+            reader = new Thread(this::read, "cluster-worker-" + index);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * @return - the number of games routed to the worker.
+         */
+        public int games() {
+            return games.get();
+        }
+
+        public boolean draining() {
+            return draining;
+        }
+
+        /**
+         * Applies the frames of the worker (on the reader thread of the worker).
+         */
+        private void read() {
+            int[] fields = new int[5];
+            try {
+                while (true) {
+                    int type = link.read();
+                    Route route = routes.get(link.game());
+                    if (route == null)
+                        continue;
+                    ByteBuffer payload = link.payload();
+                    switch (type) {
+                        case EVENT:
+                            events.increment();
+                            NetworkProtocol.get(payload, route.ui, fields);
+                            break;
+                        case OPENED:
+                            route.reply.complete(payload.get() != 0 ? Boolean.TRUE : null);
+                            break;
+                        case SNAPSHOT:
+                            route.reply.complete(payload.hasRemaining() ? GameSnapshot.decode(payload) : GAME_ENDED);
+                            break;
+                        case KEPT:
+                            route.reply.complete(GAME_KEPT);
+                            break;
+                        case ENDED:
+                            if (route.worker == this)
+                                end(route);
+                            break;
+                        default:
+                            logger.warning("unknown cluster frame " + type);
+                    }
+                }
+            } catch (EOFException e) {
+                logger.info("worker " + index + " closed the connection");
+            } catch (IOException e) {
+                logger.severe("worker " + index + " failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * Where a game runs.
+     */
+    private static final class Route {
+        final long game;
+        final int humans;
+        final int computers;
+        final UserInterface ui;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        volatile Worker worker;
+        volatile boolean moving;
+
+        /**
+         * Completed by the reader thread of the worker with the answer to the last OPEN (non-null iff the game started)
+         * or MIGRATE (the snapshot, GAME_ENDED if the game had ended, or GAME_KEPT if it did not stop in time).
+         */
+        volatile CompletableFuture<Object> reply = new CompletableFuture<>();
+
+        Route(long game, int humans, int computers, UserInterface ui) {
+            this.game = game;
+            this.humans = humans;
+            this.computers = computers;
+            this.ui = ui;
+        }
+    }
+
+    /**
+     * @param logger - the logger.
+     * @param config - the configuration (the buffer size of the connections).
+     */
+    public ClusterCoordinator(Logger logger, Config config) {
+        this.logger = logger;
+        this.config = config;
+    }
+
+    /**
+     * Starts a worker process on this machine (with the class path of this process) and connects to it.
+     *
+     * @param configFile - the configuration file of the worker's host and games.
+     * @return - the worker.
+     * @throws IOException - if the process could not be started or connected.
+     */
+    public Worker launch(String configFile) throws IOException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ClusterWorker.class.getName(), configFile)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line = output.readLine();
+        if (line == null || !line.startsWith("port ")) {
+            process.destroyForcibly();
+            throw new IOException("the worker did not start: " + line);
+        }
+        int port = Integer.parseInt(line.substring(5).trim());
+        try {
+            return add(process, SocketChannel.open(new InetSocketAddress("127.0.0.1", port)));
+        } catch (IOException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+    }
+
+    /**
+     * Connects to a worker that is already running.
+     *
+     * @param address - the address the worker listens on.
+     * @return - the worker.
+     */
+    public Worker connect(InetSocketAddress address) throws IOException {
+        return add(null, SocketChannel.open(address));
+    }
+
+    private Worker add(Process process, SocketChannel channel) throws IOException {
+        Worker worker = new Worker(workers.size(), process, channel);
+        workers.add(worker);
+        return worker;
+    }
+
+    public List<Worker> workers() {
+        return new ArrayList<>(workers);
+    }
+
+    /**
+     * Starts a game on the least loaded worker that takes it.
+     *
+     * @param humans    - the number of human players (their presses come through press).
+     * @param computers - the number of computer players.
+     * @param ui        - the user interface of the game (called on the reader thread of the worker that runs it).
+     * @return - the id of the game, or -1 if no worker has room for it.
+     */
+    public long open(int humans, int computers, UserInterface ui) throws InterruptedException {
+        Route route = new Route(ids.incrementAndGet(), humans, computers, ui);
+        routes.put(route.game, route);
+        List<Worker> candidates = workers();
+        candidates.sort(Comparator.comparingInt(Worker::games));
+        for (Worker worker : candidates) {
+            if (!worker.draining && start(route, worker, null))
+                return route.game;
+        }
+        routes.remove(route.game);
+        return -1;
+    }
+
+    /**
+     * Starts a game on a worker and routes it there if the worker took it.
+     */
+    private boolean start(Route route, Worker worker, GameSnapshot snapshot) throws InterruptedException {
+        route.worker = worker;
+        worker.games.incrementAndGet();
+        if (request(route, worker, OPEN, snapshot, 1) != null)
+            return true;
+        worker.games.decrementAndGet();
+        route.worker = null;
+        return false;
+    }
+
+    /**
+     * Sends an OPEN or MIGRATE frame and waits for the answer of the worker.
+     *
+     * @param timeouts - how many request timeouts to wait for the answer.
+     * @return - the answer, or null if the worker refused or did not answer in time.
+     */
+    private Object request(Route route, Worker worker, int type, GameSnapshot snapshot, int timeouts)
+            throws InterruptedException {
+        CompletableFuture<Object> reply = new CompletableFuture<>();
+        route.reply = reply;
+        ByteBuffer out = worker.link.begin(type, route.game);
+        try {
+            if (type == OPEN) {
+                out.put((byte) route.humans).put((byte) route.computers);
+                if (snapshot != null) snapshot.encode(out);
+            }
+        } finally {
+            worker.link.end();
+        }
+        for (int i = 0; i < timeouts; i++) {
+            try {
+                return reply.get(config.clusterRequestTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                break;
+            } catch (TimeoutException e) {
+                logger.warning("worker " + worker.index + " is slow to answer about game " + route.game);
+            }
+        }
+        logger.severe("worker " + worker.index + " did not answer about game " + route.game);
+        return null;
+    }
+
+    /**
+     * Sends a press of a player to the worker that runs the game.
+     *
+     * @return - false iff the game is not running or is moving (the press is dropped).
+     */
+    public boolean press(long game, int player, int slot) {
+        Route route = routes.get(game);
+        Worker worker = route == null ? null : route.worker;
+        if (worker == null || route.moving) {
+            droppedPresses.increment();
+            return false;
+        }
+        worker.link.begin(PRESS, game).put((byte) player).put((byte) slot);
+        worker.link.end();
+        presses.increment();
+        return true;
+    }
+
+    /**
+     * @return - the worker that runs the game (null if it is not running).
+     */
+    public Worker route(long game) {
+        Route route = routes.get(game);
+        return route == null ? null : route.worker;
+    }
+
+    /**
+     * @return - a future that is completed when the game ends.
+     */
+    public CompletableFuture<Void> done(long game) {
+        Route route = routes.get(game);
+        return route == null ? CompletableFuture.completedFuture(null) : route.done;
+    }
+
+    /**
+     * Removes the route of a game that ended (or could not be moved).
+     */
+    private void end(Route route) {
+        if (routes.remove(route.game, route)) {
+            route.worker.games.decrementAndGet();
+            route.reply.complete(GAME_ENDED); // the answer to a request that waits for the game
+            route.done.complete(null);
+        }
+    }
+
+    /**
+     * Moves the games of a worker to the other workers, and takes no new games on it.
+     *
+     * @param worker - the worker to drain.
+     * @return - the number of games moved (a game that no other worker takes is ended, and a game that does not stop in
+     *           time stays on the worker).
+     * @throws IllegalStateException - if the worker does not answer a MIGRATE at all (the drain stops, the game stays
+     *                                 routed to the worker).
+     */
+    public int drain(Worker worker) throws InterruptedException {
+        worker.draining = true;
+        int moved = 0;
+        drainLock.lock();
+        try {
+            for (Route route : routes.values()) {
+                if (route.worker != worker)
+                    continue;
+                long start = System.nanoTime();
+                route.moving = true;
+                Object answer = request(route, worker, MIGRATE, null, MIGRATE_TIMEOUTS);
+                if (answer == GAME_ENDED) { // the game ended before it was stopped
+                    end(route);
+                    continue;
+                }
+                if (answer == GAME_KEPT) {
+                    route.moving = false;
+                    continue;
+                }
+                if (answer == null) {
+                    route.moving = false;
+                    throw new IllegalStateException("worker " + worker.index + " did not answer the move of game "
+                            + route.game);
+                }
+                GameSnapshot snapshot = (GameSnapshot) answer;
+                worker.games.decrementAndGet();
+                List<Worker> candidates = workers();
+                candidates.sort(Comparator.comparingInt(Worker::games));
+                boolean started = false;
+                for (Worker target : candidates) {
+                    if (!target.draining && start(route, target, snapshot)) {
+                        started = true;
+                        break;
+                    }
+                }
+                route.moving = false;
+                if (!started) {
+                    logger.severe("no worker took game " + route.game + ", it is ended");
+                    routes.remove(route.game, route);
+                    route.done.complete(null);
+                    continue;
+                }
+                ++moved;
+                migrations.increment();
+                long nanos = System.nanoTime() - start;
+                migrationLatency.record(nanos);
+            }
+        } finally {
+            drainLock.unlock();
+        }
+        return moved;
+    }
+
+    public long presses() {
+        return presses.sum();
+    }
+
+    public long droppedPresses() {
+        return droppedPresses.sum();
+    }
+
+    public long events() {
+        return events.sum();
+    }
+
+    public long migrations() {
+        return migrations.sum();
+    }
+
+    /**
+     * @return - the time from stopping a game on one worker to starting it on another (in nanoseconds).
+     */
+    public Histogram migrationLatency() {
+        drainLock.lock();
+        try {
+            Histogram copy = new Histogram();
+            copy.add(migrationLatency);
+            return copy;
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    /**
+     * Closes the connections to the workers, which terminate their games and exit.
+     */
+    @Override
+    public void close() {
+        for (Worker worker : workers) {
+            worker.link.close();
+            try {
+                worker.reader.join();
+                if (worker.process != null && !worker.process.waitFor(10, TimeUnit.SECONDS))
+                    worker.process.destroyForcibly();
+            } catch (InterruptedException ignored) {
+            }
+        }
+        for (Route route : routes.values())
+            route.done.complete(null);
+        routes.clear();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int workerCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        double drainAfter = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+        String configFile = args.length > 3 ? args[3] : "config.properties";
+
+        Logger logger = Simulation.logger();
+        Properties properties = Simulation.configure(Config.loadProperties(configFile, logger), 4);
+        properties.setProperty("ThreadModel", "virtual");
+        properties.setProperty("HostCapacity", Integer.toString(games));
+        File workerConfig = File.createTempFile("cluster", ".properties");
+        workerConfig.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(workerConfig)) {
+            properties.store(out, "cluster worker");
+        }
+        Config config = new Config(logger, properties);
+
+        UserInterfaceCounter ui = new UserInterfaceCounter();
+        try (ClusterCoordinator coordinator = new ClusterCoordinator(logger, config)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < workerCount; i++)
+                coordinator.launch(workerConfig.getPath());
+            long launched = System.nanoTime();
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < games; i++) {
+                long id = coordinator.open(0, config.computerPlayers, ui);
+                if (id >= 0) ids.add(id);
+            }
+            Thread.sleep((long) (drainAfter * 1000));
+            Worker drained = coordinator.workers().get(0);
+            int running = drained.games();
+            int moved = coordinator.drain(drained);
+            for (long id : ids)
+                coordinator.done(id).get(10, TimeUnit.MINUTES);
+            long nanos = System.nanoTime() - start;
+
+            Histogram migration = coordinator.migrationLatency();
+            System.out.printf("%d workers started in %.3f s, %d games played in %.3f s%n", workerCount,
+                    (launched - start) / 1e9, ids.size(), nanos / 1e9);
+            System.out.printf("drained worker 0: %d of its %d games moved, migration (ms): p50 %.2f, max %.2f%n",
+                    moved, running, migration.percentile(50) / 1e6, migration.max() / 1e6);
+            System.out.printf("%d events forwarded (%d ui calls)%n", coordinator.events(), ui.total());
+        }
+    }
+}
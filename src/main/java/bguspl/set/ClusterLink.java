@@ -0,0 +1,224 @@
+package bguspl.set;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A connection between a ClusterCoordinator and a ClusterWorker. Every message (a frame) is its length (4 bytes), its
+ * type, the id of the game it is about (8 bytes) and a payload that depends on the type. The frames are written in
+ * place in a buffer by any number of threads, and a writer thread swaps the buffer for an empty one and sends it, so
+ * the events of many games share a few system calls, and the game threads (which are interrupted when a game stops)
+ * never block in the socket.
+ */
+final class ClusterLink implements AutoCloseable {
+
+    /**
+     * Coordinator to worker: starts a game. The number of human and computer players (1 byte each), then a GameSnapshot
+     * to restore (none for a new game).
+     */
+    static final int OPEN = 1;
+    /**
+     * Worker to coordinator: the game started (1) or the worker is full (0).
+     */
+    static final int OPENED = 2;
+    static final int PRESS = 3; // player, slot
+    /**
+     * Worker to coordinator: a user interface call of the game, a NetworkProtocol message.
+     */
+    static final int EVENT = 4;
+    /**
+     * Coordinator to worker: stops the game for a move to another worker (answered by SNAPSHOT).
+     */
+    static final int MIGRATE = 5;
+    /**
+     * Worker to coordinator: the GameSnapshot of a stopped game (no payload if the game had ended).
+     */
+    static final int SNAPSHOT = 6;
+    /**
+     * Worker to coordinator: the game is over.
+     */
+    static final int ENDED = 7;
+    /**
+     * Worker to coordinator: the game did not stop in time for a MIGRATE, and goes on running on the worker.
+     */
+    static final int KEPT = 8;
+
+    private static final int HEADER = 4 + 1 + 8;
+
+    /**
+     * The longest frame (an OPEN with a snapshot of 64 players, 64 slots and 1024 cards).
+     */
+    static final int MAX_FRAME = HEADER + 2 + 1 + 2 + 14 * 64 + 4 + 2 + 2 * 64 + 2 + 2 * 1024;
+
+    private final SocketChannel channel;
+    private final ByteBuffer in;
+    private final Thread writer;
+
+    /**
+     * The buffer the frames are written to, and the one the writer thread sends (guarded by the write lock).
+     */
+    private ByteBuffer out;
+    private ByteBuffer sending;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition written = writeLock.newCondition();
+    private final Condition sent = writeLock.newCondition();
+    private int frameStart;
+    private volatile boolean closed;
+
+    private long game;
+    private final ByteBuffer payload;
+
+    /**
+     * @param channel    - a connected, blocking channel.
+     * @param bufferSize - the size of the read and write buffers (at least MAX_FRAME).
+     * @param name       - the name of the writer thread.
+     */
+    ClusterLink(SocketChannel channel, int bufferSize, String name) throws IOException {
+        this.channel = channel;
+        channel.socket().setTcpNoDelay(true);
+        int size = Math.max(bufferSize, MAX_FRAME);
+        out = ByteBuffer.allocateDirect(size);
+        sending = ByteBuffer.allocateDirect(size);
+        in = ByteBuffer.allocateDirect(size).flip();
+        payload = in.duplicate();
+        writer = new Thread(this::write, name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Starts writing a frame: the caller writes the payload to the returned buffer and calls end (even if it throws).
+     * Waits while the buffer is full (the other side is slower than the frames are written).
+     *
+     * @param type - the frame type.
+     * @param game - the id of the game.
+     * @return - the buffer to write the payload to (at most MAX_FRAME bytes).
+     */
+    ByteBuffer begin(int type, long game) {
+        writeLock.lock();
+        while (out.remaining() < MAX_FRAME && !closed)
+            sent.awaitUninterruptibly();
+        if (closed)
+            out.clear(); // the frames are dropped, the reader sees the lost connection
+        frameStart = out.position();
+        out.position(frameStart + 4);
+        out.put((byte) type).putLong(game);
+        return out;
+    }
+
+    /**
+     * Ends a frame, and wakes the writer thread up.
+     */
+    void end() {
+        try {
+            out.putInt(frameStart, out.position() - frameStart - 4);
+            written.signal();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Sends a frame without a payload.
+     */
+    void send(int type, long game) {
+        begin(type, game);
+        end();
+    }
+
+    /**
+     * The main loop of the writer thread.
+     */
+    private void write() {
+        try {
+            while (true) {
+                ByteBuffer buffer;
+                writeLock.lock();
+                try {
+                    while (out.position() == 0 && !closed)
+                        written.awaitUninterruptibly();
+                    if (closed)
+                        return;
+                    buffer = out;
+                    out = sending;
+                    sending = buffer;
+                    sent.signalAll();
+                } finally {
+                    writeLock.unlock();
+                }
+                buffer.flip();
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Reads the next frame (on the single reader thread of the link).
+     *
+     * @return - the type of the frame (its game and payload are valid until the next read).
+     * @throws EOFException - if the other side closed the connection.
+     */
+    int read() throws IOException {
+        while (true) {
+            if (in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length < 9 || length > in.capacity() - 4)
+                    throw new IOException("bad frame length " + length);
+                if (in.remaining() >= 4 + length) {
+                    int start = in.position();
+                    int type = in.get(start + 4) & 0xFF;
+                    game = in.getLong(start + 5);
+                    payload.limit(start + 4 + length).position(start + HEADER);
+                    in.position(start + 4 + length);
+                    return type;
+                }
+            }
+            in.compact();
+            int read = channel.read(in);
+            in.flip();
+            if (read < 0)
+                throw new EOFException();
+        }
+    }
+
+    /**
+     * @return - the game of the last frame read.
+     */
+    long game() {
+        return game;
+    }
+
+    /**
+     * @return - the payload of the last frame read.
+     */
+    ByteBuffer payload() {
+        return payload;
+    }
+
+    /**
+     * Closes the connection (the frames that were not sent yet are dropped).
+     */
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            closed = true;
+            written.signal();
+            sent.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package bguspl.set;
+
+import bguspl.set.ex.GameSnapshot;
+import bguspl.set.ex.Player;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import static bguspl.set.ClusterLink.*;
+
+/**
+ * A process of a cluster (see ClusterCoordinator) that runs games on a GameHost for a coordinator: it starts the games
+ * the coordinator opens (new or restored from a snapshot), passes the presses of their players to them, sends their
+ * user interface calls back to the coordinator, and stops a game and sends its checkpoint when the coordinator moves it
+ * to another worker.
+ * <p>
+ * The worker serves one coordinator connection, and ends when the coordinator closes it.
+ * <p>
+ * Usage: ClusterWorker [config file] [port] (prints "port" and the port it listens on, on the loopback interface, as
+ * the first line of its output)
+ */
+public class ClusterWorker {
+
+    private final Logger logger;
+    private final Properties properties;
+    private final Config config;
+    private final GameHost host;
+
+    /**
+     * The games of the worker by their cluster id.
+     */
+    private final Map<Long, Running> games = new ConcurrentHashMap<>();
+
+    /**
+     * The configuration of each game composition (the number of human and computer players), used by the reader thread.
+     */
+    private final Map<Integer, Config> configs = new HashMap<>();
+
+    private ClusterLink link;
+
+    /**
+     * @param logger     - the logger.
+     * @param properties - the configuration of the host and the games.
+     */
+    public ClusterWorker(Logger logger, Properties properties) {
+        this.logger = logger;
+        this.properties = properties;
+        this.config = new Config(logger, properties);
+        this.host = new GameHost(logger, config);
+    }
+
+    /**
+     * Serves a coordinator until it closes the connection, then terminates the games.
+     *
+     * @param channel - the connection of the coordinator.
+     */
+    public void serve(SocketChannel channel) throws IOException {
+        link = new ClusterLink(channel, config.serverBufferSize, "cluster-writer");
+        try {
+            while (true) {
+                int type = link.read();
+                long game = link.game();
+                ByteBuffer payload = link.payload();
+                switch (type) {
+                    case OPEN:
+                        open(game, payload.get(), payload.get(), payload.hasRemaining() ? GameSnapshot.decode(payload) : null);
+                        break;
+                    case PRESS: {
+                        // this thread is the only producer of the presses of the human players of the worker's games
+                        // (the key press queue takes presses from several threads, but a worker has no keyboard)
+                        Running running = games.get(game);
+                        int player = payload.get() & 0xFF;
+                        int slot = payload.get() & 0xFF;
+                        if (running != null && player < running.players.length)
+                            running.players[player].keyPressed(slot);
+                        break;
+                    }
+                    case MIGRATE:
+                        migrate(game);
+                        break;
+                    default:
+                        logger.warning("unknown cluster frame " + type);
+                }
+            }
+        } catch (EOFException e) {
+            logger.info("the coordinator closed the connection");
+        } finally {
+            host.shutdown();
+            link.close();
+        }
+    }
+
+    private void open(long game, int humans, int computers, GameSnapshot snapshot) {
+        Config gameConfig = configs.computeIfAbsent(humans << 8 | computers, key -> {
+            Properties composition = new Properties();
+            composition.putAll(properties);
+            composition.setProperty("HumanPlayers", Integer.toString(humans));
+            composition.setProperty("ComputerPlayers", Integer.toString(computers));
+            return new Config(logger, composition);
+        });
+        Running running = new Running(game);
+        GameHost.HostedGame hosted = host.prepare(gameConfig, running);
+        running.hosted = hosted;
+        running.players = hosted.game.players;
+        boolean started;
+        try {
+            if (snapshot != null)
+                snapshot.restore(hosted.game.dealer, hosted.game.players);
+            games.put(game, running);
+            started = host.start(hosted);
+        } catch (IllegalArgumentException e) {
+            logger.severe("cannot restore game " + game + ": " + e.getMessage());
+            started = false;
+        }
+        if (!started) {
+            games.remove(game);
+            hosted.game.shutdown();
+        } else {
+            hosted.done().thenRun(() -> {
+                if (games.remove(game, running))
+                    link.send(ENDED, game);
+            });
+        }
+        link.begin(OPENED, game).put((byte) (started ? 1 : 0));
+        link.end();
+    }
+
+    /**
+     * Stops a game after a checkpoint (its events are no longer sent, the game that resumes from the checkpoint shows
+     * its whole state again) and sends the checkpoint. If the dealer does not take the checkpoint in time, the request
+     * is given up, the game goes on here and the coordinator is told so (KEPT).
+     */
+    private void migrate(long game) {
+        Running running = games.remove(game);
+        GameSnapshot snapshot = null;
+        if (running != null) {
+            running.migrating = true;
+            CompletableFuture<GameSnapshot> checkpoint = running.hosted.game.dealer.checkpoint(true);
+            try {
+                snapshot = checkpoint.get(config.clusterRequestTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (checkpoint.cancel(false)) { // the dealer did not stop the game, and no longer will
+                    logger.severe("no checkpoint of game " + game + " in time, it stays on this worker");
+                    running.migrating = false;
+                    games.put(game, running);
+                    link.begin(KEPT, game);
+                    link.end();
+                    return;
+                }
+                snapshot = checkpoint.getNow(null);
+            } catch (InterruptedException | ExecutionException e) {
+                logger.severe("no checkpoint of game " + game + ": " + e);
+            }
+        }
+        ByteBuffer out = link.begin(SNAPSHOT, game);
+        try {
+            if (snapshot != null) // else the game ended
+                snapshot.encode(out);
+        } finally {
+            link.end();
+        }
+    }
+
+    /**
+     * A game of the worker, and its user interface that sends the calls to the coordinator.
+     */
+    private final class Running implements UserInterface {
+
+        final long game;
+        GameHost.HostedGame hosted;
+        Player[] players;
+        volatile boolean migrating;
+
+        Running(long game) {
+            this.game = game;
+        }
+
+        private void event(int type, int player, int slot, long value) {
+            if (migrating)
+                return;
+            ByteBuffer out = link.begin(EVENT, game);
+            try {
+                NetworkProtocol.put(out, type, player, slot, value);
+            } finally {
+                link.end();
+            }
+        }
+
+        @Override
+        public void placeCard(int card, int slot) {
+            event(NetworkProtocol.PLACE_CARD, 0, slot, card);
+        }
+
+        @Override
+        public void removeCard(int slot) {
+            event(NetworkProtocol.REMOVE_CARD, 0, slot, 0);
+        }
+
+        @Override
+        public void placeToken(int player, int slot) {
+            event(NetworkProtocol.PLACE_TOKEN, player, slot, 0);
+        }
+
+        @Override
+        public void removeTokens() {
+            event(NetworkProtocol.REMOVE_TOKENS, 0, 0, 0);
+        }
+
+        @Override
+        public void removeTokens(int slot) {
+            event(NetworkProtocol.REMOVE_SLOT_TOKENS, 0, slot, 0);
+        }
+
+        @Override
+        public void removeToken(int player, int slot) {
+            event(NetworkProtocol.REMOVE_TOKEN, player, slot, 0);
+        }
+
+        @Override
+        public void setCountdown(long millies, boolean warn) {
+            event(NetworkProtocol.SET_COUNTDOWN, warn ? 1 : 0, 0, millies);
+        }
+
+        @Override
+        public void setElapsed(long millies) {
+            event(NetworkProtocol.SET_ELAPSED, 0, 0, millies);
+        }
+
+        @Override
+        public void setFreeze(int player, long millies) {
+            event(NetworkProtocol.SET_FREEZE, player, 0, millies);
+        }
+
+        @Override
+        public void setScore(int player, int score) {
+            event(NetworkProtocol.SET_SCORE, player, 0, score);
+        }
+
+        @Override
+        public void announceWinner(int[] players) {
+            event(NetworkProtocol.ANNOUNCE_WINNER, 0, 0, NetworkProtocol.mask(players));
+        }
+
+        @Override
+        public void dispose() {
+            event(NetworkProtocol.DISPOSE, 0, 0, 0);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String configFile = args.length > 0 ? args[0] : "config.properties";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+
+        Logger logger = Simulation.logger();
+        ClusterWorker worker = new ClusterWorker(logger, Config.loadProperties(configFile, logger));
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", port))) {
+            System.out.println("port " + server.socket().getLocalPort());
+            System.out.flush();
+            // the game threads print when they start and terminate
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            worker.serve(server.accept());
+        }
+        System.exit(0);
+    }
+}
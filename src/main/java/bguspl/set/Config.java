@@ -7,6 +7,7 @@ import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,6 +16,11 @@ import java.util.logging.Logger;
  */
 public class Config {
 
+    /**
+     * What to do with a log record when the log writer thread falls behind (drop it or wait for room)
+     */
+    public final AsyncLogHandler.Overflow logOverflow;
+
     /**
      * Random spin cycles for Config::randomSpin (for debugging / testing)
      */
@@ -47,7 +53,12 @@ public class Config {
     public final int computerPlayers;
 
     /**
-     * The total number of players (human + computer) in the game
+     * The names of the strategies of the computer players (see bguspl.set.ex.Strategy), one per computer player
+     */
+    public final String[] computerStrategies;
+
+    /**
+     * The total number of players (human + computer) in the game (at most 64, as the tokens of a slot are a bit mask)
      */
     public final int players;
 
@@ -86,6 +97,51 @@ public class Config {
      */
     public final long endGamePauseMillies;
 
+    /**
+     * The execution model of the player and AI threads (platform, virtual or pool)
+     */
+    public final GameExecutor.Model threadModel;
+
+    /**
+     * The number of threads in the pool when the execution model is pool (0 for one per task)
+     */
+    public final int threadPoolSize;
+
+    /**
+     * The resolution (in milliseconds) of the timer wheel that schedules freezes
+     */
+    public final long timerTickMillis;
+
+    /**
+     * The maximal number of games a game host runs at the same time
+     */
+    public final int hostCapacity;
+
+    /**
+     * True iff the game runs in virtual time (for simulations of computer players only)
+     */
+    public final boolean virtualTime;
+
+    /**
+     * The seed of all the random numbers of the game (chosen at random if not given)
+     */
+    public final long randomSeed;
+
+    /**
+     * The directory of the game event journals (empty for no journal)
+     */
+    public final String journalDirectory;
+
+    /**
+     * The size (in bytes) of each region of a journal file mapped to memory
+     */
+    public final long journalFileSize;
+
+    /**
+     * The number of milliseconds between forcing a journal to the disk (0 to force only when a game ends)
+     */
+    public final long journalForceMillis;
+
     /**
      * The names of the players to display on the screen
      * Note: if there are more players than names, the remaining players will be called "Player 3", "Player 4", etc.
@@ -103,7 +159,7 @@ public class Config {
     public final int columns;
 
     /**
-     * The total number of cells in the table grid
+     * The total number of cells in the table grid (at most 64, as the tokens of a player are a bit mask)
      */
     public final int tableSize;
 
@@ -132,6 +188,100 @@ public class Config {
      */
     public final int fontSize;
 
+    /**
+     * The maximal number of (decoded and scaled) card images kept in memory (at least the table size, so the cards on
+     * the table are never evicted by a repaint)
+     */
+    public final int cardImageCacheSize;
+
+    /**
+     * The maximal number of times per second the table is repainted
+     */
+    public final int uiFramesPerSecond;
+
+    /**
+     * The number of user interface events that can wait for the ui thread
+     */
+    public final int uiQueueCapacity;
+
+    /**
+     * The port of the network play server (0 for no server)
+     */
+    public final int serverPort;
+
+    /**
+     * The size in bytes of the network buffers of each client connection (a client that falls this far behind is
+     * disconnected)
+     */
+    public final int serverBufferSize;
+
+    /**
+     * The number of table frames per second sent to the spectators of the network server (0 sends them every user
+     * interface event, as to the players)
+     */
+    public final int spectatorFramesPerSecond;
+
+    /**
+     * The time between keyframes (frames with the whole table) sent to the spectators (the frames in between hold only
+     * what changed since the last keyframe)
+     */
+    public final long spectatorKeyframeMillis;
+
+    /**
+     * How long a network client shows a press of its player before the server confirms it (then the press is undone)
+     */
+    public final long predictionTimeoutMillis;
+
+    /**
+     * The range of skill ratings of the players the lobby puts in the same game
+     */
+    public final int lobbySkillBucketWidth;
+
+    /**
+     * The range of network latencies of the players the lobby puts in the same game
+     */
+    public final int lobbyLatencyBucketMillis;
+
+    /**
+     * How long a player waits in the lobby for other players before its game starts with computer players
+     */
+    public final long lobbyMaxWaitMillis;
+
+    /**
+     * The number of games the lobby builds ahead of time, for each number of human players in a game
+     */
+    public final int lobbyWarmGames;
+
+    /**
+     * How long a cluster coordinator waits for a worker to start or stop a game
+     */
+    public final long clusterRequestTimeoutMillis;
+
+    /**
+     * The number of milliseconds between the checkpoints of a game (0 for checkpoints on demand only)
+     */
+    public final long checkpointMillis;
+
+    /**
+     * The directory where the last periodic checkpoint of each running game is kept (empty to keep it in memory only)
+     */
+    public final String checkpointDirectory;
+
+    /**
+     * The file of the results of the finished games, ranked on a leaderboard (empty for none)
+     */
+    public final String leaderboardFile;
+
+    /**
+     * The port of the local HTTP endpoint of the engine metrics (0 for none)
+     */
+    public final int metricsPort;
+
+    /**
+     * True iff the engine metrics are registered as JMX MBeans
+     */
+    public final boolean metricsJmx;
+
     /**
      * The scancodes of the keyboard input data for each player
      * Notes:
@@ -155,7 +305,7 @@ public class Config {
      * @param filename - the name of the configuration file.
      * @return - a properties object with the configuration file contents.
      */
-    private static Properties loadProperties(String filename, Logger logger) {
+    static Properties loadProperties(String filename, Logger logger) {
 
         Properties properties = new Properties();
 
@@ -186,6 +336,14 @@ public class Config {
         Level logLevel = Level.parse(properties.getProperty("LogLevel", "ALL"));
         String logFormat = properties.getProperty("LogFormat", "[%1$tT.%1$tL] [%2$-7s] %3$s%n");
         Main.setLoggerLevelAndFormat(logger, logLevel, logFormat);
+        String overflowName = properties.getProperty("LogOverflow", "drop");
+        AsyncLogHandler.Overflow overflow = AsyncLogHandler.Overflow.parse(overflowName);
+        if (overflow == null) {
+            logger.severe("invalid log overflow policy: " + overflowName + " using drop.");
+            overflow = AsyncLogHandler.Overflow.DROP;
+        }
+        logOverflow = overflow;
+        Main.setLoggerOverflow(logger, logOverflow);
 
         // for debugging
         randomSpinMin = Long.parseLong(properties.getProperty("RandomSpinMin", "0"));
@@ -202,6 +360,11 @@ public class Config {
         humanPlayers = Integer.parseInt(properties.getProperty("HumanPlayers", "2"));
         computerPlayers = Integer.parseInt(properties.getProperty("ComputerPlayers", "0"));
         players = humanPlayers + computerPlayers;
+        if (players > 64)
+            throw new IllegalArgumentException("invalid number of players: " + players + " (at most 64 are supported).");
+        String[] strategies = properties.getProperty("ComputerStrategies", "random").split(",");
+        computerStrategies = new String[computerPlayers];
+        Arrays.setAll(computerStrategies, i -> i < strategies.length ? strategies[i].trim() : "random");
 
         hints = Boolean.parseBoolean(properties.getProperty("Hints", "False"));
         turnTimeoutMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutSeconds", "60")) * 1000.0);
@@ -211,6 +374,26 @@ public class Config {
         tableDelayMillis = (long) (Double.parseDouble(properties.getProperty("TableDelaySeconds", "0.1")) * 1000.0);
         endGamePauseMillies = (long) (Double.parseDouble(properties.getProperty("EndGamePauseSeconds", "5")) * 1000.0);
 
+        // threading settings
+        String threadModelName = properties.getProperty("ThreadModel", "platform");
+        GameExecutor.Model model = GameExecutor.Model.parse(threadModelName);
+        if (model == null) {
+            logger.severe("invalid thread model: " + threadModelName + " using platform threads.");
+            model = GameExecutor.Model.PLATFORM;
+        }
+        threadModel = model;
+        threadPoolSize = Integer.parseInt(properties.getProperty("ThreadPoolSize", "0"));
+        timerTickMillis = Long.parseLong(properties.getProperty("TimerTickMillis", "10"));
+        hostCapacity = Integer.parseInt(properties.getProperty("HostCapacity", "500"));
+        virtualTime = Boolean.parseBoolean(properties.getProperty("VirtualTime", "False"));
+        String seed = properties.getProperty("RandomSeed", "").trim();
+        randomSeed = seed.isEmpty() ? ThreadLocalRandom.current().nextLong() : Long.parseLong(seed);
+
+        // journal settings
+        journalDirectory = properties.getProperty("JournalDirectory", "").trim();
+        journalFileSize = Long.parseLong(properties.getProperty("JournalFileSize", "1048576"));
+        journalForceMillis = Long.parseLong(properties.getProperty("JournalForceMillis", "1000"));
+
         // ui settings
         String[] names = properties.getProperty("PlayerNames", "Player 1, Player 2").split(",");
         playerNames = new String[players];
@@ -219,11 +402,31 @@ public class Config {
         rows = Integer.parseInt(properties.getProperty("Rows", "3"));
         columns = Integer.parseInt(properties.getProperty("Columns", "4"));
         tableSize = rows * columns;
+        if (tableSize > 64)
+            throw new IllegalArgumentException("invalid table size: " + tableSize + " (at most 64 slots are supported).");
         cellWidth = Integer.parseInt(properties.getProperty("CellWidth", "258"));
         cellHeight = Integer.parseInt(properties.getProperty("CellHeight", "167"));
         playerCellWidth = Integer.parseInt(properties.getProperty("PlayerCellWidth", "300"));
         playerCellHeight = Integer.parseInt(properties.getProperty("PlayerCellHeight", "40"));
         fontSize = Integer.parseInt(properties.getProperty("FontSize", "40"));
+        cardImageCacheSize = Math.max(Integer.parseInt(properties.getProperty("CardImageCacheSize", "128")), tableSize);
+        uiFramesPerSecond = Integer.parseInt(properties.getProperty("UiFramesPerSecond", "30"));
+        uiQueueCapacity = Integer.parseInt(properties.getProperty("UiQueueCapacity", "4096"));
+        serverPort = Integer.parseInt(properties.getProperty("ServerPort", "0"));
+        serverBufferSize = Integer.parseInt(properties.getProperty("ServerBufferSize", "16384"));
+        spectatorFramesPerSecond = Integer.parseInt(properties.getProperty("SpectatorFramesPerSecond", "10"));
+        spectatorKeyframeMillis = (long) (Double.parseDouble(properties.getProperty("SpectatorKeyframeSeconds", "2")) * 1000.0);
+        predictionTimeoutMillis = Long.parseLong(properties.getProperty("PredictionTimeoutMillis", "1000"));
+        lobbySkillBucketWidth = Integer.parseInt(properties.getProperty("LobbySkillBucketWidth", "200"));
+        lobbyLatencyBucketMillis = Integer.parseInt(properties.getProperty("LobbyLatencyBucketMillis", "50"));
+        lobbyMaxWaitMillis = (long) (Double.parseDouble(properties.getProperty("LobbyMaxWaitSeconds", "2")) * 1000.0);
+        lobbyWarmGames = Integer.parseInt(properties.getProperty("LobbyWarmGames", "4"));
+        clusterRequestTimeoutMillis = (long) (Double.parseDouble(properties.getProperty("ClusterRequestTimeoutSeconds", "10")) * 1000.0);
+        checkpointMillis = (long) (Double.parseDouble(properties.getProperty("CheckpointSeconds", "0")) * 1000.0);
+        checkpointDirectory = properties.getProperty("CheckpointDirectory", "").trim();
+        leaderboardFile = properties.getProperty("LeaderboardFile", "").trim();
+        metricsPort = Integer.parseInt(properties.getProperty("MetricsPort", "0"));
+        metricsJmx = Boolean.parseBoolean(properties.getProperty("MetricsJmx", "False"));
 
         // keyboard input data
         playerKeys = new int[players][rows * columns];
@@ -8,11 +8,74 @@ public class Env {
     public final Config config;
     public final UserInterface ui;
     public final Util util;
+    public final GameExecutor executor;
+    public final TimerWheel timers;
+    public final Clock clock;
+    public final Journal journal;
+    public final RandomSource random;
+
+    /**
+     * True iff the executor, the timers and the clock belong to this game (and are stopped with it).
+     */
+    private final boolean ownsThreads;
 
     public Env(Logger logger, Config config, UserInterface ui, Util util) {
+        this(logger, config, ui, util, new RandomSource(config.randomSeed));
+    }
+
+    /**
+     * @param random - the random numbers of the game (e.g. derived from the configured seed for one of many games).
+     */
+    public Env(Logger logger, Config config, UserInterface ui, Util util, RandomSource random) {
+        this(logger, config, ui, util, random, null);
+    }
+
+    /**
+     * @param journal - the journal of the game (e.g. the one a replay compares with the recording), or null to open
+     *                one as configured.
+     */
+    public Env(Logger logger, Config config, UserInterface ui, Util util, RandomSource random, Journal journal) {
+        this(logger, config, ui, util, random, journal, new TimerWheel(config.timerTickMillis), null, null, true);
+    }
+
+    /**
+     * A game environment that shares its threads with other games (e.g. the games of a GameHost).
+     *
+     * @param timers   - the shared timer wheel.
+     * @param clock    - the shared clock.
+     * @param executor - the shared executor of the player and AI tasks.
+     */
+    public Env(Logger logger, Config config, UserInterface ui, Util util, RandomSource random,
+               TimerWheel timers, Clock clock, GameExecutor executor) {
+        this(logger, config, ui, util, random, null, timers, clock, executor, false);
+    }
+
+    private Env(Logger logger, Config config, UserInterface ui, Util util, RandomSource random, Journal journal,
+                TimerWheel timers, Clock clock, GameExecutor executor, boolean ownsThreads) {
         this.logger = logger;
         this.config = config;
-        this.ui = ui;
+        this.ui = ui != null ? new UserInterfaceMeter(ui) : null;
         this.util = util;
+        this.timers = timers;
+        this.clock = clock != null ? clock
+                : config.virtualTime ? new VirtualClock(System.currentTimeMillis()) : new SystemClock(timers);
+        this.executor = executor != null ? executor : new GameExecutor(logger, config, this.clock);
+        this.journal = journal != null ? journal : Journal.open(logger, config, timers, this.clock, random.seed);
+        this.random = random;
+        this.ownsThreads = ownsThreads;
+        logger.info("random seed " + random.seed);
+    }
+
+    /**
+     * Closes the journal and stops the threads of the game environment, unless they are shared with other games (the
+     * user interface is not disposed).
+     */
+    public void shutdown() {
+        journal.close();
+        if (ownsThreads) {
+            executor.shutdown();
+            timers.shutdown();
+            clock.shutdown();
+        }
     }
 }
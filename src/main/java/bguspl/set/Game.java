@@ -0,0 +1,88 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Strategy;
+import bguspl.set.ex.Table;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The entities of one game (the table, the dealer and the players) in a game environment.
+ */
+public class Game {
+
+    public final Env env;
+    public final Table table;
+    public final Dealer dealer;
+    public final Player[] players;
+
+    /**
+     * Creates the game entities (the first config.humanPlayers players are human).
+     *
+     * @param env     - the game environment objects.
+     * @param players - the array to fill with the players (the user interface may already hold it).
+     */
+    public Game(Env env, Player[] players) {
+        this.env = env;
+        this.players = players;
+        this.table = new Table(env);
+        this.dealer = new Dealer(env, table, players);
+        for (int i = 0; i < players.length; i++)
+            players[i] = new Player(env, dealer, table, i, i < env.config.humanPlayers, strategy(i));
+    }
+
+    /**
+     * @param player - the id of a player.
+     * @return - the configured strategy of the player (random for human players and unknown strategy names).
+     */
+    private Strategy strategy(int player) {
+        if (player < env.config.humanPlayers)
+            return Strategy.RANDOM;
+        String name = env.config.computerStrategies[player - env.config.humanPlayers];
+        Strategy strategy = Strategy.forName(name);
+        if (strategy == null) {
+            env.logger.severe("invalid strategy: " + name + " for player " + player + " using random.");
+            return Strategy.RANDOM;
+        }
+        return strategy;
+    }
+
+    public Game(Env env) {
+        this(env, new Player[env.config.players]);
+    }
+
+    /**
+     * Plays the game to its end on a new dealer thread.
+     *
+     * @throws InterruptedException - if the calling thread was interrupted while waiting for the game to end (the
+     *                              game is terminated).
+     */
+    public void run() throws InterruptedException {
+        Thread dealerThread = new Thread(dealer, "dealer");
+        dealerThread.start();
+        try {
+            dealerThread.join();
+        } catch (InterruptedException e) {
+            dealer.terminate();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts the game on a task of the game executor (e.g. a virtual thread), for hosting many games at once.
+     *
+     * @param name - the name of the dealer thread.
+     * @return - a future that is completed when the game ends.
+     */
+    public CompletableFuture<Void> start(String name) {
+        return env.executor.start(dealer, name);
+    }
+
+    /**
+     * Closes the journal and stops the threads of the game environment (see Env.shutdown).
+     */
+    public void shutdown() {
+        env.shutdown();
+    }
+}
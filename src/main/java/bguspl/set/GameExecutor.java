@@ -0,0 +1,151 @@
+package bguspl.set;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * This class starts the game's long running tasks (player loops, AI key press generators) according to the
+ * configured execution model.
+ */
+public class GameExecutor {
+
+    /**
+     * The supported execution models.
+     */
+    public enum Model {
+        /**
+         * A new platform (OS) thread per task.
+         */
+        PLATFORM,
+        /**
+         * A new virtual thread per task.
+         */
+        VIRTUAL,
+        /**
+         * A fixed pool of daemon platform threads shared by all tasks.
+         */
+        POOL;
+
+        /**
+         * Parses a model name (case-insensitive).
+         *
+         * @param name - the model name.
+         * @return - the matching model, or null if there is none.
+         */
+        public static Model parse(String name) {
+            for (Model model : values())
+                if (model.name().equalsIgnoreCase(name.trim())) return model;
+            return null;
+        }
+    }
+
+    private final Model model;
+
+    /**
+     * The game clock (the threads running the tasks are registered with it).
+     */
+    private final Clock clock;
+
+    /**
+     * The thread pool (null unless the model is POOL).
+     */
+    private final ExecutorService pool;
+
+    public GameExecutor(Logger logger, Config config, Clock clock) {
+        // the player and AI loops are long living, so the pool must hold all of them at once
+        this(logger, config, clock, config.players + config.computerPlayers);
+    }
+
+    /**
+     * @param required - the maximal number of tasks running at the same time (the minimal size of a pool).
+     */
+    public GameExecutor(Logger logger, Config config, Clock clock, int required) {
+        this.model = config.threadModel;
+        this.clock = clock;
+
+        if (model == Model.POOL) {
+            int size = config.threadPoolSize;
+            if (size < required) {
+                if (size > 0)
+                    logger.severe("warning: thread pool size " + size + " is too small for " + required + " tasks. Using " + required + ".");
+                size = required;
+            }
+            pool = Executors.newFixedThreadPool(Math.max(size, 1), task -> {
+                Thread thread = new Thread(task);
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else pool = null;
+    }
+
+    /**
+     * Starts a task.
+     *
+     * @param task - the task to run.
+     * @param name - the name of the thread running the task.
+     * @return - a future that is completed when the task ends.
+     */
+    public CompletableFuture<Void> start(Runnable task, String name) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Runnable body = () -> {
+            clock.register();
+            try {
+                task.run();
+                done.complete(null);
+            } catch (Throwable t) {
+                done.completeExceptionally(t);
+            } finally {
+                clock.unregister();
+            }
+        };
+
+        switch (model) {
+            case VIRTUAL:
+                Thread.ofVirtual().name(name).start(body);
+                break;
+            case POOL:
+                pool.execute(() -> {
+                    Thread thread = Thread.currentThread();
+                    String poolName = thread.getName();
+                    thread.setName(name);
+                    try {
+                        body.run();
+                    } finally {
+                        thread.setName(poolName);
+                        //noinspection ResultOfMethodCallIgnored
+                        Thread.interrupted(); // do not leak an interrupt to the next task
+                    }
+                });
+                break;
+            default:
+                new Thread(body, name).start();
+        }
+        return done;
+    }
+
+    /**
+     * Waits for a task to end.
+     *
+     * @param task - the future returned by start (may be null).
+     */
+    public static void join(CompletableFuture<?> task) {
+        if (task == null) return;
+        try {
+            task.join();
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Releases the pool threads (if any).
+     */
+    public void shutdown() {
+        if (pool != null) pool.shutdownNow();
+    }
+
+    public Model model() {
+        return model;
+    }
+}
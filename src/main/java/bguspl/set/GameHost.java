@@ -0,0 +1,363 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Runs many independent games at once in one process. Each game has its own table, dealer and players, and all of
+ * them share the logger, the timer wheel and clock, the executor of the game tasks (so the virtual thread model runs
+ * every game on the same carrier threads) and the card image cache. The journals stay per game (a file each, see
+ * JournalDirectory in the configuration, so each recorded game can be replayed alone), but they share the timer wheel
+ * and the thread that forces them to the disk.
+ * <p>
+ * A game is admitted only if its tasks (the dealer, the players and their AI threads) fit in what is left of the
+ * host's budget, which is config.hostCapacity games of the host configuration. A rejected game is counted, never
+ * queued, so the caller can send the players to another host.
+ * <p>
+ * Usage: GameHost [games] [computer players] [config file] (plays that many headless games at once and prints the
+ * accounting)
+ */
+public class GameHost {
+
+    private final Logger logger;
+    private final Config config;
+    private final TimerWheel timers;
+    private final Clock clock;
+    private final GameExecutor executor;
+    private final RandomSource random;
+
+    /**
+     * The results of the games that end on the host (null for none).
+     */
+    private final Leaderboard leaderboard;
+
+    /**
+     * The admission budget, in tasks.
+     */
+    private final Semaphore tasks;
+    private final int capacity;
+
+    private final Map<Long, HostedGame> games = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+
+    /**
+     * Created on the first use (a headless host never loads card images).
+     */
+    private volatile CardImageCache cardImages;
+    private final ReentrantLock cardImagesLock = new ReentrantLock();
+    private volatile boolean shutdown;
+
+    /**
+     * @param logger - the logger of all the games.
+     * @param config - the host configuration: the capacity and the thread model, and the default game configuration.
+     */
+    public GameHost(Logger logger, Config config) {
+        if (config.virtualTime)
+            logger.severe("warning: the games of a host share the wall clock, virtual time is ignored.");
+        this.logger = logger;
+        this.config = config;
+        this.timers = new TimerWheel(config.timerTickMillis);
+        this.clock = new SystemClock(timers);
+        this.capacity = config.hostCapacity * tasks(config);
+        this.tasks = new Semaphore(capacity);
+        this.executor = new GameExecutor(logger, config, clock, capacity);
+        this.random = new RandomSource(config.randomSeed);
+        this.leaderboard = Leaderboard.open(logger, config);
+    }
+
+    /**
+     * @return - the number of tasks of a game: the dealer, the players and the AI threads of the computer players.
+     */
+    private static int tasks(Config config) {
+        return 1 + config.players + config.computerPlayers;
+    }
+
+    /**
+     * Starts a game with the host configuration.
+     *
+     * @param ui - the user interface of the game.
+     * @return - the game, or null if the host is full (or shut down).
+     */
+    public HostedGame open(UserInterface ui) {
+        return open(config, ui);
+    }
+
+    /**
+     * Starts a game.
+     *
+     * @param gameConfig - the game configuration (its thread model, timer and clock settings are ignored).
+     * @param ui         - the user interface of the game.
+     * @return - the game, or null if the host is full (or shut down).
+     */
+    public HostedGame open(Config gameConfig, UserInterface ui) {
+        int gameTasks = tasks(gameConfig);
+        if (shutdown || !tasks.tryAcquire(gameTasks)) { // admitted before the game (and its journal) is built
+            rejected.increment();
+            return null;
+        }
+        HostedGame hosted;
+        try {
+            hosted = prepare(gameConfig, ui);
+        } catch (RuntimeException | Error e) {
+            tasks.release(gameTasks);
+            throw e;
+        }
+        admit(hosted);
+        return hosted;
+    }
+
+    /**
+     * Builds a game (its table, dealer and players) without starting it, so it can be kept ready and started at once
+     * when it is needed (see start). A prepared game takes no room in the admission budget until it starts, but it
+     * has its journal already (if journals are on).
+     *
+     * @param gameConfig - the game configuration (its thread model, timer and clock settings are ignored).
+     * @param ui         - the user interface of the game.
+     * @return - the game.
+     */
+    public HostedGame prepare(Config gameConfig, UserInterface ui) {
+        long id = ids.incrementAndGet();
+        RandomSource gameRandom = random.derive(id);
+        Env env = new Env(logger, gameConfig, ui, new UtilImpl(gameConfig, gameRandom), gameRandom, timers, clock,
+                executor);
+        return new HostedGame(id, new Game(env), tasks(gameConfig));
+    }
+
+    /**
+     * Starts a prepared game, if it fits in the host.
+     *
+     * @param hosted - a game from prepare that did not start yet.
+     * @return - true iff the game started (otherwise it is still prepared, and can be started later).
+     */
+    public boolean start(HostedGame hosted) {
+        if (shutdown || !tasks.tryAcquire(hosted.tasks)) {
+            rejected.increment();
+            return false;
+        }
+        admit(hosted);
+        return true;
+    }
+
+    /**
+     * Runs a game whose tasks were acquired from the admission budget.
+     */
+    private void admit(HostedGame hosted) {
+        games.put(hosted.id, hosted);
+        admitted.increment();
+        hosted.start();
+    }
+
+    /**
+     * @return - the card image cache shared by the user interfaces of the games.
+     */
+    public CardImageCache cardImages() {
+        CardImageCache cache = cardImages;
+        if (cache == null) {
+            cardImagesLock.lock();
+            try {
+                cache = cardImages;
+                if (cache == null)
+                    cardImages = cache = new CardImageCache(logger, config, config.cardImageCacheSize);
+            } finally {
+                cardImagesLock.unlock();
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @return - the leaderboard of the games that end on the host (null for none).
+     */
+    public Leaderboard leaderboard() {
+        return leaderboard;
+    }
+
+    /**
+     * @return - the games that are running now.
+     */
+    public List<HostedGame> games() {
+        return new ArrayList<>(games.values());
+    }
+
+    public int active() {
+        return games.size();
+    }
+
+    public long admitted() {
+        return admitted.sum();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    public long completed() {
+        return completed.sum();
+    }
+
+    /**
+     * @return - the share of the admission budget in use (0 to 1).
+     */
+    public double load() {
+        return 1.0 - (double) tasks.availablePermits() / capacity;
+    }
+
+    /**
+     * Terminates the running games, waits for them to end and stops the shared threads.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (HostedGame hosted : games())
+            hosted.terminate();
+        for (HostedGame hosted : games())
+            GameExecutor.join(hosted.done);
+        executor.shutdown();
+        timers.shutdown();
+        clock.shutdown();
+        if (cardImages != null)
+            cardImages.shutdown();
+        if (leaderboard != null)
+            leaderboard.close();
+    }
+
+    /**
+     * A game running on the host, and the resources it uses.
+     */
+    public class HostedGame {
+
+        public final long id;
+        public final Game game;
+        private final int tasks;
+        private volatile long startMillis;
+        private volatile long endMillis;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private HostedGame(long id, Game game, int tasks) {
+            this.id = id;
+            this.game = game;
+            this.tasks = tasks;
+        }
+
+        private void start() {
+            startMillis = clock.currentTimeMillis();
+            game.start("dealer-" + id).whenComplete((result, error) -> {
+                close();
+                done.complete(null);
+            });
+        }
+
+        /**
+         * Called once, when the dealer task ends: records the result of the game and returns the game's tasks to the
+         * admission budget.
+         */
+        private void close() {
+            endMillis = clock.currentTimeMillis();
+            if (leaderboard != null)
+                leaderboard.record(game);
+            game.shutdown();
+            games.remove(id);
+            GameHost.this.tasks.release(tasks);
+            completed.increment();
+        }
+
+        /**
+         * @return - a future that is completed when the game ends (and its resources are released).
+         */
+        public CompletableFuture<Void> done() {
+            return done;
+        }
+
+        /**
+         * Ends the game early.
+         */
+        public void terminate() {
+            game.dealer.terminate();
+        }
+
+        /**
+         * @return - the resources the game used so far.
+         */
+        public Usage usage() {
+            long end = done.isDone() ? endMillis : clock.currentTimeMillis();
+            long dropped = 0;
+            for (Player player : game.players)
+                dropped += player.droppedKeyPresses();
+            return new Usage(id, tasks, end - startMillis, game.dealer.getVerificationLatency().count(),
+                    game.dealer.getLoopIterations(), dropped);
+        }
+    }
+
+    /**
+     * The resources used by a game.
+     *
+     * @param id                 - the id of the game on its host.
+     * @param tasks              - the number of tasks (threads) of the game.
+     * @param millis             - how long the game has been running (or ran).
+     * @param claims             - the number of claims the dealer checked.
+     * @param loopIterations     - the number of iterations of the dealer's timer loop.
+     * @param droppedKeyPresses  - the number of key presses dropped because a player's queue was full.
+     */
+    public record Usage(long id, int tasks, long millis, long claims, long loopIterations, long droppedKeyPresses) {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int computerPlayers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        String configFile = args.length > 2 ? args[2] : "config.properties";
+
+        Logger logger = Simulation.logger();
+        var properties = Simulation.configure(Config.loadProperties(configFile, logger), computerPlayers);
+        properties.setProperty("HostCapacity", Integer.toString(count));
+        Config config = new Config(logger, properties);
+
+        // the game threads print when they start and terminate
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        GameHost host = new GameHost(logger, config);
+        Metrics.Exposure metrics = Metrics.DEFAULT.export(logger, config);
+        List<HostedGame> started = new ArrayList<>();
+        long start = System.nanoTime();
+        long peakMemory;
+        try {
+            HostedGame hosted;
+            while ((hosted = host.open(new UserInterfaceCounter())) != null)
+                started.add(hosted);
+            Runtime runtime = Runtime.getRuntime();
+            peakMemory = runtime.totalMemory() - runtime.freeMemory();
+            for (HostedGame game : started)
+                GameExecutor.join(game.done());
+        } finally {
+            host.shutdown();
+            metrics.close();
+            System.setOut(out);
+        }
+        long nanos = System.nanoTime() - start;
+
+        long claims = 0, millis = 0;
+        for (HostedGame game : started) {
+            Usage usage = game.usage();
+            claims += usage.claims();
+            millis += usage.millis();
+        }
+        System.out.printf("%d games at once (%s threads) in %.3f s, %d rejected, heap after admission %d MB%n",
+                started.size(), config.threadModel.name().toLowerCase(), nanos / 1e9, host.rejected(),
+                peakMemory >> 20);
+        System.out.printf("per game: %.2f s, %.1f claims%n",
+                millis / 1e3 / Math.max(started.size(), 1), (double) claims / Math.max(started.size(), 1));
+    }
+}
@@ -0,0 +1,98 @@
+package bguspl.set;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of non-negative values (e.g. latencies in nanoseconds), with a relative error of at most
+ * 1/32 (values are counted in 32 linear buckets per power of 2). Recording is lock-free and allocation-free, so it
+ * can be done from any thread on the hot path.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value - the value to count (negative values are counted as 0).
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Adds the values counted by another histogram to this one.
+     *
+     * @param other - the other histogram.
+     */
+    public void add(Histogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucket = other.counts.get(i);
+            if (bucket != 0) counts.addAndGet(i, bucket);
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * @return - the sum of the values counted.
+     */
+    public long sum() {
+        return sum.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @param percentile - the percentile (between 0 and 100).
+     * @return - the highest value counted in the bucket of the percentile (at most the maximal value), or 0 if
+     * nothing was counted.
+     */
+    public long percentile(double percentile) {
+        long n = count.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestValue(i), max.get());
+        }
+        return max.get();
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long sub = (index - SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
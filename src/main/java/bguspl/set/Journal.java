@@ -0,0 +1,116 @@
+package bguspl.set;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+/**
+ * Records the engine events of a game (for dispute resolution, offline analysis and replay).
+ * All the methods do nothing by default, so a journal that is turned off costs a virtual call per event.
+ */
+public interface Journal {
+
+    /**
+     * The event types, as written in a journal file (0 marks the end of the events).
+     */
+    byte END = 0;
+    byte CARD_PLACED = 1;
+    byte CARD_REMOVED = 2;
+    byte TOKEN_PLACED = 3;
+    byte TOKEN_REMOVED = 4;
+    byte CLAIM_SUBMITTED = 5;
+    byte CLAIM_RESOLVED = 6;
+    byte FREEZE = 7;
+    byte SCORE = 8;
+    byte RESHUFFLE = 9;
+    byte GAME_END = 10;
+
+    /**
+     * A journal that records nothing.
+     */
+    Journal NONE = new Journal() {
+    };
+
+    /**
+     * Opens a journal file for a new game in the journal directory of the configuration.
+     *
+     * @param logger - the logger.
+     * @param config - the game configuration.
+     * @param timers - the timer wheel used to force the journal to the disk periodically.
+     * @param clock  - the game clock (the time of the events).
+     * @param seed   - the random seed of the game (recorded, so a replay deals the same cards).
+     * @return - the journal, or NONE if journaling is turned off (or the file cannot be created).
+     */
+    static Journal open(Logger logger, Config config, TimerWheel timers, Clock clock, long seed) {
+        if (config.journalDirectory.isEmpty())
+            return NONE;
+        long gameId = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+        String time = new SimpleDateFormat("M-d_HH-mm-ss").format(Calendar.getInstance().getTime());
+        File file = new File(config.journalDirectory, time + "_" + Long.toHexString(gameId) + ".journal");
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            file.getParentFile().mkdirs();
+            return new JournalFile(file.toPath(), gameId, seed, config, timers, clock);
+        } catch (IOException e) {
+            logger.severe("cannot create the journal file " + file + ": " + e.getMessage() + " journaling is off.");
+            return NONE;
+        }
+    }
+
+    /**
+     * @return - the id of the recorded game (0 if nothing is recorded).
+     */
+    default long gameId() {
+        return 0;
+    }
+
+    default void cardPlaced(int card, int slot) {
+    }
+
+    default void cardRemoved(int slot) {
+    }
+
+    default void tokenPlaced(int player, int slot) {
+    }
+
+    default void tokenRemoved(int player, int slot) {
+    }
+
+    /**
+     * @param player - the player that claims a set.
+     * @param slots  - the slots of the player's tokens (bit i is set iff the player has a token on slot i).
+     */
+    default void claimSubmitted(int player, long slots) {
+    }
+
+    /**
+     * @param player  - the player whose claim was resolved.
+     * @param verdict - the ordinal of the verdict (see bguspl.set.ex.Claim.Verdict).
+     */
+    default void claimResolved(int player, int verdict) {
+    }
+
+    default void freeze(int player, long millies) {
+    }
+
+    default void score(int player, int score) {
+    }
+
+    /**
+     * All the cards (and tokens) are about to be returned to the deck.
+     */
+    default void reshuffle() {
+    }
+
+    default void gameEnd(int[] winners) {
+    }
+
+    /**
+     * Writes the remaining events and closes the journal.
+     */
+    default void close() {
+    }
+}
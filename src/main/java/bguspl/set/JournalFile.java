@@ -0,0 +1,270 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A journal written through a memory-mapped file. The file is mapped in fixed size regions (the next region is
+ * mapped when the current one is full), forced to the disk periodically (by a flusher thread shared by the journals
+ * of the process, outside the journal lock), and truncated to the recorded events when the journal is closed.
+ * <p>
+ * File format (big endian): a header (magic, version, game id, random seed, start time, players, table size, feature
+ * count and feature size), followed by the events. Each event is its type (a byte), the time since the previous event (in
+ * milliseconds) and the fields of the event, all as unsigned varints (7 bits per byte, least significant first).
+ * See JournalReader for the fields of each event type.
+ */
+public class JournalFile implements Journal {
+
+    static final int MAGIC = 0x53474A4C; // "SGJL"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 2 * Integer.BYTES + 3 * Long.BYTES + 4 * Integer.BYTES;
+
+    /**
+     * The maximal size of an event of a fixed size type (type, time and two fields, one of them may be a long).
+     */
+    private static final int MAX_EVENT_SIZE = 1 + 10 + 5 + 10;
+
+    private final long gameId;
+    private final FileChannel channel;
+    private final long regionSize;
+    private final long forceMillis;
+    private final TimerWheel timers;
+    private final Clock clock;
+
+    /**
+     * Guards the fields below (an event is written as a whole, so the events are in time order).
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private MappedByteBuffer buffer;
+    private long region; // the file position of the mapped region
+    private long lastMillis;
+    private boolean closed;
+
+    private TimerWheel.Timeout forceTimeout;
+
+    /**
+     * The thread that forces the journals of the process to the disk periodically.
+     */
+    private static final ExecutorService FLUSHER = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "journal-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param file   - the journal file (created or truncated).
+     * @param gameId - the id of the recorded game.
+     * @param seed   - the random seed of the recorded game (a replay deals from it).
+     * @param config - the game configuration.
+     * @param timers - the timer wheel used to force the journal to the disk periodically.
+     * @param clock  - the game clock (the time of the events).
+     * @throws IOException - if the file cannot be created or mapped.
+     */
+    public JournalFile(Path file, long gameId, long seed, Config config, TimerWheel timers, Clock clock) throws IOException {
+        this.gameId = gameId;
+        this.regionSize = Math.max(config.journalFileSize, HEADER_SIZE + MAX_EVENT_SIZE);
+        this.forceMillis = config.journalForceMillis;
+        this.timers = timers;
+        this.clock = clock;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, regionSize);
+
+        lastMillis = clock.currentTimeMillis();
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(gameId).putLong(seed).putLong(lastMillis)
+                .putInt(config.players).putInt(config.tableSize).putInt(config.featureCount).putInt(config.featureSize);
+
+        if (forceMillis > 0)
+            forceTimeout = timers.schedule(this::force, forceMillis);
+    }
+
+    @Override
+    public long gameId() {
+        return gameId;
+    }
+
+    @Override
+    public void cardPlaced(int card, int slot) {
+        write(CARD_PLACED, card, slot);
+    }
+
+    @Override
+    public void cardRemoved(int slot) {
+        write(CARD_REMOVED, slot);
+    }
+
+    @Override
+    public void tokenPlaced(int player, int slot) {
+        write(TOKEN_PLACED, player, slot);
+    }
+
+    @Override
+    public void tokenRemoved(int player, int slot) {
+        write(TOKEN_REMOVED, player, slot);
+    }
+
+    @Override
+    public void claimSubmitted(int player, long slots) {
+        write(CLAIM_SUBMITTED, player, slots);
+    }
+
+    @Override
+    public void claimResolved(int player, int verdict) {
+        write(CLAIM_RESOLVED, player, verdict);
+    }
+
+    @Override
+    public void freeze(int player, long millies) {
+        write(FREEZE, player, millies);
+    }
+
+    @Override
+    public void score(int player, int score) {
+        write(SCORE, player, score);
+    }
+
+    @Override
+    public void reshuffle() {
+        lock.lock();
+        try {
+            begin(RESHUFFLE, MAX_EVENT_SIZE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void gameEnd(int[] winners) {
+        lock.lock();
+        try {
+            if (begin(GAME_END, MAX_EVENT_SIZE + 5 * winners.length)) {
+                putVarint(winners.length);
+                for (int winner : winners)
+                    putVarint(winner);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(byte type, int field) {
+        lock.lock();
+        try {
+            if (begin(type, MAX_EVENT_SIZE)) {
+                putVarint(field);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(byte type, int field1, long field2) {
+        lock.lock();
+        try {
+            if (begin(type, MAX_EVENT_SIZE)) {
+                putVarint(field1);
+                putVarint(field2);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts an event (the lock must be held). An event is complete once its last field is in the buffer (the unused
+     * part of the file is zeros, which reads as END).
+     *
+     * @param type - the event type.
+     * @param size - the maximal size of the event.
+     * @return - false iff the journal is closed (or cannot grow), in which case nothing was written.
+     */
+    private boolean begin(byte type, int size) {
+        if (closed)
+            return false;
+        if (buffer.remaining() < size) {
+            try {
+                buffer.force();
+                region += buffer.position();
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, region, Math.max(regionSize, size));
+            } catch (IOException e) {
+                closed = true;
+                return false;
+            }
+        }
+        long now = clock.currentTimeMillis();
+        buffer.put(type);
+        putVarint(Math.max(now - lastMillis, 0));
+        lastMillis = Math.max(now, lastMillis);
+        return true;
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Runs on the timer wheel: hands the periodic force to the flusher thread (a force can take long, and the wheel
+     * runs the timers of every game of a host).
+     */
+    private void force() {
+        FLUSHER.execute(this::flush);
+    }
+
+    /**
+     * Runs on the flusher thread: forces the mapped region to the disk without holding the lock, so the game threads
+     * keep recording events meanwhile, and schedules the next force.
+     */
+    private void flush() {
+        MappedByteBuffer region;
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            region = buffer;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            region.force();
+        } catch (RuntimeException ignored) { // the journal was closed meanwhile (and forced by close)
+        }
+        lock.lock();
+        try {
+            if (!closed)
+                forceTimeout = timers.schedule(this::force, forceMillis);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the events to the disk and truncates the file to the recorded events.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            if (forceTimeout != null)
+                forceTimeout.cancel();
+            buffer.force();
+            channel.truncate(region + buffer.position());
+            channel.close();
+        } catch (IOException ignored) {
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the events of a journal file (see JournalFile), one at a time. The fields of the current event are reused
+ * for the next one.
+ * <p>
+ * The fields of each event type:
+ * CARD_PLACED: card, slot. CARD_REMOVED: slot. TOKEN_PLACED, TOKEN_REMOVED: player, slot.
+ * CLAIM_SUBMITTED: player, value (the slots mask). CLAIM_RESOLVED: player, value (the verdict ordinal).
+ * FREEZE: player, value (milliseconds). SCORE: player, value (the score). RESHUFFLE: none. GAME_END: winners.
+ */
+public class JournalReader {
+
+    public final long gameId;
+    /**
+     * The random seed of the recorded game.
+     */
+    public final long seed;
+    public final long startMillis;
+    public final int players;
+    public final int tableSize;
+    public final int featureCount;
+    public final int featureSize;
+
+    private final ByteBuffer data;
+
+    /**
+     * The current event (type is END after the last event).
+     */
+    private byte type = Journal.END;
+    private long millis;
+    private int player;
+    private int slot;
+    private int card;
+    private long value;
+    private int[] winners = new int[0];
+
+    /**
+     * @param file - the journal file.
+     * @throws IOException - if the file cannot be read, or is not a journal.
+     */
+    public JournalReader(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.remaining() < JournalFile.HEADER_SIZE || data.getInt() != JournalFile.MAGIC
+                || data.getInt() != JournalFile.VERSION)
+            throw new IOException("not a journal (or an unsupported version): " + file);
+        gameId = data.getLong();
+        seed = data.getLong();
+        startMillis = data.getLong();
+        players = data.getInt();
+        tableSize = data.getInt();
+        featureCount = data.getInt();
+        featureSize = data.getInt();
+        millis = startMillis;
+    }
+
+    /**
+     * Reads the next event.
+     *
+     * @return - false iff there are no more events.
+     */
+    public boolean next() {
+        if (!data.hasRemaining() || (type = data.get()) == Journal.END) {
+            type = Journal.END;
+            return false;
+        }
+        millis += getVarint();
+        player = slot = card = -1;
+        value = 0;
+        switch (type) {
+            case Journal.CARD_PLACED:
+                card = (int) getVarint();
+                slot = (int) getVarint();
+                break;
+            case Journal.CARD_REMOVED:
+                slot = (int) getVarint();
+                break;
+            case Journal.TOKEN_PLACED:
+            case Journal.TOKEN_REMOVED:
+                player = (int) getVarint();
+                slot = (int) getVarint();
+                break;
+            case Journal.CLAIM_SUBMITTED:
+            case Journal.CLAIM_RESOLVED:
+            case Journal.FREEZE:
+            case Journal.SCORE:
+                player = (int) getVarint();
+                value = getVarint();
+                break;
+            case Journal.RESHUFFLE:
+                break;
+            case Journal.GAME_END:
+                int count = (int) getVarint();
+                if (winners.length != count) winners = new int[count];
+                for (int i = 0; i < count; i++)
+                    winners[i] = (int) getVarint();
+                break;
+            default:
+                throw new IllegalStateException("corrupted journal: unknown event type " + type);
+        }
+        return true;
+    }
+
+    private long getVarint() {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    /**
+     * @return - the type of the current event (one of the Journal event types).
+     */
+    public byte type() {
+        return type;
+    }
+
+    /**
+     * @return - the time of the current event (milliseconds since the epoch).
+     */
+    public long millis() {
+        return millis;
+    }
+
+    public int player() {
+        return player;
+    }
+
+    public int slot() {
+        return slot;
+    }
+
+    public int card() {
+        return card;
+    }
+
+    public long value() {
+        return value;
+    }
+
+    /**
+     * @return - the winners of a GAME_END event (the array is reused by the next GAME_END event).
+     */
+    public int[] winners() {
+        return winners;
+    }
+}
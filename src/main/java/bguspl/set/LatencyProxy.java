@@ -0,0 +1,152 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A TCP proxy on the loopback interface that delays the bytes in both directions, to try network clients (see
+ * PredictingClient) with the latency of a real network on one machine. Each connection to the proxy is forwarded to
+ * the target, and every chunk read from one side is written to the other side the given time after it was read.
+ * <p>
+ * Usage: LatencyProxy [port] [target port] [one way delay in millis]
+ */
+public class LatencyProxy implements AutoCloseable {
+
+    private final InetSocketAddress target;
+    private final long delayNanos;
+    private final ServerSocketChannel server;
+    private final Thread acceptor;
+    private final List<SocketChannel> channels = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * A chunk of bytes on its way, and when to deliver it (an empty chunk closes the other side).
+     */
+    private record Chunk(byte[] bytes, long deadline) {
+    }
+
+    /**
+     * @param port        - the port to listen on (0 picks a free port).
+     * @param target      - the address to forward to.
+     * @param delayMillis - the one way delay.
+     * @throws IOException - if the server socket cannot be opened.
+     */
+    public LatencyProxy(int port, InetSocketAddress target, long delayMillis) throws IOException {
+        this.target = target;
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", port));
+        acceptor = new Thread(this::accept, "latency-proxy");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return - the port the proxy listens on.
+     */
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    private void accept() {
+        try {
+            while (!closed) {
+                SocketChannel client = server.accept();
+                SocketChannel upstream;
+                try {
+                    upstream = SocketChannel.open(target);
+                } catch (IOException e) {
+                    client.close();
+                    continue;
+                }
+                client.socket().setTcpNoDelay(true);
+                upstream.socket().setTcpNoDelay(true);
+                channels.add(client);
+                channels.add(upstream);
+                forward(client, upstream);
+                forward(upstream, client);
+            }
+        } catch (IOException ignored) {
+            // the proxy is closed
+        }
+    }
+
+    /**
+     * Starts the threads that forward the bytes from one side to the other.
+     */
+    private void forward(SocketChannel from, SocketChannel to) {
+        BlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            try {
+                while (from.read(buffer) >= 0) {
+                    buffer.flip();
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes).clear();
+                    chunks.add(new Chunk(bytes, System.nanoTime() + delayNanos));
+                }
+            } catch (IOException ignored) {
+            }
+            chunks.add(new Chunk(new byte[0], System.nanoTime() + delayNanos));
+        }, "latency-proxy-reader");
+        Thread writer = new Thread(() -> {
+            try {
+                while (true) {
+                    Chunk chunk = chunks.take();
+                    long wait = chunk.deadline() - System.nanoTime();
+                    if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                    if (chunk.bytes().length == 0) break;
+                    ByteBuffer bytes = ByteBuffer.wrap(chunk.bytes());
+                    while (bytes.hasRemaining())
+                        to.write(bytes);
+                }
+            } catch (IOException | InterruptedException ignored) {
+            }
+            try {
+                to.shutdownOutput();
+            } catch (IOException ignored) {
+            }
+        }, "latency-proxy-writer");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    /**
+     * Closes the proxy and all its connections.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+            acceptor.join();
+        } catch (IOException | InterruptedException ignored) {
+        }
+        for (SocketChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 31337;
+        int targetPort = args.length > 1 ? Integer.parseInt(args[1]) : 31338;
+        long delay = args.length > 2 ? Long.parseLong(args[2]) : 50;
+        try (LatencyProxy proxy = new LatencyProxy(port, new InetSocketAddress("127.0.0.1", targetPort), delay)) {
+            System.out.printf("forwarding port %d to port %d with a delay of %d ms each way%n", proxy.port(),
+                    targetPort, delay);
+            proxy.acceptor.join();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package bguspl.set;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The latest countdown, elapsed time and freeze updates that did not fit in a full event queue (see
+ * UserInterfaceDispatcher and NetworkServer). Such an update is not dropped: it replaces the kept update of its key (the
+ * countdown, the elapsed time, or the freeze of a player), and the consumer applies the kept updates after the events
+ * of the queue, so the last update of each key is never lost.
+ * Updates are kept only while the queue is full, so the allocations here are off the common path.
+ */
+final class LatestValues {
+
+    /**
+     * A kept update.
+     */
+    static final class Update {
+        final int type;
+        final int player;
+        final long value;
+
+        private Update(int type, int player, long value) {
+            this.type = type;
+            this.player = player;
+            this.value = value;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Update> updates = new ConcurrentHashMap<>();
+
+    /**
+     * @param type       - the type of the update.
+     * @param player     - the player of a freeze update (ignored for the other types).
+     * @param freezeType - the type of the freeze updates.
+     * @return - the key of the update: updates of the same key replace each other.
+     */
+    static int key(int type, int player, int freezeType) {
+        return type == freezeType ? type + ((player + 1) << 8) : type;
+    }
+
+    /**
+     * Keeps an update in place of the kept update of its key.
+     */
+    void put(int key, int type, int player, long value) {
+        updates.put(key, new Update(type, player, value));
+    }
+
+    /**
+     * Forgets the kept update of a key (a newer update of the key made it into the queue).
+     */
+    void remove(int key) {
+        if (!updates.isEmpty())
+            updates.remove(key);
+    }
+
+    boolean isEmpty() {
+        return updates.isEmpty();
+    }
+
+    /**
+     * @return - a kept update, that is no longer kept (null if there is none).
+     */
+    Update poll() {
+        if (updates.isEmpty())
+            return null;
+        Iterator<Integer> keys = updates.keySet().iterator();
+        while (keys.hasNext()) {
+            Update update = updates.remove(keys.next());
+            if (update != null)
+                return update;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,552 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * The results of the finished games, kept in an append-only log file, and the standings of the players (by their
+ * configured names) over all these games, ranked on a leaderboard.
+ * <p>
+ * The log is written through a memory-mapped file, like a journal (see JournalFile): the file is mapped in fixed size
+ * regions, and truncated to the recorded games when the leaderboard is closed. When it is opened, the log is read
+ * once to rebuild the standings. The ranking is an order statistic tree (a treap whose nodes know the size of their
+ * subtree), so the top of the leaderboard and the rank of a player are found in logarithmic time, however many games
+ * were played.
+ * <p>
+ * The players are ranked by the sets they found, then by the games they won, then by fewer penalties, then by name.
+ * <p>
+ * File format (big endian): a header (magic and version), followed by the games. Each game is its type (a byte,
+ * written last, so a game that was not fully written when the process died is ignored), the length of the rest of the
+ * record (an int), the time the game ended (a long), the number of players (a short) and for each player its name (a
+ * short length and UTF-8 bytes), the sets it found, its penalties and claims (ints), the total time from its claims to
+ * their verdicts (a long, in nanoseconds) and whether it won (a byte).
+ * <p>
+ * Usage: Leaderboard [file] [players] (prints the top of the leaderboard)
+ */
+public class Leaderboard implements AutoCloseable {
+
+    static final int MAGIC = 0x53474C42; // "SGLB"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private static final byte END = 0;
+    private static final byte GAME = 1;
+    private static final int RECORD_HEADER_SIZE = 1 + Integer.BYTES;
+
+    /**
+     * The size of each region of the file mapped to memory.
+     */
+    static final long REGION_SIZE = 1 << 20;
+
+    /**
+     * The order of the leaderboard (a total order, since the names are unique).
+     */
+    private static final Comparator<Standing> ORDER = Comparator.comparingLong((Standing standing) -> -standing.sets)
+            .thenComparingLong(standing -> -standing.wins)
+            .thenComparingLong(standing -> standing.penalties)
+            .thenComparing(standing -> standing.name);
+
+    private final FileChannel channel;
+    private final long regionSize;
+
+    /**
+     * Guards the fields below.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private MappedByteBuffer buffer;
+    private long region; // the file position of the mapped region
+    private boolean closed;
+    private long games;
+    private final Map<String, Standing> standings = new HashMap<>();
+    private final RankTree ranking = new RankTree();
+
+    /**
+     * Opens the leaderboard file of the configuration.
+     *
+     * @param logger - the logger.
+     * @param config - the configuration.
+     * @return - the leaderboard, or null if there is none (or the file cannot be opened).
+     */
+    public static Leaderboard open(Logger logger, Config config) {
+        if (config.leaderboardFile.isEmpty())
+            return null;
+        Path file = Paths.get(config.leaderboardFile);
+        try {
+            if (file.getParent() != null)
+                //noinspection ResultOfMethodCallIgnored
+                file.getParent().toFile().mkdirs();
+            Leaderboard leaderboard = new Leaderboard(file, REGION_SIZE);
+            logger.info("leaderboard of " + leaderboard.games() + " games and " + leaderboard.players() + " players");
+            return leaderboard;
+        } catch (IOException e) {
+            logger.severe("cannot open the leaderboard file " + file + ": " + e.getMessage() + " results are not kept.");
+            return null;
+        }
+    }
+
+    /**
+     * Opens a leaderboard file (created if it does not exist), and rebuilds the standings from the games in it.
+     *
+     * @param file       - the leaderboard file.
+     * @param regionSize - the size of each region of the file mapped to memory.
+     * @throws IOException - if the file cannot be opened or mapped, or it is not a leaderboard file.
+     */
+    public Leaderboard(Path file, long regionSize) throws IOException {
+        this.regionSize = Math.max(regionSize, HEADER_SIZE + RECORD_HEADER_SIZE);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long end = load();
+            this.region = end;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, region, this.regionSize);
+            if (end == 0)
+                buffer.putInt(MAGIC).putInt(VERSION);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    /**
+     * Reads the games in the file into the standings.
+     *
+     * @return - the file position after the last game (0 for a new file).
+     */
+    private long load() throws IOException {
+        long size = channel.size();
+        if (size == 0)
+            return 0;
+        MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (size < HEADER_SIZE || in.getInt() != MAGIC || in.getInt() != VERSION)
+            throw new IOException("not a leaderboard file");
+        Map<String, Standing> loaded = new HashMap<>();
+        while (in.remaining() >= RECORD_HEADER_SIZE) {
+            int start = in.position();
+            byte type = in.get();
+            int length = in.getInt();
+            if (type != GAME || length < 0 || length > in.remaining()) {
+                in.position(start);
+                break;
+            }
+            int next = in.position() + length;
+            in.getLong(); // the time the game ended
+            int players = in.getShort();
+            for (int i = 0; i < players; i++) {
+                byte[] name = new byte[in.getShort()];
+                in.get(name);
+                String player = new String(name, StandardCharsets.UTF_8);
+                Standing standing = loaded.getOrDefault(player, new Standing(player));
+                loaded.put(player, standing.add(in.getInt(), in.getInt(), in.getInt(), in.getLong(), in.get() != 0));
+            }
+            in.position(next);
+            games++;
+        }
+        standings.putAll(loaded);
+        for (Standing standing : loaded.values())
+            ranking.insert(standing);
+        return in.position();
+    }
+
+    /**
+     * Records the result of a game, if it ended (a game that was terminated early or moved to another host has no
+     * result).
+     *
+     * @param game - the game, after its dealer thread ended.
+     */
+    public void record(Game game) {
+        int[] winners = game.dealer.getWinners();
+        if (winners == null)
+            return;
+        Player[] players = game.players;
+        String[] names = new String[players.length];
+        int[] sets = new int[players.length];
+        int[] penalties = new int[players.length];
+        int[] claims = new int[players.length];
+        long[] latencyNanos = new long[players.length];
+        for (int i = 0; i < players.length; i++) {
+            names[i] = game.env.config.playerNames[i];
+            sets[i] = players[i].score();
+            penalties[i] = players[i].penalties();
+            Histogram latency = game.dealer.getVerificationLatency(i);
+            claims[i] = (int) latency.count();
+            latencyNanos[i] = latency.sum();
+        }
+        record(game.env.clock.currentTimeMillis(), names, sets, penalties, claims, latencyNanos, winners);
+    }
+
+    /**
+     * Appends the result of a game to the log, and adds it to the standings of its players.
+     *
+     * @param millis       - the time the game ended.
+     * @param names        - the names of the players.
+     * @param sets         - the sets each player found.
+     * @param penalties    - the penalties of each player.
+     * @param claims       - the claims each player made.
+     * @param latencyNanos - the total time from each player's claims to their verdicts (in nanoseconds).
+     * @param winners      - the ids of the winners.
+     */
+    void record(long millis, String[] names, int[] sets, int[] penalties, int[] claims, long[] latencyNanos,
+                int[] winners) {
+        byte[][] encoded = new byte[names.length][];
+        int length = Long.BYTES + Short.BYTES;
+        for (int i = 0; i < names.length; i++) {
+            encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            length += Short.BYTES + encoded[i].length + 3 * Integer.BYTES + Long.BYTES + 1;
+        }
+        boolean[] won = new boolean[names.length];
+        for (int winner : winners)
+            won[winner] = true;
+
+        lock.lock();
+        try {
+            if (closed || !reserve(RECORD_HEADER_SIZE + length))
+                return;
+            int start = buffer.position();
+            buffer.position(start + 1);
+            buffer.putInt(length).putLong(millis).putShort((short) names.length);
+            for (int i = 0; i < names.length; i++) {
+                buffer.putShort((short) encoded[i].length).put(encoded[i]).putInt(sets[i]).putInt(penalties[i])
+                        .putInt(claims[i]).putLong(latencyNanos[i]).put((byte) (won[i] ? 1 : 0));
+            }
+            buffer.put(start, GAME);
+            buffer.force();
+            games++;
+            for (int i = 0; i < names.length; i++) {
+                Standing standing = standings.get(names[i]);
+                if (standing != null)
+                    ranking.remove(standing);
+                else
+                    standing = new Standing(names[i]);
+                standing = standing.add(sets[i], penalties[i], claims[i], latencyNanos[i], won[i]);
+                standings.put(names[i], standing);
+                ranking.insert(standing);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Maps the next region of the file if the record does not fit in the current one (the lock must be held).
+     *
+     * @return - false iff the file cannot grow (the leaderboard is closed).
+     */
+    private boolean reserve(int size) {
+        if (buffer.remaining() >= size)
+            return true;
+        try {
+            buffer.force();
+            region += buffer.position();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, region, Math.max(regionSize, size));
+            return true;
+        } catch (IOException e) {
+            closed = true;
+            return false;
+        }
+    }
+
+    /**
+     * @param count - the number of players.
+     * @return - the standings of the best players, best first.
+     */
+    public List<Standing> top(int count) {
+        lock.lock();
+        try {
+            List<Standing> top = new ArrayList<>(Math.min(count, standings.size()));
+            ranking.top(count, top);
+            return top;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param name - the name of a player.
+     * @return - the rank of the player (1 for the best player), or 0 if it did not play.
+     */
+    public int rank(String name) {
+        lock.lock();
+        try {
+            Standing standing = standings.get(name);
+            return standing == null ? 0 : ranking.rank(standing);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param name - the name of a player.
+     * @return - the standing of the player, or null if it did not play.
+     */
+    public Standing standing(String name) {
+        lock.lock();
+        try {
+            return standings.get(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return - the number of players on the leaderboard.
+     */
+    public int players() {
+        lock.lock();
+        try {
+            return standings.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return - the number of games recorded.
+     */
+    public long games() {
+        lock.lock();
+        try {
+            return games;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the games to the disk and truncates the file to the recorded games.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            buffer.force();
+            channel.truncate(region + buffer.position());
+            channel.close();
+        } catch (IOException ignored) {
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The results of a player over all its games (immutable: a new game makes a new standing).
+     */
+    public static final class Standing {
+
+        public final String name;
+        public final long games;
+        public final long wins;
+        public final long sets;
+        public final long penalties;
+        public final long claims;
+
+        /**
+         * The total time from the player's claims to their verdicts (in nanoseconds).
+         */
+        public final long claimLatencyNanos;
+
+        private Standing(String name) {
+            this(name, 0, 0, 0, 0, 0, 0);
+        }
+
+        private Standing(String name, long games, long wins, long sets, long penalties, long claims,
+                         long claimLatencyNanos) {
+            this.name = name;
+            this.games = games;
+            this.wins = wins;
+            this.sets = sets;
+            this.penalties = penalties;
+            this.claims = claims;
+            this.claimLatencyNanos = claimLatencyNanos;
+        }
+
+        private Standing add(int sets, int penalties, int claims, long latencyNanos, boolean won) {
+            return new Standing(name, games + 1, wins + (won ? 1 : 0), this.sets + sets, this.penalties + penalties,
+                    this.claims + claims, claimLatencyNanos + latencyNanos);
+        }
+
+        /**
+         * @return - the mean time from the player's claims to their verdicts (in nanoseconds, 0 if it made none).
+         */
+        public double meanClaimLatencyNanos() {
+            return claims == 0 ? 0 : (double) claimLatencyNanos / claims;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d sets, %d wins, %d penalties in %d games, %.3f ms per claim", name, sets, wins,
+                    penalties, games, meanClaimLatencyNanos() / 1e6);
+        }
+    }
+
+    /**
+     * An order statistic tree of the standings: a treap (a binary search tree in the leaderboard order, and a heap in
+     * random priorities, so it is balanced in expectation) whose nodes keep the size of their subtree.
+     */
+    private static final class RankTree {
+
+        private static final class Node {
+            final Standing standing;
+            final int priority;
+            Node left;
+            Node right;
+            int size = 1;
+
+            Node(Standing standing, int priority) {
+                this.standing = standing;
+                this.priority = priority;
+            }
+        }
+
+        private final SplittableRandom random = new SplittableRandom(MAGIC);
+        private Node root;
+
+        void insert(Standing standing) {
+            root = insert(root, new Node(standing, random.nextInt()));
+        }
+
+        void remove(Standing standing) {
+            root = remove(root, standing);
+        }
+
+        /**
+         * @return - the number of standings before the standing (which is in the tree), plus 1.
+         */
+        int rank(Standing standing) {
+            int rank = 1;
+            Node node = root;
+            while (node != null) {
+                int comparison = ORDER.compare(standing, node.standing);
+                if (comparison < 0) {
+                    node = node.left;
+                } else {
+                    rank += size(node.left);
+                    if (comparison == 0)
+                        break;
+                    rank++;
+                    node = node.right;
+                }
+            }
+            return rank;
+        }
+
+        /**
+         * Adds the first standings (in order) to a list.
+         */
+        void top(int count, List<Standing> top) {
+            top(root, count, top);
+        }
+
+        private static void top(Node node, int count, List<Standing> top) {
+            if (node == null || top.size() >= count)
+                return;
+            top(node.left, count, top);
+            if (top.size() < count)
+                top.add(node.standing);
+            top(node.right, count, top);
+        }
+
+        private static Node insert(Node node, Node added) {
+            if (node == null)
+                return added;
+            if (ORDER.compare(added.standing, node.standing) < 0) {
+                node.left = insert(node.left, added);
+                if (node.left.priority > node.priority)
+                    node = rotateRight(node);
+            } else {
+                node.right = insert(node.right, added);
+                if (node.right.priority > node.priority)
+                    node = rotateLeft(node);
+            }
+            update(node);
+            return node;
+        }
+
+        private static Node remove(Node node, Standing removed) {
+            if (node == null)
+                return null;
+            int comparison = ORDER.compare(removed, node.standing);
+            if (comparison == 0)
+                return merge(node.left, node.right);
+            if (comparison < 0)
+                node.left = remove(node.left, removed);
+            else
+                node.right = remove(node.right, removed);
+            update(node);
+            return node;
+        }
+
+        /**
+         * @return - the tree of the nodes of both trees (all the nodes of the first are before those of the second).
+         */
+        private static Node merge(Node first, Node second) {
+            if (first == null)
+                return second;
+            if (second == null)
+                return first;
+            if (first.priority > second.priority) {
+                first.right = merge(first.right, second);
+                update(first);
+                return first;
+            }
+            second.left = merge(first, second.left);
+            update(second);
+            return second;
+        }
+
+        private static Node rotateRight(Node node) {
+            Node left = node.left;
+            node.left = left.right;
+            left.right = node;
+            update(node);
+            return left;
+        }
+
+        private static Node rotateLeft(Node node) {
+            Node right = node.right;
+            node.right = right.left;
+            right.left = node;
+            update(node);
+            return right;
+        }
+
+        private static void update(Node node) {
+            node.size = 1 + size(node.left) + size(node.right);
+        }
+
+        private static int size(Node node) {
+            return node == null ? 0 : node.size;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String file = args.length > 0 ? args[0] : "leaderboard.log";
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        long start = System.nanoTime();
+        try (Leaderboard leaderboard = new Leaderboard(Paths.get(file), REGION_SIZE)) {
+            System.out.printf("%d games of %d players loaded in %.1f ms%n", leaderboard.games(), leaderboard.players(),
+                    (System.nanoTime() - start) / 1e6);
+            int rank = 1;
+            for (Standing standing : leaderboard.top(count))
+                System.out.println(rank++ + ". " + standing);
+        }
+    }
+}
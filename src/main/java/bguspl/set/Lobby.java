@@ -0,0 +1,378 @@
+package bguspl.set;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Forms games on a GameHost from a stream of waiting players. A player (a ticket) joins the bucket of its skill and
+ * latency, and as soon as a bucket has enough players for a game (config.players), a single matcher thread takes them,
+ * starts a game that was built ahead of time (so a match does not wait for a table, dealer and players to be built)
+ * and gives each player its seat: the human players get the human seats and the bots get the computer seats. A player
+ * that waits longer than config.lobbyMaxWaitMillis is put in a game with the others of its bucket, and the empty seats
+ * go to computer players.
+ * <p>
+ * Joining never blocks: the buckets are lock-free queues, and the matcher is woken only when a bucket fills up.
+ * <p>
+ * Usage: Lobby [joins] [share of human players] [config file] (joins that many players at once and prints how long they
+ * waited for their games)
+ */
+public final class Lobby {
+
+    /**
+     * The number of skill buckets and of latency buckets (higher skills and latencies share the last bucket).
+     */
+    private static final int BUCKETS = 16;
+
+    /**
+     * A player that wants to play.
+     *
+     * @param human         - true for a human player, false for a bot (a computer player).
+     * @param skill         - the player's rating.
+     * @param latencyMillis - the player's network latency.
+     */
+    public record Ticket(boolean human, int skill, int latencyMillis) {
+    }
+
+    /**
+     * The place of a player in a game.
+     *
+     * @param game   - the game.
+     * @param player - the id of the player in the game.
+     */
+    public record Seat(GameHost.HostedGame game, int player) {
+    }
+
+    /**
+     * A ticket in a bucket.
+     */
+    private static final class Waiting {
+        final Ticket ticket;
+        final long joinNanos;
+        final CompletableFuture<Seat> seat = new CompletableFuture<>();
+
+        Waiting(Ticket ticket, long joinNanos) {
+            this.ticket = ticket;
+            this.joinNanos = joinNanos;
+        }
+    }
+
+    private static final class Bucket {
+        final ConcurrentLinkedQueue<Waiting> queue = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger();
+    }
+
+    private final GameHost host;
+    private final Config config;
+    private final int players;
+    private final long maxWaitNanos;
+
+    private final Bucket[] buckets = new Bucket[BUCKETS * BUCKETS];
+
+    /**
+     * The configuration of a game with h human players, for each h.
+     */
+    private final Config[] configs;
+
+    /**
+     * Games built ahead of time, for each number of human players (only the matcher thread takes from and adds to them).
+     */
+    private final List<ArrayDeque<GameHost.HostedGame>> warm = new ArrayList<>();
+
+    /**
+     * The matches that did not fit in the host yet (retried by the matcher).
+     */
+    private final ArrayDeque<List<Waiting>> pending = new ArrayDeque<>();
+
+    private final Thread matcher;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+
+    private final LongAdder joined = new LongAdder();
+    private final LongAdder seated = new LongAdder();
+    private final LongAdder games = new LongAdder();
+    private final LongAdder bots = new LongAdder();
+    private final Histogram timeToGame = new Histogram();
+    private final ReentrantLock timeToGameLock = new ReentrantLock();
+
+    /**
+     * @param logger     - the logger.
+     * @param host       - the host to run the games on.
+     * @param properties - the game configuration (the number of players of a game, and the lobby settings).
+     */
+    public Lobby(Logger logger, GameHost host, Properties properties) {
+        this.host = host;
+        this.config = new Config(logger, properties);
+        this.players = config.players;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(config.lobbyMaxWaitMillis);
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new Bucket();
+
+        configs = new Config[players + 1];
+        for (int humans = 0; humans <= players; humans++) {
+            Properties composition = new Properties();
+            composition.putAll(properties);
+            composition.setProperty("HumanPlayers", Integer.toString(humans));
+            composition.setProperty("ComputerPlayers", Integer.toString(players - humans));
+            configs[humans] = new Config(logger, composition);
+            warm.add(new ArrayDeque<>());
+        }
+
+        matcher = new Thread(this::run, "lobby-matcher");
+        matcher.setDaemon(true);
+        matcher.start();
+    }
+
+    /**
+     * Adds a player to the lobby.
+     *
+     * @param ticket - the player.
+     * @return - completed with the player's seat when its game starts (or cancelled if the lobby closes first).
+     */
+    public CompletableFuture<Seat> join(Ticket ticket) {
+        Waiting waiting = new Waiting(ticket, System.nanoTime());
+        if (closed) {
+            waiting.seat.cancel(false);
+            return waiting.seat;
+        }
+        Bucket bucket = buckets[bucket(ticket)];
+        bucket.queue.offer(waiting);
+        joined.increment();
+        if (bucket.size.incrementAndGet() >= players && this.waiting)
+            LockSupport.unpark(matcher);
+        return waiting.seat;
+    }
+
+    private int bucket(Ticket ticket) {
+        int skill = Math.min(Math.max(ticket.skill(), 0) / config.lobbySkillBucketWidth, BUCKETS - 1);
+        int latency = Math.min(Math.max(ticket.latencyMillis(), 0) / config.lobbyLatencyBucketMillis, BUCKETS - 1);
+        return skill * BUCKETS + latency;
+    }
+
+    /**
+     * The main loop of the matcher thread.
+     */
+    private void run() {
+        warmUp();
+        while (!closed) {
+            boolean progress = retryPending();
+            long now = System.nanoTime();
+            for (Bucket bucket : buckets) {
+                while (bucket.size.get() >= players)
+                    progress |= match(take(bucket, players));
+                Waiting oldest = bucket.queue.peek();
+                if (oldest != null && now - oldest.joinNanos >= maxWaitNanos)
+                    progress |= match(take(bucket, Math.min(bucket.size.get(), players)));
+            }
+            if (!progress) {
+                waiting = true;
+                if (!ready())
+                    LockSupport.parkNanos(this, Math.max(maxWaitNanos / 4, TimeUnit.MILLISECONDS.toNanos(1)));
+                waiting = false;
+            }
+            warmUp();
+        }
+        for (ArrayDeque<GameHost.HostedGame> games : warm)
+            for (GameHost.HostedGame game : games)
+                game.game.shutdown();
+        for (List<Waiting> match : pending)
+            for (Waiting waiting : match)
+                waiting.seat.cancel(false);
+        for (Bucket bucket : buckets)
+            for (Waiting waiting : bucket.queue)
+                waiting.seat.cancel(false);
+    }
+
+    /**
+     * @return - true iff a bucket has enough players for a game.
+     */
+    private boolean ready() {
+        for (Bucket bucket : buckets)
+            if (bucket.size.get() >= players) return true;
+        return false;
+    }
+
+    private static List<Waiting> take(Bucket bucket, int count) {
+        List<Waiting> match = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Waiting waiting = bucket.queue.poll();
+            if (waiting == null) break;
+            bucket.size.decrementAndGet();
+            match.add(waiting);
+        }
+        return match;
+    }
+
+    /**
+     * Starts a game for some players, or keeps them for later if the host is full (or other matches wait for room).
+     *
+     * @return - true iff the game started.
+     */
+    private boolean match(List<Waiting> match) {
+        if (match.isEmpty())
+            return false;
+        if (pending.isEmpty() && start(match))
+            return true;
+        pending.add(match);
+        return false;
+    }
+
+    private boolean retryPending() {
+        boolean progress = false;
+        while (!pending.isEmpty() && start(pending.peek())) {
+            pending.poll();
+            progress = true;
+        }
+        return progress;
+    }
+
+    /**
+     * Starts a ready game for some players (the human players first, then the bots, then computer players for the empty
+     * seats) and gives them their seats.
+     *
+     * @return - false iff the host is full.
+     */
+    private boolean start(List<Waiting> match) {
+        int humans = 0;
+        for (Waiting waiting : match)
+            if (waiting.ticket.human()) ++humans;
+        ArrayDeque<GameHost.HostedGame> ready = warm.get(humans);
+        GameHost.HostedGame game = ready.isEmpty() ? host.prepare(configs[humans], new UserInterfaceCounter())
+                : ready.peek();
+        if (!host.start(game)) {
+            if (ready.isEmpty()) ready.add(game);
+            return false;
+        }
+        if (!ready.isEmpty() && ready.peek() == game) ready.poll();
+
+        games.increment();
+        bots.add(players - match.size());
+        int human = 0, bot = humans;
+        long now = System.nanoTime();
+        timeToGameLock.lock();
+        try {
+            for (Waiting waiting : match)
+                timeToGame.record(now - waiting.joinNanos);
+        } finally {
+            timeToGameLock.unlock();
+        }
+        for (Waiting waiting : match) {
+            waiting.seat.complete(new Seat(game, waiting.ticket.human() ? human++ : bot++));
+            seated.increment();
+        }
+        return true;
+    }
+
+    /**
+     * Builds the games that were taken from the warm pools (config.lobbyWarmGames of each number of human players).
+     */
+    private void warmUp() {
+        for (int humans = 0; humans <= players && !closed; humans++) {
+            ArrayDeque<GameHost.HostedGame> games = warm.get(humans);
+            while (games.size() < config.lobbyWarmGames && !closed)
+                games.add(host.prepare(configs[humans], new UserInterfaceCounter()));
+        }
+    }
+
+    public long joined() {
+        return joined.sum();
+    }
+
+    public long seated() {
+        return seated.sum();
+    }
+
+    /**
+     * @return - the number of games started.
+     */
+    public long games() {
+        return games.sum();
+    }
+
+    /**
+     * @return - the number of computer players added to fill the games of players that waited too long.
+     */
+    public long bots() {
+        return bots.sum();
+    }
+
+    /**
+     * @return - the time from joining to getting a seat (in nanoseconds).
+     */
+    public Histogram timeToGame() {
+        timeToGameLock.lock();
+        try {
+            Histogram copy = new Histogram();
+            copy.add(timeToGame);
+            return copy;
+        } finally {
+            timeToGameLock.unlock();
+        }
+    }
+
+    /**
+     * Stops matching, and cancels the seats of the players still waiting (the games that started keep running).
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(matcher);
+        try {
+            matcher.join();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        double humanShare = args.length > 1 ? Double.parseDouble(args[1]) : 0.5;
+        String configFile = args.length > 2 ? args[2] : "config.properties";
+
+        Logger logger = Simulation.logger();
+        Properties properties = Simulation.configure(Config.loadProperties(configFile, logger), 4);
+        properties.setProperty("ThreadModel", "virtual");
+        Config hostConfig = new Config(logger, properties);
+        properties.setProperty("HostCapacity", Integer.toString(count / hostConfig.players + BUCKETS * BUCKETS));
+
+        // the game threads print when they start and terminate
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        GameHost host = new GameHost(logger, new Config(logger, properties));
+        Lobby lobby = new Lobby(logger, host, properties);
+        SplittableRandom random = new SplittableRandom(hostConfig.randomSeed);
+        List<CompletableFuture<Seat>> seats = new ArrayList<>(count);
+        long start = System.nanoTime();
+        long joinNanos, nanos;
+        try {
+            for (int i = 0; i < count; i++)
+                seats.add(lobby.join(new Ticket(random.nextDouble() < humanShare, (int) (1500 + 300 * random.nextGaussian()),
+                        random.nextInt(10, 150))));
+            joinNanos = System.nanoTime() - start;
+            for (CompletableFuture<Seat> seat : seats)
+                seat.get(1, TimeUnit.MINUTES);
+            nanos = System.nanoTime() - start;
+        } finally {
+            lobby.close();
+            host.shutdown();
+            System.setOut(out);
+        }
+
+        Histogram wait = lobby.timeToGame();
+        System.out.printf("%d joins in %.3f s (%.0f joins/sec), all seated in %.3f s%n", count, joinNanos / 1e9,
+                count * 1e9 / joinNanos, nanos / 1e9);
+        System.out.printf("%d games, %d computer players added%n", lobby.games(), lobby.bots());
+        System.out.printf("time to game (ms): p50 %.2f, p99 %.2f, max %.2f%n", wait.percentile(50) / 1e6,
+                wait.percentile(99) / 1e6, wait.max() / 1e6);
+    }
+}
@@ -1,15 +1,16 @@
 package bguspl.set;
 
 import bguspl.set.ex.Dealer;
+import bguspl.set.ex.GameSnapshot;
 import bguspl.set.ex.Player;
-import bguspl.set.ex.Table;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.logging.*;
 
 /**
@@ -18,22 +19,29 @@ import java.util.logging.*;
 public class Main {
 
     private static Dealer dealer;
+    private static UserInterfaceDispatcher dispatcher;
     private static Thread mainThread;
 
     private static boolean xButtonPressed = false;
     private static Logger logger;
 
+    /**
+     * The number of log records that can wait for the log writer thread.
+     */
+    private static final int LOG_QUEUE_CAPACITY = 8192;
+
     public static void xButtonPressed() throws InterruptedException {
         if (logger != null) logger.severe("exit button pressed");
         xButtonPressed = true;
+        if (dispatcher != null) dispatcher.stop(); // this runs on the Swing thread, that the dispatcher waits for
         if (dealer != null) dealer.terminate();
-        mainThread.join();
+        if (mainThread != null) mainThread.join(); // null while a recorded game is replayed
     }
 
     /**
      * The game's main function. Creates all data structures and initializes the threads.
      *
-     * @param args - unused.
+     * @param args - an optional checkpoint file of a game to resume (see CheckpointDirectory in the configuration).
      */
     public static void main(String[] args) {
 
@@ -55,15 +63,37 @@ public class Main {
             if (config.humanPlayers > 0)
                 logger.severe("warning: running with human players with no user interface");
         }
+        boolean swing = ui != null;
+        NetworkServer server = null;
+        if (config.serverPort > 0) {
+            try {
+                ui = server = new NetworkServer(logger, config, new InetSocketAddress(config.serverPort), ui, players);
+            } catch (IOException e) {
+                logger.severe("error starting the network server: " + e.getMessage());
+            }
+        }
+        // the decorator logs and spins on the game threads, so the dispatcher (and the Swing thread) only render
+        if (ui != null) ui = dispatcher = new UserInterfaceDispatcher(logger, ui, swing, config.uiQueueCapacity);
         ui = new UserInterfaceDecorator(logger, util, ui);
 
         Env env = new Env(logger, config, ui, util);
 
         // create the game entities
-        Table table = new Table(env);
-        dealer = new Dealer(env, table, players);
-        for (int i = 0; i < players.length; i++)
-            players[i] = new Player(env, dealer, table, i, i < env.config.humanPlayers);
+        Game game = new Game(env, players);
+        dealer = game.dealer;
+        if (args.length > 0) {
+            try {
+                GameSnapshot.read(Paths.get(args[0])).restore(game.dealer, game.players);
+                logger.info("resuming the game from " + args[0]);
+            } catch (IOException | IllegalArgumentException e) {
+                logger.severe("cannot resume the game from " + args[0] + ": " + e.getMessage());
+            }
+        }
+        if (server != null && config.spectatorFramesPerSecond > 0)
+            server.watch(new SpectatorFeed(config, game));
+
+        Leaderboard leaderboard = Leaderboard.open(logger, config);
+        Metrics.Exposure metrics = Metrics.DEFAULT.export(logger, config);
 
         // start the dealer thread
         ThreadLogger dealerThread = new ThreadLogger(dealer, "dealer", logger);
@@ -72,6 +102,10 @@ public class Main {
         try {
             // shutdown stuff
             dealerThread.joinWithLog();
+            if (leaderboard != null) {
+                leaderboard.record(game);
+                logger.info("leaderboard of " + leaderboard.games() + " games, top: " + leaderboard.top(3));
+            }
             if (!xButtonPressed && config.endGamePauseMillies > 0) Thread.sleep(config.endGamePauseMillies);
         } catch (InterruptedException ignored) {
         } finally {
@@ -79,6 +113,9 @@ public class Main {
             System.out.println("Thanks for playing... it was fun!");
             ThreadLogger.logStop(logger, Thread.currentThread().getName());
             if (!xButtonPressed) env.ui.dispose();
+            game.shutdown();
+            if (leaderboard != null) leaderboard.close();
+            metrics.close();
             for (Handler h : logger.getHandlers()) h.flush();
         }
     }
@@ -87,11 +124,12 @@ public class Main {
 
         //just to make our log file nicer :)
         SimpleDateFormat format = new SimpleDateFormat("M-d_HH-mm-ss");
-        FileHandler handler;
+        Handler handler;
         try {
             //noinspection ResultOfMethodCallIgnored
             new File("./logs/").mkdirs();
-            handler = new FileHandler("./logs/" + format.format(Calendar.getInstance().getTime()) + ".log");
+            handler = new AsyncLogHandler("./logs/" + format.format(Calendar.getInstance().getTime()) + ".log",
+                    LOG_QUEUE_CAPACITY);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -106,15 +144,22 @@ public class Main {
 
     public static void setLoggerLevelAndFormat(Logger logger, Level level, String format) {
         Handler[] handlers = logger.getHandlers();
-        if (handlers != null) Arrays.stream(handlers).forEach(h -> h.setFormatter(new SimpleFormatter() {
+        if (handlers != null) Arrays.stream(handlers).forEach(h -> {
             // default format (with timestamp)  = "[%1$tF %1$tT] [%2$-7s] %3$s%n";
-            @Override
-            public synchronized String format(LogRecord lr) {
-                return String.format(format, new Date(lr.getMillis()),
-                        lr.getLevel().getLocalizedName(), lr.getMessage()
-                );
-            }
-        }));
+            if (h instanceof AsyncLogHandler) ((AsyncLogHandler) h).setFormat(format);
+            else h.setFormatter(new SimpleFormatter() {
+                @Override
+                public String format(LogRecord lr) {
+                    return String.format(format, lr.getMillis(), lr.getLevel().getLocalizedName(), formatMessage(lr));
+                }
+            });
+        });
         logger.setLevel(level);
     }
+
+    public static void setLoggerOverflow(Logger logger, AsyncLogHandler.Overflow overflow) {
+        Handler[] handlers = logger.getHandlers();
+        if (handlers != null) Arrays.stream(handlers).filter(h -> h instanceof AsyncLogHandler)
+                .forEach(h -> ((AsyncLogHandler) h).setOverflow(overflow));
+    }
 }
@@ -0,0 +1,381 @@
+package bguspl.set;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * The live metrics of the engine: counters and distributions (histograms) that the game entities update on their hot
+ * paths, for all the games of the process together. Updates are lock-free and allocation-free, and spread over stripes
+ * (a counter is a LongAdder, a distribution has a histogram per stripe of threads), so the threads of many games do not
+ * contend on them. The stripes are merged only when the metrics are read.
+ * <p>
+ * The metrics are read as JMX MBeans (bguspl.set:type=Metrics,name=[metric]) and on a local HTTP endpoint (/metrics,
+ * in the Prometheus text format, with the distributions as summaries), see export.
+ */
+public class Metrics {
+
+    /**
+     * The metrics of the engine.
+     */
+    public static final Metrics DEFAULT = new Metrics();
+
+    /**
+     * The units of the distributions, as exposed: the values of a time distribution are recorded in nanoseconds and
+     * exposed in seconds.
+     */
+    public static final double NANOSECONDS = 1e-9;
+    public static final double COUNT = 1;
+
+    /**
+     * The quantiles of a distribution that are exposed.
+     */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * The number of histograms of a distribution (a power of 2).
+     */
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    /**
+     * The export that registers the MBeans of the metrics (null if none), including the metrics created after it.
+     */
+    private volatile Exposure jmx;
+
+    /**
+     * @param name - the name of the counter (e.g. set_reshuffles_total).
+     * @param help - what the counter counts.
+     * @return - the counter of that name (created on the first call).
+     */
+    public Counter counter(String name, String help) {
+        Metric metric = metrics.get(name);
+        return (Counter) (metric != null ? metric : add(new Counter(name, help)));
+    }
+
+    /**
+     * @param name - the name of the distribution (e.g. set_claim_latency_seconds).
+     * @param help - what the distribution measures.
+     * @param unit - the exposed unit of a recorded value (NANOSECONDS or COUNT).
+     * @return - the distribution of that name (created on the first call).
+     */
+    public Distribution distribution(String name, String help, double unit) {
+        Metric metric = metrics.get(name);
+        return (Distribution) (metric != null ? metric : add(new Distribution(name, help, unit)));
+    }
+
+    /**
+     * @return - the metric of that name (the new one, unless another thread added one first).
+     */
+    private Metric add(Metric metric) {
+        Metric existing = metrics.putIfAbsent(metric.name, metric);
+        if (existing != null)
+            return existing;
+        Exposure exposure = jmx;
+        if (exposure != null)
+            exposure.register(metric);
+        return metric;
+    }
+
+    /**
+     * @return - the metrics in the Prometheus text format (version 0.0.4).
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Metric metric : metrics.values()) {
+            out.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+            metric.write(out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Exposes the metrics as configured (see MetricsJmx and MetricsPort in the configuration).
+     *
+     * @param logger - the logger.
+     * @param config - the configuration.
+     * @return - the exposure, to close when the process is done.
+     */
+    public Exposure export(Logger logger, Config config) {
+        Exposure exposure = new Exposure(logger);
+        if (config.metricsJmx && jmx == null) {
+            jmx = exposure;
+            for (Metric metric : metrics.values())
+                exposure.register(metric);
+        }
+        if (config.metricsPort > 0) {
+            try {
+                exposure.server = serve(new InetSocketAddress(InetAddress.getLoopbackAddress(), config.metricsPort));
+                logger.info("metrics on http://localhost:" + exposure.server.getAddress().getPort() + "/metrics");
+            } catch (IOException e) {
+                logger.severe("cannot serve the metrics on port " + config.metricsPort + ": " + e.getMessage());
+            }
+        }
+        return exposure;
+    }
+
+    /**
+     * Serves the metrics on /metrics.
+     *
+     * @param address - the address to listen on (port 0 for any free port).
+     * @return - the started server.
+     */
+    public HttpServer serve(InetSocketAddress address) throws IOException {
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/metrics", exchange -> {
+            try (exchange) {
+                byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * The MBeans and the HTTP server of an export.
+     */
+    public final class Exposure implements AutoCloseable {
+
+        private final Logger logger;
+        private final List<ObjectName> mbeans = new ArrayList<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private HttpServer server;
+
+        private Exposure(Logger logger) {
+            this.logger = logger;
+        }
+
+        private void register(Metric metric) {
+            lock.lock();
+            try {
+                if (jmx != this) // closed
+                    return;
+                ObjectName name = new ObjectName("bguspl.set:type=Metrics,name=" + metric.name);
+                if (!platform().isRegistered(name)) {
+                    platform().registerMBean(metric.mbean(), name);
+                    mbeans.add(name);
+                }
+            } catch (JMException e) {
+                logger.severe("cannot register the MBean of " + metric.name + ": " + e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return - the port of the HTTP endpoint (0 if there is none).
+         */
+        public int port() {
+            return server == null ? 0 : server.getAddress().getPort();
+        }
+
+        /**
+         * Stops the HTTP endpoint and unregisters the MBeans.
+         */
+        @Override
+        public void close() {
+            if (server != null)
+                server.stop(0);
+            lock.lock();
+            try {
+                if (jmx == this)
+                    jmx = null;
+                for (ObjectName name : mbeans) {
+                    try {
+                        platform().unregisterMBean(name);
+                    } catch (JMException ignored) {
+                    }
+                }
+                mbeans.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static MBeanServer platform() {
+        return ManagementFactory.getPlatformMBeanServer();
+    }
+
+    private abstract static class Metric {
+
+        final String name;
+        final String help;
+
+        Metric(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        /**
+         * Writes the type and the samples of the metric in the Prometheus text format.
+         */
+        abstract void write(StringBuilder out);
+
+        abstract StandardMBean mbean() throws JMException;
+    }
+
+    public interface CounterMBean {
+        long getValue();
+    }
+
+    /**
+     * A count that only goes up.
+     */
+    public static final class Counter extends Metric implements CounterMBean {
+
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String name, String help) {
+            super(name, help);
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        @Override
+        public long getValue() {
+            return value.sum();
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            out.append("# TYPE ").append(name).append(" counter\n");
+            out.append(name).append(' ').append(getValue()).append('\n');
+        }
+
+        @Override
+        StandardMBean mbean() throws JMException {
+            return new StandardMBean(this, CounterMBean.class);
+        }
+    }
+
+    public interface DistributionMBean {
+        long getCount();
+
+        double getMean();
+
+        double getMax();
+
+        double getP50();
+
+        double getP99();
+
+        double getP999();
+    }
+
+    /**
+     * The distribution of a measured value (e.g. a latency), with a relative error of at most 1/32 (see Histogram).
+     */
+    public static final class Distribution extends Metric implements DistributionMBean {
+
+        private final double unit;
+        private final Histogram[] stripes = new Histogram[STRIPES];
+
+        private Distribution(String name, String help, double unit) {
+            super(name, help);
+            this.unit = unit;
+            for (int i = 0; i < STRIPES; i++)
+                stripes[i] = new Histogram();
+        }
+
+        /**
+         * @param value - the value to record (e.g. in nanoseconds for a time distribution).
+         */
+        public void record(long value) {
+            stripes[(int) Thread.currentThread().threadId() & (STRIPES - 1)].record(value);
+        }
+
+        /**
+         * @return - a histogram of the values recorded so far.
+         */
+        public Histogram snapshot() {
+            Histogram histogram = new Histogram();
+            for (Histogram stripe : stripes)
+                histogram.add(stripe);
+            return histogram;
+        }
+
+        @Override
+        public long getCount() {
+            long count = 0;
+            for (Histogram stripe : stripes)
+                count += stripe.count();
+            return count;
+        }
+
+        @Override
+        public double getMean() {
+            return snapshot().mean() * unit;
+        }
+
+        @Override
+        public double getMax() {
+            return snapshot().max() * unit;
+        }
+
+        @Override
+        public double getP50() {
+            return snapshot().percentile(50) * unit;
+        }
+
+        @Override
+        public double getP99() {
+            return snapshot().percentile(99) * unit;
+        }
+
+        @Override
+        public double getP999() {
+            return snapshot().percentile(99.9) * unit;
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            Histogram histogram = snapshot();
+            out.append("# TYPE ").append(name).append(" summary\n");
+            for (double quantile : QUANTILES) {
+                out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(format(histogram.percentile(quantile * 100) * unit)).append('\n');
+            }
+            out.append(name).append("_sum ").append(format(histogram.sum() * unit)).append('\n');
+            out.append(name).append("_count ").append(histogram.count()).append('\n');
+        }
+
+        @Override
+        StandardMBean mbean() throws JMException {
+            return new StandardMBean(this, DistributionMBean.class);
+        }
+
+        private String format(double value) {
+            return unit == COUNT ? Long.toString((long) value) : String.format(Locale.ROOT, "%.9f", value);
+        }
+    }
+}
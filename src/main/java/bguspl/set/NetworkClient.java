@@ -0,0 +1,176 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+import static bguspl.set.NetworkProtocol.*;
+
+/**
+ * A client of a NetworkServer: joins the game, applies the messages of the server to a local user interface (on the
+ * client's reader thread) and sends the presses of the local player.
+ */
+public class NetworkClient implements AutoCloseable {
+
+    private final SocketChannel channel;
+    private final UserInterface ui;
+    private final IntConsumer rejected;
+    private final Thread reader;
+
+    private final ByteBuffer press = ByteBuffer.allocateDirect(length(PRESS));
+    private final ReentrantLock pressLock = new ReentrantLock();
+
+    private final CountDownLatch welcomed = new CountDownLatch(1);
+    private volatile int seat = -1;
+    private volatile int players, rows, columns;
+    private volatile boolean closed;
+
+    /**
+     * Connects to a server and joins the game.
+     *
+     * @param address - the address of the server.
+     * @param ui      - the user interface to apply the messages of the server to.
+     * @throws IOException - if the server cannot be reached.
+     */
+    public NetworkClient(InetSocketAddress address, UserInterface ui) throws IOException {
+        this(address, ui, null);
+    }
+
+    /**
+     * Connects to a server and joins the game.
+     *
+     * @param address  - the address of the server.
+     * @param ui       - the user interface to apply the messages of the server to.
+     * @param rejected - called (on the reader thread) with the slot of every press the player did not take (may be null).
+     * @throws IOException - if the server cannot be reached.
+     */
+    public NetworkClient(InetSocketAddress address, UserInterface ui, IntConsumer rejected) throws IOException {
+        this.ui = ui;
+        this.rejected = rejected;
+        channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        send(ByteBuffer.allocate(length(JOIN)).put((byte) JOIN).flip());
+        reader = new Thread(this::run, "network-client");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Waits for the server to seat the client.
+     *
+     * @return - the seat (the id of the player) of the client, NO_SEAT for a spectator, or -1 if the server did not answer
+     * in time.
+     */
+    public int awaitSeat(long timeout, TimeUnit unit) throws InterruptedException {
+        welcomed.await(timeout, unit);
+        return seat;
+    }
+
+    /**
+     * @return - the seat of the client (NO_SEAT for a spectator, or -1 until it is seated).
+     */
+    public int seat() {
+        return seat;
+    }
+
+    /**
+     * @return - the number of players in the game (known once the client is seated).
+     */
+    public int players() {
+        return players;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * Presses a slot (the server ignores the presses of a spectator).
+     *
+     * @param slot - the slot.
+     * @return - false iff the connection is closed.
+     */
+    public boolean press(int slot) {
+        pressLock.lock();
+        try {
+            press.clear();
+            put(press, PRESS, 0, slot, 0);
+            send(press.flip());
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            pressLock.unlock();
+        }
+    }
+
+    private void send(ByteBuffer message) throws IOException {
+        while (message.hasRemaining())
+            channel.write(message);
+    }
+
+    /**
+     * The main loop of the reader thread.
+     */
+    private void run() {
+        ByteBuffer in = ByteBuffer.allocateDirect(4096);
+        int[] fields = new int[5];
+        try {
+            while (channel.read(in) >= 0) {
+                in.flip();
+                int type;
+                while ((type = get(in, ui, fields)) > 0) {
+                    if (type == WELCOME) {
+                        players = fields[2];
+                        rows = fields[3];
+                        columns = fields[4];
+                        seat = fields[1];
+                        welcomed.countDown();
+                    } else if (type == REJECTED) {
+                        if (rejected != null) rejected.accept(fields[1]);
+                    } else if (type == DISPOSE) {
+                        return;
+                    }
+                }
+                if (type < 0)
+                    return;
+                in.compact();
+            }
+        } catch (IOException ignored) {
+            // the connection was closed
+        } finally {
+            closed = true;
+            welcomed.countDown();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return - true iff the connection is closed (by the server at the end of the game, or by the client).
+     */
+    public boolean closed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            channel.close();
+            reader.join();
+        } catch (IOException | InterruptedException ignored) {
+        }
+    }
+}
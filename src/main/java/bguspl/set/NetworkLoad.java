@@ -0,0 +1,157 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static bguspl.set.NetworkProtocol.*;
+
+/**
+ * A load generator for the NetworkServer: runs a game with a server on the loopback interface, and connects many
+ * clients to it from one selector thread. The clients that get a seat press random slots at a fixed rate, the others
+ * watch (the frames of a SpectatorFeed, unless config.spectatorFramesPerSecond is 0). Reports the message rates of the
+ * server and the clients.
+ * <p>
+ * Usage: NetworkLoad [connections] [seats] [presses per second per seat] [seconds] [config file]
+ */
+public class NetworkLoad {
+
+    /**
+     * A simulated client.
+     */
+    private static final class Client {
+        final SocketChannel channel;
+        final ByteBuffer in;
+        final ByteBuffer out = ByteBuffer.allocateDirect(64);
+        int seat = -1;
+        long messages;
+
+        Client(SocketChannel channel, int bufferSize) {
+            this.channel = channel;
+            this.in = ByteBuffer.allocateDirect(bufferSize);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int seats = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int pressesPerSecond = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        String configFile = args.length > 4 ? args[4] : "config.properties";
+
+        Logger logger = Simulation.logger();
+        var properties = Simulation.configure(Config.loadProperties(configFile, logger), 0);
+        properties.setProperty("HumanPlayers", Integer.toString(seats));
+        properties.setProperty("EndGamePauseSeconds", "0");
+        Config config = new Config(logger, properties);
+
+        // the game threads print when they start and terminate
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Player[] players = new Player[config.players];
+        NetworkServer server = new NetworkServer(logger, config, new InetSocketAddress("127.0.0.1", 0),
+                new UserInterfaceCounter(), players);
+        Env env = new Env(logger, config, server, new UtilImpl(config));
+        Game game = new Game(env, players);
+        SpectatorFeed feed = config.spectatorFramesPerSecond > 0 ? new SpectatorFeed(config, game) : null;
+        if (feed != null) server.watch(feed);
+        CompletableFuture<Void> dealer = game.start("dealer");
+
+        Selector selector = Selector.open();
+        Client[] clients = new Client[connections];
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", server.port());
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            clients[i] = new Client(channel, config.serverBufferSize);
+            channel.register(selector, SelectionKey.OP_READ, clients[i]);
+            clients[i].out.put((byte) JOIN);
+            flush(clients[i]);
+        }
+
+        SplittableRandom random = new SplittableRandom(config.randomSeed);
+        int[] fields = new int[5];
+        long pressNanos = pressesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / pressesPerSecond : Long.MAX_VALUE;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long nextPress = start;
+        long presses = 0, disconnected = 0;
+        while (System.nanoTime() < end && !dealer.isDone()) {
+            long now = System.nanoTime();
+            if (now >= nextPress) {
+                for (Client client : clients) {
+                    if (client.seat < 0 || client.seat == NO_SEAT || client.out.remaining() < length(PRESS)) continue;
+                    put(client.out, PRESS, 0, random.nextInt(config.tableSize), 0);
+                    flush(client);
+                    ++presses;
+                }
+                nextPress += pressNanos;
+            }
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(Math.min(nextPress, end) - now)));
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Client client = (Client) key.attachment();
+                if (client.channel.read(client.in) < 0) {
+                    key.cancel();
+                    client.channel.close();
+                    ++disconnected;
+                    continue;
+                }
+                client.in.flip();
+                int type;
+                while ((type = get(client.in, null, fields)) > 0) {
+                    ++client.messages;
+                    if (type == WELCOME) client.seat = fields[1];
+                }
+                client.in.compact();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        game.dealer.terminate();
+        GameExecutor.join(dealer);
+        long messages = 0;
+        int seated = 0;
+        for (Client client : clients) {
+            messages += client.messages;
+            if (client.seat >= 0 && client.seat != NO_SEAT) ++seated;
+            client.channel.close();
+        }
+        selector.close();
+        server.dispose();
+        game.shutdown();
+        System.setOut(stdout);
+
+        double secs = nanos / 1e9;
+        System.out.printf("%d connections (%d seated) for %.3f s%n", connections, seated, secs);
+        System.out.printf("server: %d messages in (%.0f/s), %d messages out (%.0f/s), %d slow clients disconnected%n",
+                server.messagesIn(), server.messagesIn() / secs, server.messagesOut(), server.messagesOut() / secs,
+                server.slowClients());
+        if (feed != null)
+            System.out.printf("spectator feed: %d frames encoded (%d bytes), %d frames out (%.0f/s)%n",
+                    feed.frames(), feed.encodedBytes(), server.framesOut(), server.framesOut() / secs);
+        System.out.printf("clients: %d presses sent, %d messages received (%.0f/s), %d disconnected%n",
+                presses, messages, messages / secs, disconnected);
+    }
+
+    private static void flush(Client client) throws IOException {
+        client.out.flip();
+        client.channel.write(client.out);
+        client.out.compact();
+    }
+}
@@ -0,0 +1,284 @@
+package bguspl.set;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The binary protocol between a NetworkServer and its clients. Every message is a type byte followed by a fixed number
+ * of big-endian fields, so a message is read and written in place in a buffer, without a length prefix, parsing or
+ * allocation. The server sends the user interface calls of the game, and a client joins (and gets a seat if one of the
+ * human players is free) and presses slots.
+ */
+public final class NetworkProtocol {
+
+    /**
+     * Server to client: the seat of the client (NO_SEAT for a spectator), the number of players, rows and columns.
+     */
+    public static final int WELCOME = 1;
+    public static final int PLACE_CARD = 2; // slot, card (2 bytes)
+    public static final int REMOVE_CARD = 3; // slot
+    public static final int PLACE_TOKEN = 4; // player, slot
+    public static final int REMOVE_TOKENS = 5;
+    public static final int REMOVE_SLOT_TOKENS = 6; // slot
+    public static final int REMOVE_TOKEN = 7; // player, slot
+    public static final int SET_COUNTDOWN = 8; // warn, millis (4 bytes)
+    public static final int SET_ELAPSED = 9; // millis (4 bytes)
+    public static final int SET_FREEZE = 10; // player, millis (4 bytes)
+    public static final int SET_SCORE = 11; // player, score (2 bytes)
+    public static final int ANNOUNCE_WINNER = 12; // the winners (8 bytes, bit i is set iff player i won)
+    public static final int DISPOSE = 13; // the game is over and the server closes the connection
+
+    /**
+     * Server to spectator (see SpectatorFeed): the start of a frame, a keyframe flag and the sequence number (4 bytes).
+     * A keyframe holds the whole table, and a delta holds the slots and scores that changed since the last keyframe, so
+     * applying the latest delta to the latest keyframe (or to any state between them) gives the current table.
+     */
+    public static final int FRAME = 14;
+    public static final int SLOT = 15; // slot, card (2 bytes, NO_CARD for none), tokens (8 bytes, bit i for player i)
+
+    /**
+     * Server to player: the player did not take a press of the slot (it is frozen, checking a set, or the slot is empty),
+     * so a client that showed the press ahead of the server should undo it.
+     */
+    public static final int REJECTED = 16; // slot
+
+    /**
+     * Client to server: asks for a seat (answered by WELCOME and the current state of the table).
+     */
+    public static final int JOIN = 32;
+    public static final int PRESS = 33; // slot
+
+    /**
+     * The seat of a spectator.
+     */
+    public static final int NO_SEAT = 0xFF;
+
+    /**
+     * The card of an empty slot in a SLOT message.
+     */
+    public static final int NO_CARD = 0xFFFF;
+
+    /**
+     * The length of the longest message.
+     */
+    public static final int MAX_LENGTH = 12;
+
+    private static final int[] LENGTHS = new int[64];
+
+    static {
+        LENGTHS[WELCOME] = 5;
+        LENGTHS[PLACE_CARD] = 4;
+        LENGTHS[REMOVE_CARD] = 2;
+        LENGTHS[PLACE_TOKEN] = 3;
+        LENGTHS[REMOVE_TOKENS] = 1;
+        LENGTHS[REMOVE_SLOT_TOKENS] = 2;
+        LENGTHS[REMOVE_TOKEN] = 3;
+        LENGTHS[SET_COUNTDOWN] = 6;
+        LENGTHS[SET_ELAPSED] = 5;
+        LENGTHS[SET_FREEZE] = 6;
+        LENGTHS[SET_SCORE] = 4;
+        LENGTHS[ANNOUNCE_WINNER] = 9;
+        LENGTHS[DISPOSE] = 1;
+        LENGTHS[FRAME] = 6;
+        LENGTHS[SLOT] = 12;
+        LENGTHS[REJECTED] = 2;
+        LENGTHS[JOIN] = 1;
+        LENGTHS[PRESS] = 2;
+    }
+
+    private NetworkProtocol() {
+    }
+
+    /**
+     * @param type - a message type.
+     * @return - the length of the message in bytes (0 for an unknown type).
+     */
+    public static int length(int type) {
+        return type >= 0 && type < LENGTHS.length ? LENGTHS[type] : 0;
+    }
+
+    /**
+     * Writes a message (the buffer must have room for it).
+     *
+     * @param out    - the buffer to write to.
+     * @param type   - the message type.
+     * @param player - the player (or the seat, or the warning flag of a countdown, or the keyframe flag of a frame).
+     * @param slot   - the slot.
+     * @param value  - the card, the score, the millis, the winners or the sequence number (according to the type).
+     */
+    public static void put(ByteBuffer out, int type, int player, int slot, long value) {
+        out.put((byte) type);
+        switch (type) {
+            case PLACE_CARD:
+                out.put((byte) slot).putShort((short) value);
+                break;
+            case REMOVE_CARD:
+            case REMOVE_SLOT_TOKENS:
+            case PRESS:
+            case REJECTED:
+                out.put((byte) slot);
+                break;
+            case PLACE_TOKEN:
+            case REMOVE_TOKEN:
+                out.put((byte) player).put((byte) slot);
+                break;
+            case SET_COUNTDOWN:
+            case SET_FREEZE:
+                out.put((byte) player).putInt(millis(value));
+                break;
+            case SET_ELAPSED:
+                out.putInt(millis(value));
+                break;
+            case SET_SCORE:
+                out.put((byte) player).putShort((short) value);
+                break;
+            case ANNOUNCE_WINNER:
+                out.putLong(value);
+                break;
+            case WELCOME: // seat, then players, rows and columns packed in the value
+                out.put((byte) player).put((byte) (value >> 16)).put((byte) (value >> 8)).put((byte) value);
+                break;
+            case FRAME: // the keyframe flag, then the sequence number
+                out.put((byte) player).putInt((int) value);
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Writes a SLOT message (the buffer must have room for it).
+     *
+     * @param out    - the buffer to write to.
+     * @param slot   - the slot.
+     * @param card   - the card in the slot (-1 for none).
+     * @param tokens - the players with a token on the slot (bit i is set iff player i has a token).
+     */
+    public static void putSlot(ByteBuffer out, int slot, int card, long tokens) {
+        out.put((byte) SLOT).put((byte) slot).putShort((short) (card < 0 ? NO_CARD : card)).putLong(tokens);
+    }
+
+    private static int millis(long value) {
+        return (int) Math.max(Math.min(value, Integer.MAX_VALUE), Integer.MIN_VALUE);
+    }
+
+    /**
+     * Reads a message, and applies it to a user interface if it is a user interface call.
+     *
+     * @param in     - the buffer to read from (its position is moved past the message if it is complete).
+     * @param ui     - the user interface to apply the message to (may be null).
+     * @param fields - filled with the fields of other messages: the type, the seat, slot or keyframe flag, and for WELCOME
+     *               the number of players, rows and columns, or for FRAME the sequence number.
+     * @return - the type of the message, 0 if the buffer does not hold a complete message, or -1 if the type is unknown.
+     */
+    public static int get(ByteBuffer in, UserInterface ui, int[] fields) {
+        if (!in.hasRemaining())
+            return 0;
+        int type = in.get(in.position()) & 0xFF;
+        int length = length(type);
+        if (length == 0)
+            return -1;
+        if (in.remaining() < length)
+            return 0;
+        in.get();
+        fields[0] = type;
+        switch (type) {
+            case WELCOME:
+                fields[1] = in.get() & 0xFF;
+                fields[2] = in.get() & 0xFF;
+                fields[3] = in.get() & 0xFF;
+                fields[4] = in.get() & 0xFF;
+                return type;
+            case PRESS:
+            case REJECTED:
+                fields[1] = in.get() & 0xFF;
+                return type;
+            case FRAME:
+                fields[1] = in.get() & 0xFF;
+                fields[2] = in.getInt();
+                return type;
+            case JOIN:
+                return type;
+            default:
+        }
+        if (ui == null) {
+            in.position(in.position() + length - 1);
+            return type;
+        }
+        switch (type) {
+            case PLACE_CARD: {
+                int slot = in.get() & 0xFF;
+                ui.placeCard(in.getShort() & 0xFFFF, slot);
+                break;
+            }
+            case REMOVE_CARD:
+                ui.removeCard(in.get() & 0xFF);
+                break;
+            case PLACE_TOKEN:
+                ui.placeToken(in.get() & 0xFF, in.get() & 0xFF);
+                break;
+            case REMOVE_TOKENS:
+                ui.removeTokens();
+                break;
+            case REMOVE_SLOT_TOKENS:
+                ui.removeTokens(in.get() & 0xFF);
+                break;
+            case REMOVE_TOKEN:
+                ui.removeToken(in.get() & 0xFF, in.get() & 0xFF);
+                break;
+            case SET_COUNTDOWN: {
+                boolean warn = in.get() != 0;
+                ui.setCountdown(in.getInt(), warn);
+                break;
+            }
+            case SET_ELAPSED:
+                ui.setElapsed(in.getInt());
+                break;
+            case SET_FREEZE:
+                ui.setFreeze(in.get() & 0xFF, in.getInt());
+                break;
+            case SET_SCORE:
+                ui.setScore(in.get() & 0xFF, in.getShort() & 0xFFFF);
+                break;
+            case ANNOUNCE_WINNER:
+                ui.announceWinner(players(in.getLong()));
+                break;
+            case DISPOSE:
+                ui.dispose();
+                break;
+            case SLOT: {
+                int slot = in.get() & 0xFF;
+                int card = in.getShort() & 0xFFFF;
+                long tokens = in.getLong();
+                ui.removeTokens(slot);
+                if (card == NO_CARD) ui.removeCard(slot);
+                else ui.placeCard(card, slot);
+                for (; tokens != 0; tokens &= tokens - 1)
+                    ui.placeToken(Long.numberOfTrailingZeros(tokens), slot);
+                break;
+            }
+            default:
+        }
+        return type;
+    }
+
+    /**
+     * @param players - the ids of some players (less than 64).
+     * @return - the players as a bit mask (bit i is set iff player i is in the array).
+     */
+    public static long mask(int[] players) {
+        long mask = 0;
+        for (int player : players)
+            mask |= 1L << player;
+        return mask;
+    }
+
+    /**
+     * @param mask - a bit mask of players.
+     * @return - the ids of the players in the mask, in increasing order.
+     */
+    public static int[] players(long mask) {
+        int[] players = new int[Long.bitCount(mask)];
+        for (int i = 0; mask != 0; mask &= mask - 1)
+            players[i++] = Long.numberOfTrailingZeros(mask);
+        return players;
+    }
+}
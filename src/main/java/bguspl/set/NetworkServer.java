@@ -0,0 +1,709 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import static bguspl.set.NetworkProtocol.*;
+
+/**
+ * A UserInterface that lets remote clients play and watch the game over TCP (see NetworkProtocol), and forwards every
+ * call to the wrapped user interface.
+ * <p>
+ * The game threads only publish their calls on a bounded lock-free queue, as in UserInterfaceDispatcher. A single
+ * selector thread does all the network work: it accepts connections, reads the clients' messages, encodes each queued
+ * call once into a broadcast buffer and copies it to the outbound buffer of every client that joined. The buffers are
+ * direct, pooled and reused, so no message allocates. A client that joins gets the first free human seat (or watches,
+ * if there is none) and the current state of the table, and the slots it presses go to Player.keyPressed of its seat
+ * (a press the player does not take is answered with REJECTED).
+ * A client that reads too slowly to keep up with the game (its outbound buffer is full) is disconnected.
+ * <p>
+ * If a SpectatorFeed is attached (see watch), the clients without a seat get its frames at a fixed rate instead of
+ * every call, and never fall behind: a spectator that is still writing a frame skips to the latest one.
+ */
+public final class NetworkServer implements UserInterface {
+
+    /**
+     * How long to wait for the clients to read the last messages after the game ends.
+     */
+    private static final long DRAIN_MILLIS = 1000;
+
+    private final Logger logger;
+    private final Config config;
+    private final UserInterface ui;
+    private final Player[] players;
+    private final int bufferSize;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private volatile boolean waiting;
+    private volatile boolean disposed;
+
+    // a bounded multi-producer queue of calls, as in UserInterfaceDispatcher
+    private final int[] types;
+    private final int[] eventPlayers;
+    private final int[] slots;
+    private final long[] values;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // owned by the selector thread
+
+    // owned by the selector thread
+    private final ByteBuffer broadcast;
+    private final ByteBuffer snapshot;
+    private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+    private final List<Connection> joined = new ArrayList<>();
+    private final Connection[] seats;
+    private final int[] fields = new int[5];
+    private boolean ended;
+    private final List<Connection> spectators = new ArrayList<>();
+    private volatile SpectatorFeed feed;
+    private long nextFrameMillis;
+
+    // the state of the table as the clients see it, for the snapshot of a client that joins
+    private final int[] cards;
+    private final long[] tokens;
+    private final int[] scores;
+
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder slowClients = new LongAdder();
+    private final LatestValues latest = new LatestValues();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder framesOut = new LongAdder();
+
+    /**
+     * A client connection.
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer in;
+        final ByteBuffer out; // in write mode: the bytes between 0 and the position are not written yet
+        int seat = -1; // -1 until the client joins
+        boolean spectator; // true iff the client gets the frames of the feed
+        SpectatorFeed.Frame frame; // the frame being written (null if none)
+        int frameOffset;
+        long keyframe = -1;
+        long sequence = -1;
+
+        Connection(SocketChannel channel, SelectionKey key, ByteBuffer in, ByteBuffer out) {
+            this.channel = channel;
+            this.key = key;
+            this.in = in;
+            this.out = out;
+        }
+    }
+
+    /**
+     * @param logger  - the logger.
+     * @param config  - the game configuration (the table size, the human players and the buffer and queue sizes).
+     * @param address - the address to listen on (port 0 picks a free port).
+     * @param ui      - the user interface to forward the calls to (may be null).
+     * @param players - the players (filled in by the game), the first config.humanPlayers of them are the seats.
+     * @throws IOException - if the server socket cannot be opened.
+     */
+    public NetworkServer(Logger logger, Config config, InetSocketAddress address, UserInterface ui, Player[] players)
+            throws IOException {
+        this.logger = logger;
+        this.config = config;
+        this.ui = ui;
+        this.players = players;
+        this.bufferSize = config.serverBufferSize;
+
+        int size = Integer.highestOneBit(Math.max(config.uiQueueCapacity, 2) - 1) << 1;
+        types = new int[size];
+        eventPlayers = new int[size];
+        slots = new int[size];
+        values = new long[size];
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+
+        broadcast = ByteBuffer.allocateDirect(bufferSize);
+        snapshot = ByteBuffer.allocateDirect(MAX_LENGTH * (1 + config.tableSize * (1 + config.players) + config.players));
+        seats = new Connection[config.humanPlayers];
+        cards = new int[config.tableSize];
+        Arrays.fill(cards, -1);
+        tokens = new long[config.tableSize];
+        scores = new int[config.players];
+
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        logger.info("network server listening on port " + port());
+
+        thread = new Thread(this::run, "network-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return - the port the server listens on.
+     */
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Sends the frames of a feed to the clients that join without a seat from now on (instead of every call).
+     *
+     * @param feed - the feed of the game.
+     */
+    public void watch(SpectatorFeed feed) {
+        this.feed = feed;
+        selector.wakeup();
+    }
+
+    /**
+     * @return - the number of frames written to the spectators (a frame counts once per spectator).
+     */
+    public long framesOut() {
+        return framesOut.sum();
+    }
+
+    /**
+     * @return - the number of messages read from the clients.
+     */
+    public long messagesIn() {
+        return messagesIn.sum();
+    }
+
+    /**
+     * @return - the number of messages written to the clients (a broadcast counts once per client).
+     */
+    public long messagesOut() {
+        return messagesOut.sum();
+    }
+
+    /**
+     * @return - the number of connections accepted.
+     */
+    public long connections() {
+        return connections.sum();
+    }
+
+    /**
+     * @return - the number of clients disconnected because they did not read fast enough.
+     */
+    public long slowClients() {
+        return slowClients.sum();
+    }
+
+    /**
+     * @return - the number of calls dropped because the queue was full after the selector thread stopped (a countdown,
+     *           elapsed time or freeze update that finds the queue full replaces the previous one, see LatestValues).
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    private void publish(int type, int player, int slot, long value) {
+        boolean coalesced = type == SET_COUNTDOWN || type == SET_ELAPSED || type == SET_FREEZE;
+        int key = coalesced ? LatestValues.key(type, player, SET_FREEZE) : 0;
+        long ticket;
+        while (true) {
+            ticket = tail.get();
+            long sequence = sequences.get((int) ticket & mask);
+            if (sequence == ticket) {
+                if (tail.compareAndSet(ticket, ticket + 1)) break;
+            } else if (sequence < ticket) { // the queue is full
+                if (disposed || !thread.isAlive() || (!coalesced && Thread.currentThread().isInterrupted())) {
+                    dropped.increment();
+                    return;
+                }
+                if (coalesced) {
+                    latest.put(key, type, player, value);
+                    if (waiting) selector.wakeup();
+                    return;
+                }
+                Thread.yield();
+            }
+        }
+        if (coalesced) latest.remove(key); // this update is newer than the kept one
+
+        int index = (int) ticket & mask;
+        types[index] = type;
+        eventPlayers[index] = player;
+        slots[index] = slot;
+        values[index] = value;
+        sequences.set(index, ticket + 1);
+        if (waiting) selector.wakeup();
+    }
+
+    /**
+     * The main loop of the selector thread.
+     */
+    private void run() {
+        long drainDeadline = Long.MAX_VALUE;
+        try {
+            while (!ended || (pending() && System.currentTimeMillis() < drainDeadline)) {
+                waiting = true;
+                if (sequences.get((int) head & mask) == head + 1 || !latest.isEmpty()) selector.selectNow();
+                else selector.select(ended ? 10 : frameTimeout());
+                waiting = false;
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) accept();
+                    else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable() && !read(connection)) continue;
+                        if (key.isValid() && key.isWritable()) {
+                            if (connection.spectator) pump(connection);
+                            else write(connection);
+                        }
+                    }
+                }
+
+                drain();
+                frame();
+                if (ended && drainDeadline == Long.MAX_VALUE)
+                    drainDeadline = System.currentTimeMillis() + DRAIN_MILLIS;
+            }
+        } catch (IOException e) {
+            logger.severe("network server failed: " + e);
+        } finally {
+            for (SelectionKey key : selector.keys())
+                closeQuietly(key);
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return - true iff a client has bytes that are not written yet.
+     */
+    private boolean pending() {
+        for (Connection connection : joined)
+            if (connection.out.position() > 0) return true;
+        for (Connection connection : spectators)
+            if (connection.out.position() > 0 || connection.frame != null) return true;
+        return false;
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key, buffer(), buffer()));
+            connections.increment();
+        }
+    }
+
+    /**
+     * @return - a buffer from the pool (or a new one if the pool is empty).
+     */
+    private ByteBuffer buffer() {
+        ByteBuffer buffer = pool.poll();
+        return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Reads and handles the messages of a client.
+     *
+     * @return - false iff the connection was closed.
+     */
+    private boolean read(Connection connection) {
+        ByteBuffer in = connection.in;
+        try {
+            if (connection.channel.read(in) < 0) {
+                close(connection);
+                return false;
+            }
+        } catch (IOException e) {
+            close(connection);
+            return false;
+        }
+        in.flip();
+        int type;
+        while ((type = NetworkProtocol.get(in, null, fields)) > 0) {
+            messagesIn.increment();
+            if (type == JOIN && connection.seat == -1) join(connection);
+            else if (type == PRESS) press(connection, fields[1]);
+        }
+        in.compact();
+        if (type < 0) { // not our protocol
+            close(connection);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Seats a client (or lets it watch) and sends it the state of the table.
+     */
+    private void join(Connection connection) {
+        int seat = NO_SEAT;
+        for (int i = 0; i < seats.length && seat == NO_SEAT; i++)
+            if (seats[i] == null) seat = i;
+        if (seat != NO_SEAT) seats[seat] = connection;
+        connection.seat = seat;
+
+        ByteBuffer out = snapshot.clear();
+        long dimensions = ((long) config.players << 16) | (config.rows << 8) | config.columns;
+        put(out, WELCOME, seat, 0, dimensions);
+        if (seat == NO_SEAT && feed != null) { // the next keyframe has the state of the table
+            connection.spectator = true;
+            spectators.add(connection);
+            send(connection, out.flip(), 1);
+            pump(connection);
+            return;
+        }
+        joined.add(connection);
+        int messages = 1;
+        for (int slot = 0; slot < cards.length; slot++) {
+            if (cards[slot] < 0) continue;
+            put(out, PLACE_CARD, 0, slot, cards[slot]);
+            ++messages;
+            for (long players = tokens[slot]; players != 0; players &= players - 1) {
+                put(out, PLACE_TOKEN, Long.numberOfTrailingZeros(players), slot, 0);
+                ++messages;
+            }
+        }
+        for (int player = 0; player < scores.length; player++) {
+            if (scores[player] == 0) continue;
+            put(out, SET_SCORE, player, 0, scores[player]);
+            ++messages;
+        }
+        send(connection, out.flip(), messages);
+        if (connection.key.isValid()) write(connection);
+    }
+
+    private void press(Connection connection, int slot) {
+        int seat = connection.seat;
+        if (seat < 0 || seat == NO_SEAT || slot >= config.tableSize) return;
+        Player player = players[seat];
+        if (player == null || player.keyPressed(slot)) return;
+        ByteBuffer out = connection.out;
+        if (out.remaining() >= length(REJECTED)) {
+            put(out, REJECTED, 0, slot, 0);
+            messagesOut.increment();
+            if ((connection.key.interestOps() & SelectionKey.OP_WRITE) == 0) write(connection);
+        }
+    }
+
+    /**
+     * Encodes the queued calls, sends them to the clients that joined and writes as much as the sockets take.
+     */
+    private void drain() {
+        broadcast.clear();
+        int messages = 0;
+        while (!ended) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) break;
+            int type = types[index];
+            int player = eventPlayers[index];
+            int slot = slots[index];
+            long value = values[index];
+            sequences.set(index, head + types.length);
+            ++head;
+            messages = deliver(type, player, slot, value, messages);
+        }
+        for (LatestValues.Update update; !ended && (update = latest.poll()) != null; )
+            messages = deliver(update.type, update.player, 0, update.value, messages);
+        broadcast(messages);
+        if (ended) {
+            for (int i = spectators.size() - 1; i >= 0; i--) {
+                Connection connection = spectators.get(i);
+                if (connection.out.remaining() >= length(DISPOSE)) connection.out.put((byte) DISPOSE);
+                pump(connection);
+            }
+        }
+        for (int i = joined.size() - 1; i >= 0; i--) {
+            Connection connection = joined.get(i);
+            if (connection.out.position() > 0 && (connection.key.interestOps() & SelectionKey.OP_WRITE) == 0)
+                write(connection);
+        }
+    }
+
+    /**
+     * Applies a call to the state of the table and encodes it into the broadcast buffer.
+     *
+     * @return - the number of messages in the broadcast buffer.
+     */
+    private int deliver(int type, int player, int slot, long value, int messages) {
+        apply(type, player, slot, value);
+        if (broadcast.remaining() < MAX_LENGTH) {
+            broadcast(messages);
+            messages = 0;
+        }
+        put(broadcast, type, player, slot, value);
+        if (type == DISPOSE) ended = true;
+        return messages + 1;
+    }
+
+    /**
+     * @return - how long the selector may wait for the next frame of the feed (0 for ever).
+     */
+    private long frameTimeout() {
+        if (feed == null || spectators.isEmpty()) return 0;
+        return Math.max(nextFrameMillis - System.currentTimeMillis(), 1);
+    }
+
+    /**
+     * Samples the next frame of the feed when it is due, and sends it to the spectators that are not busy.
+     */
+    private void frame() {
+        SpectatorFeed feed = this.feed;
+        long now = System.currentTimeMillis();
+        if (feed == null || ended || spectators.isEmpty() || now < nextFrameMillis) return;
+        nextFrameMillis = now + feed.periodMillis;
+        feed.sample();
+        for (int i = spectators.size() - 1; i >= 0; i--) {
+            Connection connection = spectators.get(i);
+            if (connection.frame == null) pump(connection);
+        }
+    }
+
+    /**
+     * Writes to a spectator: the rest of its current frame, then its pending messages, then the frames of the feed it
+     * does not have yet, until the socket takes no more (then the selector reports when it is writable again).
+     */
+    private void pump(Connection connection) {
+        try {
+            while (true) {
+                SpectatorFeed.Frame frame = connection.frame;
+                if (frame != null) {
+                    ByteBuffer data = frame.data; // shared by the spectators, only the selector thread moves its position
+                    data.position(connection.frameOffset);
+                    connection.channel.write(data);
+                    connection.frameOffset = data.position();
+                    if (data.hasRemaining()) break;
+                    connection.frame = null;
+                    --frame.writers;
+                    connection.keyframe = frame.keyframe;
+                    connection.sequence = frame.sequence;
+                    framesOut.increment();
+                } else if (connection.out.position() > 0) {
+                    ByteBuffer out = connection.out.flip();
+                    connection.channel.write(out);
+                    out.compact();
+                    if (out.position() > 0) break;
+                } else {
+                    frame = ended ? null : feed.next(connection.keyframe, connection.sequence);
+                    if (frame == null) break;
+                    connection.frame = frame;
+                    connection.frameOffset = 0;
+                    ++frame.writers;
+                }
+            }
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        boolean pending = connection.frame != null || connection.out.position() > 0;
+        int ops = pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if (connection.key.interestOps() != ops) connection.key.interestOps(ops);
+    }
+
+    /**
+     * Updates the state of the table the clients see.
+     */
+    private void apply(int type, int player, int slot, long value) {
+        switch (type) {
+            case PLACE_CARD:
+                cards[slot] = (int) value;
+                break;
+            case REMOVE_CARD:
+                cards[slot] = -1;
+                tokens[slot] = 0;
+                break;
+            case PLACE_TOKEN:
+                tokens[slot] |= 1L << player;
+                break;
+            case REMOVE_TOKENS:
+                Arrays.fill(tokens, 0);
+                break;
+            case REMOVE_SLOT_TOKENS:
+                tokens[slot] = 0;
+                break;
+            case REMOVE_TOKEN:
+                tokens[slot] &= ~(1L << player);
+                break;
+            case SET_SCORE:
+                scores[player] = (int) value;
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Copies the broadcast buffer to the outbound buffers of all the clients that joined.
+     */
+    private void broadcast(int messages) {
+        if (messages == 0) return;
+        broadcast.flip();
+        for (int i = joined.size() - 1; i >= 0; i--)
+            send(joined.get(i), broadcast.position(0), messages);
+        broadcast.clear();
+    }
+
+    private void send(Connection connection, ByteBuffer messages, int count) {
+        if (connection.out.remaining() < messages.remaining()) {
+            slowClients.increment();
+            logger.warning("network server: disconnecting a slow client (seat " + connection.seat + ")");
+            close(connection);
+            return;
+        }
+        connection.out.put(messages);
+        messagesOut.add(count);
+    }
+
+    private void write(Connection connection) {
+        ByteBuffer out = connection.out;
+        out.flip();
+        try {
+            connection.channel.write(out);
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        out.compact();
+        int ops = out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if (connection.key.interestOps() != ops) connection.key.interestOps(ops);
+    }
+
+    private void close(Connection connection) {
+        if (!connection.key.isValid()) return;
+        joined.remove(connection);
+        if (connection.spectator) spectators.remove(connection);
+        if (connection.frame != null) {
+            --connection.frame.writers;
+            connection.frame = null;
+        }
+        if (connection.seat >= 0 && connection.seat != NO_SEAT) seats[connection.seat] = null;
+        closeQuietly(connection.key);
+        pool.push(connection.in);
+        pool.push(connection.out);
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        publish(PLACE_CARD, 0, slot, card);
+        if (ui != null) ui.placeCard(card, slot);
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        publish(REMOVE_CARD, 0, slot, 0);
+        if (ui != null) ui.removeCard(slot);
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        publish(PLACE_TOKEN, player, slot, 0);
+        if (ui != null) ui.placeToken(player, slot);
+    }
+
+    @Override
+    public void removeTokens() {
+        publish(REMOVE_TOKENS, 0, 0, 0);
+        if (ui != null) ui.removeTokens();
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        publish(REMOVE_SLOT_TOKENS, 0, slot, 0);
+        if (ui != null) ui.removeTokens(slot);
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        publish(REMOVE_TOKEN, player, slot, 0);
+        if (ui != null) ui.removeToken(player, slot);
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        publish(SET_COUNTDOWN, warn ? 1 : 0, 0, millies);
+        if (ui != null) ui.setCountdown(millies, warn);
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        publish(SET_ELAPSED, 0, 0, millies);
+        if (ui != null) ui.setElapsed(millies);
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        publish(SET_FREEZE, player, 0, millies);
+        if (ui != null) ui.setFreeze(player, millies);
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        publish(SET_SCORE, player, 0, score);
+        if (ui != null) ui.setScore(player, score);
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        publish(ANNOUNCE_WINNER, 0, 0, NetworkProtocol.mask(players));
+        if (ui != null) ui.announceWinner(players);
+    }
+
+    /**
+     * Sends the queued calls and the end of the game to the clients, closes the server and disposes of the wrapped user
+     * interface.
+     */
+    @Override
+    public void dispose() {
+        if (!disposed) {
+            publish(DISPOSE, 0, 0, 0);
+            disposed = true;
+            try {
+                thread.join();
+            } catch (InterruptedException ignored) {
+            }
+            try {
+                server.close();
+            } catch (IOException ignored) {
+            }
+        }
+        if (ui != null) ui.dispose();
+    }
+}
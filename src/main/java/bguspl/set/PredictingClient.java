@@ -0,0 +1,433 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A NetworkClient for a player that shows its own token presses at once, before the server confirms them.
+ * <p>
+ * The client keeps the table as the server last described it, and the presses the server did not confirm yet (the
+ * predictions). The display shows the server's table with the predictions applied on top, so a press is drawn as soon
+ * as it is made, and the confirming token event from the server changes nothing on the screen. A prediction is rolled
+ * back (and the display goes back to the server's table) when the server rejects the press, when the card under it is
+ * removed or replaced, when the tokens of its slot are cleared, when the player is frozen, or when it is not confirmed
+ * within config.predictionTimeoutMillis (the player may drop a press it took, e.g. after the dealer reshuffled).
+ * <p>
+ * The tokens of the other players, the cards and everything else are shown as the server sends them.
+ */
+public class PredictingClient implements AutoCloseable {
+
+    /**
+     * A press that the server did not confirm yet.
+     */
+    private static final class Prediction {
+        final int slot;
+        final boolean place; // true to place a token, false to remove it
+        final long pressNanos;
+        TimerWheel.Timeout timeout;
+
+        Prediction(int slot, boolean place, long pressNanos) {
+            this.slot = slot;
+            this.place = place;
+            this.pressNanos = pressNanos;
+        }
+    }
+
+    private final Config config;
+    private final UserInterface display;
+    private final NetworkClient client;
+    private final TimerWheel timers;
+
+    /**
+     * Guards the state below, and orders the calls to the display.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // the table as the server described it
+    private final int[] cards;
+    private final long[] tokens;
+    private boolean frozen;
+
+    private final ArrayDeque<Prediction> predictions = new ArrayDeque<>();
+    private long displayed; // the slots where the display shows a token of the player
+
+    private long predicted;
+    private long confirmed;
+    private long rolledBack;
+    private final Histogram confirmLatency = new Histogram();
+
+    /**
+     * Connects to a server and joins the game.
+     *
+     * @param config  - the game configuration (the table size, the number of tokens and the prediction timeout).
+     * @param address - the address of the server.
+     * @param display - the user interface to show the predicted table on.
+     * @throws IOException - if the server cannot be reached.
+     */
+    public PredictingClient(Config config, InetSocketAddress address, UserInterface display) throws IOException {
+        this.config = config;
+        this.display = display;
+        this.timers = new TimerWheel(config.timerTickMillis);
+        cards = new int[config.tableSize];
+        Arrays.fill(cards, -1);
+        tokens = new long[config.tableSize];
+        lock.lock(); // the reader thread of the client applies the messages of the server once the client is assigned
+        try {
+            client = new NetworkClient(address, new Authoritative(), this::rejected);
+        } catch (IOException e) {
+            timers.shutdown();
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the server to seat the client.
+     *
+     * @return - the seat (the id of the player) of the client, NO_SEAT for a spectator, or -1 if the server did not answer
+     * in time.
+     */
+    public int awaitSeat(long timeout, TimeUnit unit) throws InterruptedException {
+        return client.awaitSeat(timeout, unit);
+    }
+
+    /**
+     * Presses a slot: shows the token placed or removed at once, and sends the press to the server.
+     *
+     * @param slot - the slot.
+     * @return - false iff the connection is closed.
+     */
+    public boolean press(int slot) {
+        lock.lock();
+        try {
+            predict(slot);
+        } finally {
+            lock.unlock();
+        }
+        return client.press(slot);
+    }
+
+    /**
+     * Adds a prediction for a press, if the player would take it. Must be called with the lock held.
+     */
+    private void predict(int slot) {
+        int me = me();
+        if (me < 0 || frozen || slot < 0 || slot >= cards.length || cards[slot] < 0)
+            return;
+        long mine = predictedTokens(me);
+        boolean place = (mine & 1L << slot) == 0;
+        if (place && Long.bitCount(mine) >= config.featureSize)
+            return;
+        Prediction prediction = new Prediction(slot, place, System.nanoTime());
+        prediction.timeout = timers.schedule(() -> expire(prediction), config.predictionTimeoutMillis);
+        predictions.add(prediction);
+        ++predicted;
+        render(me);
+    }
+
+    /**
+     * @return - the player's seat, or -1 if the client is not seated (yet).
+     */
+    private int me() {
+        int seat = client.seat();
+        return seat == NetworkProtocol.NO_SEAT ? -1 : seat;
+    }
+
+    /**
+     * @return - the slots with a token of the player on the server's table with the predictions applied.
+     */
+    private long predictedTokens(int me) {
+        long mine = 0;
+        for (int slot = 0; slot < tokens.length; slot++)
+            if ((tokens[slot] & 1L << me) != 0) mine |= 1L << slot;
+        for (Prediction prediction : predictions) {
+            if (prediction.place) mine |= 1L << prediction.slot;
+            else mine &= ~(1L << prediction.slot);
+        }
+        return mine;
+    }
+
+    /**
+     * Makes the display show the player's predicted tokens. Must be called with the lock held.
+     */
+    private void render(int me) {
+        long target = predictedTokens(me);
+        for (long changed = target ^ displayed; changed != 0; changed &= changed - 1) {
+            int slot = Long.numberOfTrailingZeros(changed);
+            if ((target & 1L << slot) != 0) display.placeToken(me, slot);
+            else display.removeToken(me, slot);
+        }
+        displayed = target;
+    }
+
+    /**
+     * Removes the predictions of a slot (all the slots if slot is -1). Must be called with the lock held.
+     */
+    private void rollBack(int slot) {
+        for (Iterator<Prediction> iterator = predictions.iterator(); iterator.hasNext(); ) {
+            Prediction prediction = iterator.next();
+            if (slot == -1 || prediction.slot == slot) {
+                iterator.remove();
+                prediction.timeout.cancel();
+                ++rolledBack;
+            }
+        }
+    }
+
+    /**
+     * Confirms the oldest prediction of a token event of the player, if any. Must be called with the lock held.
+     */
+    private void confirm(int slot, boolean place) {
+        for (Iterator<Prediction> iterator = predictions.iterator(); iterator.hasNext(); ) {
+            Prediction prediction = iterator.next();
+            if (prediction.slot == slot && prediction.place == place) {
+                iterator.remove();
+                prediction.timeout.cancel();
+                ++confirmed;
+                confirmLatency.record(System.nanoTime() - prediction.pressNanos);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Called by the reader thread when the server rejects a press: rolls back the oldest prediction of the slot.
+     */
+    private void rejected(int slot) {
+        lock.lock();
+        try {
+            for (Iterator<Prediction> iterator = predictions.iterator(); iterator.hasNext(); ) {
+                Prediction prediction = iterator.next();
+                if (prediction.slot == slot) {
+                    iterator.remove();
+                    prediction.timeout.cancel();
+                    ++rolledBack;
+                    break;
+                }
+            }
+            int me = me();
+            if (me >= 0) render(me);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by the timer when a prediction was not confirmed in time.
+     */
+    private void expire(Prediction prediction) {
+        lock.lock();
+        try {
+            if (predictions.remove(prediction)) {
+                ++rolledBack;
+                int me = me();
+                if (me >= 0) render(me);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return - the number of presses shown before the server confirmed them.
+     */
+    public long predicted() {
+        lock.lock();
+        try {
+            return predicted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return - the number of predictions the server confirmed.
+     */
+    public long confirmed() {
+        lock.lock();
+        try {
+            return confirmed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return - the number of predictions rolled back.
+     */
+    public long rolledBack() {
+        lock.lock();
+        try {
+            return rolledBack;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return - the time from a press to its confirmation (in nanoseconds), that the prediction hides.
+     */
+    public Histogram confirmLatency() {
+        lock.lock();
+        try {
+            Histogram copy = new Histogram();
+            copy.add(confirmLatency);
+            return copy;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        client.close();
+        timers.shutdown();
+    }
+
+    /**
+     * Applies the messages of the server (on the reader thread of the client).
+     */
+    private class Authoritative implements UserInterface {
+
+        @Override
+        public void placeCard(int card, int slot) {
+            lock.lock();
+            try {
+                if (cards[slot] != card) rollBack(slot);
+                cards[slot] = card;
+                display.placeCard(card, slot);
+                reconcile();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void removeCard(int slot) {
+            lock.lock();
+            try {
+                rollBack(slot);
+                cards[slot] = -1;
+                tokens[slot] = 0;
+                display.removeCard(slot);
+                reconcile();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void placeToken(int player, int slot) {
+            lock.lock();
+            try {
+                tokens[slot] |= 1L << player;
+                if (player == me()) {
+                    confirm(slot, true);
+                    reconcile();
+                } else display.placeToken(player, slot);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void removeTokens() {
+            lock.lock();
+            try {
+                rollBack(-1);
+                Arrays.fill(tokens, 0);
+                display.removeTokens();
+                displayed = 0;
+                reconcile();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void removeTokens(int slot) {
+            lock.lock();
+            try {
+                rollBack(slot);
+                tokens[slot] = 0;
+                display.removeTokens(slot);
+                displayed &= ~(1L << slot);
+                reconcile();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void removeToken(int player, int slot) {
+            lock.lock();
+            try {
+                tokens[slot] &= ~(1L << player);
+                if (player == me()) {
+                    confirm(slot, false);
+                    reconcile();
+                } else display.removeToken(player, slot);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void setCountdown(long millies, boolean warn) {
+            display.setCountdown(millies, warn);
+        }
+
+        @Override
+        public void setElapsed(long millies) {
+            display.setElapsed(millies);
+        }
+
+        @Override
+        public void setFreeze(int player, long millies) {
+            lock.lock();
+            try {
+                if (player == me()) {
+                    // the presses made while the player waited for the verdict were not taken
+                    if (millies > 0 && !frozen) rollBack(-1);
+                    frozen = millies > 0;
+                    reconcile();
+                }
+                display.setFreeze(player, millies);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void setScore(int player, int score) {
+            display.setScore(player, score);
+        }
+
+        @Override
+        public void announceWinner(int[] players) {
+            display.announceWinner(players);
+        }
+
+        @Override
+        public void dispose() {
+            lock.lock();
+            try {
+                rollBack(-1);
+            } finally {
+                lock.unlock();
+            }
+            display.dispose();
+        }
+
+        private void reconcile() {
+            int me = me();
+            if (me >= 0) render(me);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package bguspl.set;
+
+import java.util.SplittableRandom;
+
+/**
+ * The random numbers of a game, derived from a single seed. Every consumer (the dealer, each player, the random spin)
+ * gets its own independent stream, identified by a fixed number rather than by the order of the requests, so the
+ * same seed and the same thread schedule give the same deals and the same computer player moves.
+ */
+public class RandomSource {
+
+    /**
+     * The stream ids of the consumers (the stream of player i is PLAYERS + i).
+     */
+    public static final long DEALER = 0;
+    public static final long SPIN = 1;
+    public static final long PLAYERS = 2;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    public final long seed;
+
+    public RandomSource(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param id - the stream id.
+     * @return - the seed of the stream (well spread, so the streams of nearby ids do not overlap).
+     */
+    public long streamSeed(long id) {
+        return mix64(seed + (id + 1) * GOLDEN_GAMMA);
+    }
+
+    /**
+     * @param id - the stream id.
+     * @return - a new generator of the stream (not thread safe, each consumer thread should use its own).
+     */
+    public SplittableRandom stream(long id) {
+        return new SplittableRandom(streamSeed(id));
+    }
+
+    public SplittableRandom dealer() {
+        return stream(DEALER);
+    }
+
+    public SplittableRandom player(int id) {
+        return stream(PLAYERS + id);
+    }
+
+    /**
+     * @param id - the id of the derived source (e.g. the number of a game in a series of games).
+     * @return - a random source with a seed derived from this one.
+     */
+    public RandomSource derive(long id) {
+        return new RandomSource(mix64(streamSeed(id) ^ GOLDEN_GAMMA));
+    }
+
+    /**
+     * The finalizer of SplitMix64 (David Stafford's variant 13).
+     */
+    public static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
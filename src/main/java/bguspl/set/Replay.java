@@ -0,0 +1,534 @@
+package bguspl.set;
+
+import bguspl.set.ex.Claim;
+import bguspl.set.ex.Player;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Replays a recorded game (a journal file): a dealer dealing from the recorded random seed runs the game, and the
+ * recorded key presses are fed to the players' queues, so the claim, reshuffle and deal paths of the dealer run as in
+ * the recorded game. The events of the replayed game are compared with the recording: the deals, the verdicts, the
+ * scores and the winners must match. The replay stops at the first mismatch.
+ * <p>
+ * The replay runs in virtual time (see VirtualClock), and the recording drives it: the time advances to the time of
+ * each recorded event (at the replay speed), and the dealer records each of its events only when the replay reaches it
+ * in the recording, so the dealer checks a claim and removes cards after the key presses that came before in the
+ * recorded game. The configuration should have the recorded timeouts, freezes and table delays (see configure).
+ * A game recorded in virtual time replays exactly; in a game recorded in real time, a key press that raced with the
+ * dealer by a few milliseconds (e.g. with its countdown) may replay on the other side of the race, and be a mismatch.
+ * <p>
+ * Usage: Replay journal-file [config-file] [realtime | Nx | max] [headless]
+ */
+public class Replay {
+
+    /**
+     * How long the replay waits for the replayed game to do a recorded event (in real time).
+     */
+    private static final long EVENT_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * How long the replay waits for the dealer to reshuffle before it ends the game (the recorded game was ended before
+     * its countdown).
+     */
+    private static final long RESHUFFLE_GRACE_MILLIS = 500;
+
+    /**
+     * How long the replay waits before it presses a rejected key again (the player may be thawing).
+     */
+    private static final long PRESS_RETRY_NANOS = 100_000;
+
+    /**
+     * The names of the event types (see Journal).
+     */
+    private static final String[] NAMES = {"end", "card placed", "card removed", "token placed", "token removed",
+            "claim submitted", "claim resolved", "freeze", "score", "reshuffle", "game end"};
+
+    public final Env env;
+    private final Game game;
+    private final VirtualClock clock;
+    private final JournalReader journal;
+    private final Replayed replayed;
+
+    /**
+     * The replay speed (1 for real time, 0 for as fast as possible).
+     */
+    private final double speed;
+
+    /**
+     * The difference between the replayed and the recorded time, and the real time the replay started.
+     */
+    private long offset;
+    private long start;
+
+    /**
+     * The recorded scores.
+     */
+    private final int[] scores;
+
+    private long events;
+    private long claims;
+    private String firstMismatch;
+
+    /**
+     * @param logger  - the logger.
+     * @param config  - the game configuration (see configure).
+     * @param ui      - the user interface to show the replayed game on.
+     * @param util    - the game utilities.
+     * @param journal - the recorded game.
+     * @param speed   - the replay speed (1 for real time, 0 for as fast as possible).
+     * @throws IllegalArgumentException - if the configuration does not fit the recorded game.
+     */
+    public Replay(Logger logger, Config config, UserInterface ui, Util util, JournalReader journal, double speed) {
+        if (config.humanPlayers != journal.players || config.players != journal.players || !config.virtualTime
+                || config.tableSize != journal.tableSize || config.featureCount != journal.featureCount
+                || config.featureSize != journal.featureSize)
+            throw new IllegalArgumentException("the configuration does not fit the recorded game (see Replay.configure)");
+        this.journal = journal;
+        this.speed = speed;
+        this.replayed = new Replayed(journal.players);
+        this.env = new Env(logger, config, ui, util, new RandomSource(journal.seed), replayed);
+        this.clock = (VirtualClock) env.clock;
+        this.game = new Game(env);
+        this.scores = new int[journal.players];
+    }
+
+    /**
+     * Replays the recorded game to its end (or to the first mismatch).
+     *
+     * @return - true iff the replayed game matches the recording.
+     */
+    public boolean run() {
+        clock.register();
+        clock.hold();
+        offset = clock.currentTimeMillis() - journal.startMillis;
+        start = System.nanoTime();
+        CompletableFuture<Void> done = game.start("dealer");
+        try {
+            while (firstMismatch == null && journal.next()) {
+                replay();
+                ++events;
+            }
+        } finally {
+            replayed.open(); // the dealer records the rest of its events freely
+            if (!done.isDone())
+                game.dealer.terminate();
+            clock.release();
+            GameExecutor.join(done);
+            clock.unregister();
+        }
+        for (int player = 0; player < scores.length && firstMismatch == null; player++) {
+            if (game.players[player].score() != scores[player])
+                mismatch("player " + player + " ended with a score of " + game.players[player].score() + " instead of " + scores[player]);
+        }
+        return firstMismatch == null;
+    }
+
+    /**
+     * Replays the current event of the journal.
+     */
+    private void replay() {
+        int player = journal.player();
+        switch (journal.type()) {
+            case Journal.TOKEN_PLACED:
+            case Journal.TOKEN_REMOVED:
+                if (press(player, journal.slot()))
+                    expect(replayed.players[player]);
+                else
+                    mismatch("the key press of player " + player + " on slot " + journal.slot() + " was rejected");
+                break;
+            case Journal.SCORE:
+                scores[player] = (int) journal.value();
+                expect(replayed.players[player]);
+                break;
+            case Journal.CLAIM_SUBMITTED:
+            case Journal.FREEZE:
+                expect(replayed.players[player]);
+                break;
+            case Journal.CLAIM_RESOLVED:
+                if (journal.value() == Claim.Verdict.CANCELLED.ordinal())
+                    break; // a withdrawn claim, not a verdict of the dealer
+                ++claims;
+                advance(false);
+                replayed.allow();
+                expect(replayed.dealer);
+                break;
+            case Journal.RESHUFFLE:
+                advance(true);
+                if (game.dealer.getReShuffle() > clock.currentTimeMillis() && !replayed.dealerWaits(RESHUFFLE_GRACE_MILLIS))
+                    game.dealer.terminate(); // the recorded game was ended before its countdown
+                replayed.allow();
+                expect(replayed.dealer);
+                break;
+            default: // the other events of the dealer
+                advance(false);
+                replayed.allow();
+                expect(replayed.dealer);
+        }
+    }
+
+    /**
+     * Lets the time of the replayed game run to the time of the current event (in real time at the replay speed).
+     * The replayed dealer deals no later than the recorded one (the time does not pass while it works), so its
+     * countdown may end a little earlier: while it counts down, the time stops at its end (where the dealer waits for
+     * the recorded reshuffle, still taking tokens), unless the event is the reshuffle.
+     *
+     * @param reshuffle - true iff the current event is a reshuffle.
+     */
+    private void advance(boolean reshuffle) {
+        if (speed > 0) {
+            long due = start + (long) ((journal.millis() - journal.startMillis) * 1_000_000 / speed);
+            for (long wait; (wait = due - System.nanoTime()) > 0; )
+                LockSupport.parkNanos(wait);
+        }
+        long target = journal.millis() + offset;
+        long reshuffleTime = game.dealer.getReShuffle();
+        if (!reshuffle && game.dealer.getOktoPutTokens() && reshuffleTime > clock.currentTimeMillis()) // counting down
+            target = Math.min(target, reshuffleTime);
+        long delay = target - clock.currentTimeMillis();
+        if (delay <= 0)
+            return;
+        clock.release();
+        try {
+            clock.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            clock.hold();
+        }
+    }
+
+    /**
+     * Presses a recorded key of a player, again and again while the key press is rejected (e.g. the player is still
+     * thawing from a freeze that ended at the time of the key press).
+     *
+     * @return - false iff the key press was rejected for too long.
+     */
+    private boolean press(int player, int slot) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(EVENT_TIMEOUT_MILLIS);
+        advance(false);
+        while (!game.players[player].keyPressed(slot)) {
+            if (System.nanoTime() - deadline > 0)
+                return false;
+            LockSupport.parkNanos(PRESS_RETRY_NANOS);
+            advance(false); // the countdown may have been reset meanwhile
+        }
+        return true;
+    }
+
+    /**
+     * Compares the next replayed event of the dealer or of a player with the current event of the journal.
+     *
+     * @param events - the replayed events of the dealer or of the player.
+     */
+    private void expect(BlockingQueue<Event> events) {
+        Event event = null;
+        try {
+            event = events.poll(EVENT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Event recorded = Event.of(journal);
+        if (event == null)
+            mismatch("the replayed game did not do " + recorded);
+        else if (!event.matches(recorded))
+            mismatch("the replayed game did " + event + " instead of " + recorded);
+    }
+
+    private void mismatch(String message) {
+        firstMismatch = "event " + events + ": " + message;
+        env.logger.severe("replay mismatch at " + firstMismatch);
+    }
+
+    public long events() {
+        return events;
+    }
+
+    public long claims() {
+        return claims;
+    }
+
+    /**
+     * @return - the description of the mismatch the replay stopped at (null if there is none).
+     */
+    public String firstMismatch() {
+        return firstMismatch;
+    }
+
+    /**
+     * An event of the replayed game, or of the recording.
+     */
+    private record Event(byte type, int player, int slot, int card, long value, int[] winners) {
+
+        static Event of(JournalReader journal) {
+            int[] winners = journal.type() == Journal.GAME_END ? journal.winners().clone() : null;
+            return new Event(journal.type(), journal.player(), journal.slot(), journal.card(), journal.value(), winners);
+        }
+
+        boolean matches(Event other) {
+            return type == other.type && player == other.player && slot == other.slot && card == other.card
+                    && value == other.value && Arrays.equals(winners, other.winners);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(NAMES[type]);
+            if (player >= 0) text.append(" player ").append(player);
+            if (card >= 0) text.append(" card ").append(card);
+            if (slot >= 0) text.append(" slot ").append(slot);
+            if (type == Journal.CLAIM_RESOLVED) text.append(" ").append(Claim.Verdict.values()[(int) value]);
+            else if (type >= Journal.CLAIM_SUBMITTED && type <= Journal.SCORE) text.append(" value ").append(value);
+            if (winners != null) text.append(" winners ").append(Arrays.toString(winners));
+            return text.toString();
+        }
+    }
+
+    /**
+     * The journal of the replayed game: it queues the events of the dealer and of each player for the comparison with
+     * the recording, and holds each event of the dealer (and the dealer with it) until the replay allows it.
+     */
+    private static final class Replayed implements Journal {
+
+        final BlockingQueue<Event> dealer = new LinkedBlockingQueue<>();
+        final BlockingQueue<Event>[] players;
+
+        /**
+         * Guards the fields below.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private int allowed;
+        private boolean open;
+        private boolean waiting;
+
+        @SuppressWarnings("unchecked")
+        Replayed(int players) {
+            this.players = new BlockingQueue[players];
+            Arrays.setAll(this.players, i -> new LinkedBlockingQueue<Event>());
+        }
+
+        /**
+         * Lets the dealer record its next event.
+         */
+        void allow() {
+            lock.lock();
+            try {
+                ++allowed;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Lets the dealer record all its events from now on.
+         */
+        void open() {
+            lock.lock();
+            try {
+                open = true;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @param millis - the maximal time to wait (in real time).
+         * @return - true iff the dealer waits to record an event, or started to within the time.
+         */
+        boolean dealerWaits(long millis) {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+            lock.lock();
+            try {
+                while (!waiting && nanos > 0)
+                    nanos = changed.awaitNanos(nanos);
+                return waiting;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return waiting;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Records an event of the dealer, once the replay allows it.
+         */
+        private void dealer(byte type, int player, int slot, int card, long value, int[] winners) {
+            lock.lock();
+            try {
+                waiting = true;
+                changed.signalAll();
+                while (!open && allowed == 0)
+                    changed.awaitUninterruptibly();
+                if (!open)
+                    --allowed;
+                waiting = false;
+            } finally {
+                lock.unlock();
+            }
+            dealer.add(new Event(type, player, slot, card, value, winners));
+        }
+
+        private void player(byte type, int player, int slot, long value) {
+            players[player].add(new Event(type, player, slot, -1, value, null));
+        }
+
+        @Override
+        public void cardPlaced(int card, int slot) {
+            dealer(CARD_PLACED, -1, slot, card, 0, null);
+        }
+
+        @Override
+        public void cardRemoved(int slot) {
+            dealer(CARD_REMOVED, -1, slot, -1, 0, null);
+        }
+
+        @Override
+        public void tokenPlaced(int player, int slot) {
+            player(TOKEN_PLACED, player, slot, 0);
+        }
+
+        @Override
+        public void tokenRemoved(int player, int slot) {
+            player(TOKEN_REMOVED, player, slot, 0);
+        }
+
+        @Override
+        public void claimSubmitted(int player, long slots) {
+            player(CLAIM_SUBMITTED, player, -1, slots);
+        }
+
+        @Override
+        public void claimResolved(int player, int verdict) {
+            if (verdict != Claim.Verdict.CANCELLED.ordinal()) // withdrawn claims are not compared
+                dealer(CLAIM_RESOLVED, player, -1, -1, verdict, null);
+        }
+
+        @Override
+        public void freeze(int player, long millies) {
+            player(FREEZE, player, -1, millies);
+        }
+
+        @Override
+        public void score(int player, int score) {
+            player(SCORE, player, -1, score);
+        }
+
+        @Override
+        public void reshuffle() {
+            dealer(RESHUFFLE, -1, -1, -1, 0, null);
+        }
+
+        @Override
+        public void gameEnd(int[] winners) {
+            dealer(GAME_END, -1, -1, -1, 0, winners.clone());
+        }
+    }
+
+    /**
+     * Changes a game configuration for a replay.
+     *
+     * @param properties - the game configuration (with the timeouts, freezes and table delays of the recorded game).
+     * @param journal    - the recorded game.
+     * @return - the same properties, with the recorded players (all of them playing the recorded key presses), seed
+     * and features, virtual time (so the table delays take no real time), and no journal or checkpoints.
+     */
+    public static Properties configure(Properties properties, JournalReader journal) {
+        properties.setProperty("HumanPlayers", Integer.toString(journal.players));
+        properties.setProperty("ComputerPlayers", "0");
+        properties.setProperty("RandomSeed", Long.toString(journal.seed));
+        properties.setProperty("FeatureCount", Integer.toString(journal.featureCount));
+        properties.setProperty("FeatureSize", Integer.toString(journal.featureSize));
+        properties.setProperty("VirtualTime", "True");
+        properties.setProperty("JournalDirectory", "");
+        properties.setProperty("CheckpointSeconds", "0");
+        properties.setProperty("CheckpointDirectory", "");
+        return properties;
+    }
+
+    /**
+     * @param speed - "realtime", "max" or a speed up factor (e.g. "4x").
+     * @return - the replay speed (1 for real time, 0 for as fast as possible).
+     */
+    static double parseSpeed(String speed) {
+        if (speed.equalsIgnoreCase("realtime")) return 1;
+        if (speed.equalsIgnoreCase("max")) return 0;
+        return Double.parseDouble(speed.toLowerCase().replace("x", ""));
+    }
+
+    /**
+     * Replays a journal file and prints the result.
+     *
+     * @param args - the journal file, and optionally the configuration file, the speed and "headless".
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: Replay <journal file> [config file] [realtime | Nx | max] [headless]");
+            System.exit(2);
+        }
+        String configFile = "config.properties";
+        double speed = 0;
+        boolean headless = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equalsIgnoreCase("headless")) headless = true;
+            else if (args[i].matches("(?i)realtime|max|[0-9.]+x?")) speed = parseSpeed(args[i]);
+            else configFile = args[i];
+        }
+
+        Logger logger = Logger.getLogger("SetReplayLogger");
+        logger.setUseParentHandlers(false);
+        JournalReader journal = new JournalReader(Paths.get(args[0]));
+
+        Config config = new Config(logger, configure(Config.loadProperties(configFile, logger), journal));
+        if (config.tableSize != journal.tableSize) {
+            System.err.println("the configuration does not match the recorded game (table size: " + journal.tableSize + ").");
+            System.exit(2);
+        }
+
+        Util util = new UtilImpl(config);
+        UserInterface ui = null;
+        if (!headless) {
+            try {
+                // the keyboard plays no player: the replayed players play the recorded key presses
+                ui = new UserInterfaceSwing(logger, config, new Player[config.players]);
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                System.err.println("cannot create the swing user interface (" + e.getMessage() + "), replaying headless.");
+            }
+        }
+        if (ui != null) ui = new UserInterfaceDispatcher(logger, ui, true, config.uiQueueCapacity);
+        ui = new UserInterfaceDecorator(logger, util, ui);
+
+        Replay replay = new Replay(logger, config, ui, util, journal, speed);
+        long start = System.nanoTime();
+        boolean match = replay.run();
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("game %x: %d events (%d claims) replayed in %d ms (%.0f events/sec, recorded in %d ms).%n",
+                journal.gameId, replay.events(), replay.claims(), TimeUnit.NANOSECONDS.toMillis(elapsed),
+                replay.events() * 1e9 / Math.max(elapsed, 1), journal.millis() - journal.startMillis);
+        System.out.println(match ? "the replay matches the recording." : "mismatch at " + replay.firstMismatch());
+
+        if (!headless && config.endGamePauseMillies > 0) {
+            try {
+                Thread.sleep(config.endGamePauseMillies);
+            } catch (InterruptedException ignored) {
+            }
+        }
+        replay.env.ui.dispose();
+        replay.env.shutdown();
+        System.exit(match ? 0 : 1);
+    }
+}
@@ -0,0 +1,126 @@
+package bguspl.set;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Runs complete games headless (computer players only, no delays, no freezes, a short turn timeout, no logging and a
+ * user interface that only counts the calls) and prints the throughput of the engine: games, claims, dealer loop iterations and user
+ * interface calls per second, and the percentiles of the time from making a claim to its verdict.
+ * <p>
+ * Usage: Simulation [games] [computer players] [config file]
+ */
+public class Simulation {
+
+    /**
+     * @param config - the game configuration of the simulation (see configure).
+     * @param games  - the number of games to play (one after the other, each with its own seed derived from the
+     *               configured one).
+     * @return - the results.
+     */
+    public static Result run(Config config, int games) throws InterruptedException {
+        Logger logger = logger();
+        Result result = new Result();
+        RandomSource random = new RandomSource(config.randomSeed);
+        long start = System.nanoTime();
+        for (int i = 0; i < games; i++) {
+            RandomSource gameRandom = random.derive(i);
+            Env env = new Env(logger, config, result.ui, new UtilImpl(config, gameRandom), gameRandom);
+            Game game = new Game(env);
+            try {
+                game.run();
+            } finally {
+                game.shutdown();
+            }
+            ++result.games;
+            result.loopIterations += game.dealer.getLoopIterations();
+            result.verificationLatency.add(game.dealer.getVerificationLatency());
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Changes a game configuration for a simulation.
+     *
+     * @param properties      - the game configuration.
+     * @param computerPlayers - the number of computer players.
+     * @return - the same properties, with no human players, delays, freezes, logging or journal, and a one second
+     * turn timeout.
+     */
+    public static Properties configure(Properties properties, int computerPlayers) {
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("ComputerPlayers", Integer.toString(computerPlayers));
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("PointFreezeSeconds", "0");
+        properties.setProperty("PenaltyFreezeSeconds", "0");
+        properties.setProperty("EndGamePauseSeconds", "0");
+        // the computer players find a set quickly, or there is none on the table and only a reshuffle helps
+        properties.setProperty("TurnTimeoutSeconds", "1");
+        properties.setProperty("TurnTimeoutWarningSeconds", "0");
+        properties.setProperty("RandomSpinMin", "0");
+        properties.setProperty("RandomSpinMax", "0");
+        properties.setProperty("Hints", "false");
+        properties.setProperty("LogLevel", "OFF");
+        properties.setProperty("JournalDirectory", "");
+        return properties;
+    }
+
+    /**
+     * @return - a logger that writes nothing (the log level of a simulation is OFF anyway).
+     */
+    static Logger logger() {
+        Logger logger = Logger.getLogger("SetSimulationLogger");
+        logger.setUseParentHandlers(false);
+        return logger;
+    }
+
+    /**
+     * The counters of a simulation.
+     */
+    public static class Result {
+        public final UserInterfaceCounter ui = new UserInterfaceCounter();
+        public final Histogram verificationLatency = new Histogram();
+        public long games;
+        public long loopIterations;
+        public long nanos;
+
+        private double perSecond(long count) {
+            return count * 1e9 / Math.max(nanos, 1);
+        }
+
+        @Override
+        public String toString() {
+            Histogram latency = verificationLatency;
+            return String.format("%d games in %.3f s: %.2f games/sec%n", games, nanos / 1e9, perSecond(games))
+                    + String.format("claims: %d (%.0f/sec), dealer loop iterations: %d (%.0f/sec), ui calls: %d (%.0f/sec)%n",
+                    latency.count(), perSecond(latency.count()), loopIterations, perSecond(loopIterations),
+                    ui.total(), perSecond(ui.total()))
+                    + String.format("verification latency (us): mean %.1f, p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f",
+                    latency.mean() / 1e3, latency.percentile(50) / 1e3, latency.percentile(90) / 1e3,
+                    latency.percentile(99) / 1e3, latency.percentile(99.9) / 1e3, latency.max() / 1e3);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int computerPlayers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        String configFile = args.length > 2 ? args[2] : "config.properties";
+
+        Logger logger = logger();
+        Config config = new Config(logger, configure(Config.loadProperties(configFile, logger), computerPlayers));
+
+        // the game threads print when they start and terminate
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Result result;
+        try {
+            result = run(config, games);
+        } finally {
+            System.setOut(out);
+        }
+        System.out.println(result);
+    }
+}
@@ -0,0 +1,180 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static bguspl.set.NetworkProtocol.*;
+
+/**
+ * The state of a game for spectators, sampled from the table, the players and the dealer at a fixed rate (see
+ * config.spectatorFramesPerSecond) and encoded as frames of the network protocol: a keyframe with the whole table every
+ * config.spectatorKeyframeMillis, and in between a delta with every slot and score that changed since that keyframe.
+ * Each frame is encoded once into a buffer that all the spectators write from, and a spectator that is still writing
+ * an older frame simply skips to the latest one, so the cost of the feed depends on the frame rate and not on the rate
+ * of the game events.
+ * <p>
+ * Not thread safe: the frames are sampled and written by the selector thread of the NetworkServer. The game state is
+ * read without locks, so a frame may miss a change made while it is sampled (the next frame has it).
+ */
+public class SpectatorFeed {
+
+    /**
+     * An encoded frame. A frame is reused for a later frame once no spectator writes from it.
+     */
+    static final class Frame {
+        final ByteBuffer data;
+        long sequence;
+        long keyframe; // the sequence number of the keyframe this frame applies to (its own if it is a keyframe)
+        int writers;
+
+        Frame(int capacity) {
+            data = ByteBuffer.allocateDirect(capacity);
+        }
+    }
+
+    private final Game game;
+    private final Clock clock;
+    private final Config config;
+
+    /**
+     * The time between frames.
+     */
+    public final long periodMillis;
+    private final long keyframeFrames;
+
+    // the state of the last sample, and at the last keyframe
+    private final int[] cards;
+    private final long[] tokens;
+    private final int[] scores;
+    private final int[] keyCards;
+    private final long[] keyTokens;
+    private final int[] keyScores;
+    private long changedSlots; // bit i is set iff slot i changed since the last keyframe
+    private long changedScores;
+
+    private final int frameCapacity;
+    private final List<Frame> frames = new ArrayList<>();
+    private Frame keyframe;
+    private Frame latest;
+    private volatile long sequence;
+    private volatile long encodedBytes;
+
+    /**
+     * @param config - the game configuration (the frame rate and the keyframe interval).
+     * @param game   - the game to sample.
+     */
+    public SpectatorFeed(Config config, Game game) {
+        this.game = game;
+        this.config = config;
+        this.clock = game.env.clock;
+        this.periodMillis = Math.max(1000L / Math.max(config.spectatorFramesPerSecond, 1), 1);
+        this.keyframeFrames = Math.max(config.spectatorKeyframeMillis / periodMillis, 1);
+        cards = new int[config.tableSize];
+        tokens = new long[config.tableSize];
+        scores = new int[config.players];
+        keyCards = new int[config.tableSize];
+        keyTokens = new long[config.tableSize];
+        keyScores = new int[config.players];
+        frameCapacity = length(FRAME) + config.tableSize * length(SLOT) + config.players * length(SET_SCORE)
+                + length(SET_COUNTDOWN);
+    }
+
+    /**
+     * Samples the game and encodes the next frame.
+     *
+     * @return - the new frame.
+     */
+    Frame sample() {
+        for (int slot = 0; slot < cards.length; slot++) {
+            Integer card = game.table.getCard(slot);
+            cards[slot] = card == null ? -1 : card;
+            tokens[slot] = card == null ? 0 : game.table.getTokens(slot);
+        }
+        Player[] players = game.players;
+        for (int player = 0; player < scores.length; player++)
+            scores[player] = players[player] == null ? 0 : players[player].score();
+
+        Frame frame = free();
+        frame.sequence = ++sequence;
+        boolean isKeyframe = keyframe == null || frame.sequence - keyframe.sequence >= keyframeFrames;
+        frame.keyframe = isKeyframe ? frame.sequence : keyframe.sequence;
+        ByteBuffer out = frame.data.clear();
+        put(out, FRAME, isKeyframe ? 1 : 0, 0, frame.sequence);
+        if (isKeyframe) {
+            System.arraycopy(cards, 0, keyCards, 0, cards.length);
+            System.arraycopy(tokens, 0, keyTokens, 0, tokens.length);
+            System.arraycopy(scores, 0, keyScores, 0, scores.length);
+            changedSlots = changedScores = -1L;
+        } else {
+            // a slot that changed stays in the deltas until the next keyframe, even if it changes back
+            for (int slot = 0; slot < cards.length; slot++)
+                if (cards[slot] != keyCards[slot] || tokens[slot] != keyTokens[slot])
+                    changedSlots |= 1L << slot;
+            for (int player = 0; player < scores.length; player++)
+                if (scores[player] != keyScores[player])
+                    changedScores |= 1L << player;
+        }
+        for (int slot = 0; slot < cards.length; slot++)
+            if ((changedSlots & 1L << slot) != 0)
+                putSlot(out, slot, cards[slot], tokens[slot]);
+        for (int player = 0; player < scores.length; player++)
+            if ((changedScores & 1L << player) != 0)
+                put(out, SET_SCORE, player, 0, scores[player]);
+        if (isKeyframe)
+            changedSlots = changedScores = 0;
+        long reshuffle = game.dealer.getReShuffle();
+        if (reshuffle != Long.MAX_VALUE && config.turnTimeoutMillis > 0) {
+            long left = Math.max(reshuffle - clock.currentTimeMillis(), 0);
+            put(out, SET_COUNTDOWN, left < config.turnTimeoutWarningMillis ? 1 : 0, 0, left);
+        }
+        out.flip();
+        encodedBytes += out.limit();
+
+        latest = frame;
+        if (isKeyframe) keyframe = frame;
+        return frame;
+    }
+
+    /**
+     * @return - a frame no spectator writes from (and that is not the latest frame or keyframe).
+     */
+    private Frame free() {
+        for (Frame frame : frames)
+            if (frame.writers == 0 && frame != latest && frame != keyframe)
+                return frame;
+        Frame frame = new Frame(frameCapacity);
+        frames.add(frame);
+        return frame;
+    }
+
+    /**
+     * @param keyframe - the sequence number of the last keyframe a spectator has (-1 for none).
+     * @param sequence - the sequence number of the last frame a spectator has (-1 for none).
+     * @return - the frame the spectator should get next (the latest keyframe if it does not have it, otherwise the latest
+     * frame if it is newer), or null if it is up to date.
+     */
+    Frame next(long keyframe, long sequence) {
+        if (this.keyframe == null)
+            return null;
+        if (keyframe != this.keyframe.sequence)
+            return this.keyframe;
+        return latest.sequence > sequence ? latest : null;
+    }
+
+    /**
+     * @return - the number of frames encoded so far.
+     */
+    public long frames() {
+        return sequence;
+    }
+
+    /**
+     * @return - the number of bytes encoded so far (each frame once, whatever the number of spectators).
+     */
+    public long encodedBytes() {
+        return encodedBytes;
+    }
+}
@@ -0,0 +1,37 @@
+package bguspl.set;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The wall clock time. Scheduled tasks run on the timer wheel.
+ */
+public class SystemClock implements Clock {
+
+    private final TimerWheel timers;
+
+    public SystemClock(TimerWheel timers) {
+        this.timers = timers;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        if (millis > 0) Thread.sleep(millis);
+    }
+
+    @Override
+    public boolean await(ReentrantLock lock, Condition condition, long millis) throws InterruptedException {
+        return condition.await(millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void schedule(Runnable task, long delay) {
+        timers.schedule(task, delay);
+    }
+}
@@ -0,0 +1,159 @@
+package bguspl.set;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel shared by all the game entities. A single daemon thread runs the scheduled tasks, so waiting
+ * for a deadline does not hold a thread per waiter. Tasks run on the wheel thread and must be short.
+ */
+public class TimerWheel {
+
+    /**
+     * A scheduled task.
+     */
+    public static final class Timeout {
+
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+        private volatile boolean cancelled;
+        private Timeout next; // next timeout in the same bucket (owned by the wheel thread)
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the task (it will not run if it did not run already).
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public long deadline() {
+            return deadline;
+        }
+    }
+
+    private static final int WHEEL_SIZE = 512; // must be a power of 2
+
+    private final long tickMillis;
+    private final Timeout[] buckets = new Timeout[WHEEL_SIZE];
+
+    /**
+     * Timeouts scheduled by other threads, moved to the buckets by the wheel thread on every tick.
+     */
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of scheduled timeouts that did not run yet (the wheel thread parks while it is 0).
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicReference<Thread> worker = new AtomicReference<>();
+    private volatile boolean shutdown;
+
+    private final long startTime = System.currentTimeMillis();
+    private long tick;
+
+    public TimerWheel(long tickMillis) {
+        this.tickMillis = Math.max(1, tickMillis);
+    }
+
+    /**
+     * Schedules a task to run once after a delay.
+     *
+     * @param task  - the task to run (on the wheel thread).
+     * @param delay - the delay in milliseconds.
+     * @return - the scheduled timeout (can be used to cancel the task).
+     */
+    public Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(task, System.currentTimeMillis() + Math.max(0, delay));
+        added.add(timeout);
+        if (pending.getAndIncrement() == 0 || worker.get() == null)
+            wakeUp();
+        return timeout;
+    }
+
+    /**
+     * Stops the wheel thread. Tasks that did not run yet are dropped.
+     */
+    public void shutdown() {
+        shutdown = true;
+        Thread thread = worker.get();
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    private void wakeUp() {
+        Thread thread = worker.get();
+        if (thread == null) {
+            thread = new Thread(this::run, "timer-wheel");
+            thread.setDaemon(true);
+            if (worker.compareAndSet(null, thread)) thread.start();
+            else LockSupport.unpark(worker.get());
+        } else LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        tick = currentTick();
+        while (!shutdown) {
+            if (pending.get() == 0) {
+                LockSupport.park(this);
+                tick = Math.max(tick, currentTick()); // the buckets are empty, so skipping ticks is safe
+                continue;
+            }
+
+            long sleep = startTime + (tick + 1) * tickMillis - System.currentTimeMillis();
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep * 1_000_000L);
+                continue; // woken up early: someone scheduled a timeout or the wheel is shutting down
+            }
+
+            transferAdded();
+            expire(buckets[(int) (tick & (WHEEL_SIZE - 1))], (int) (tick & (WHEEL_SIZE - 1)));
+            ++tick;
+        }
+    }
+
+    private long currentTick() {
+        return (System.currentTimeMillis() - startTime) / tickMillis;
+    }
+
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            long ticks = Math.max((timeout.deadline - startTime + tickMillis - 1) / tickMillis, tick);
+            timeout.rounds = (ticks - tick) / WHEEL_SIZE;
+            int bucket = (int) (ticks & (WHEEL_SIZE - 1));
+            timeout.next = buckets[bucket];
+            buckets[bucket] = timeout;
+        }
+    }
+
+    private void expire(Timeout head, int bucket) {
+        Timeout kept = null;
+        while (head != null) {
+            Timeout next = head.next;
+            if (head.cancelled) {
+                pending.decrementAndGet();
+            } else if (head.rounds <= 0) {
+                pending.decrementAndGet();
+                try {
+                    head.task.run();
+                } catch (RuntimeException ignored) {
+                }
+            } else {
+                --head.rounds;
+                head.next = kept;
+                kept = head;
+            }
+            head = next;
+        }
+        buckets[bucket] = kept;
+    }
+}
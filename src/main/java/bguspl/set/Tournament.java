@@ -0,0 +1,285 @@
+package bguspl.set;
+
+import bguspl.set.ex.Strategy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Plays many headless games of computer players with different strategies (see bguspl.set.ex.Strategy), as in a
+ * simulation, and reports each strategy's win rate, mean score, sets per minute and claim latency, with 95% confidence
+ * intervals. The games run in parallel, but at most one per core at a time, so they do not starve each other's dealer
+ * threads. The strategies rotate between the seats from game to game, and each game has its own seed derived from
+ * the configured one. Each game is reduced to its scores and claim latencies as soon as it ends, and is added to the
+ * report in the order the games end.
+ * <p>
+ * Usage: Tournament [games] [strategies, one per seat, comma separated] [report file] [config file] [threads]
+ */
+public class Tournament {
+
+    /**
+     * The z-score of a two-sided 95% confidence interval.
+     */
+    private static final double Z = 1.959964;
+
+    /**
+     * @param properties - the game configuration (changed as in Simulation.configure for each game).
+     * @param strategies - the strategy names of the seats (in the first game).
+     * @param games      - the number of games to play.
+     * @param threads    - the maximal number of games played at the same time.
+     * @return - the results.
+     * @throws IllegalArgumentException - if a strategy name is invalid.
+     */
+    public static Report run(Properties properties, String[] strategies, int games, int threads)
+            throws InterruptedException, ExecutionException {
+        Logger logger = Simulation.logger();
+        int seats = strategies.length;
+        for (String strategy : strategies)
+            if (Strategy.forName(strategy) == null)
+                throw new IllegalArgumentException("invalid strategy: " + strategy);
+
+        // every rotation of the seats must use the same seed
+        Properties base = Simulation.configure(copy(properties), seats);
+        long seed = new Config(logger, base).randomSeed;
+        base.setProperty("RandomSeed", Long.toString(seed));
+        Config[] rotations = new Config[seats];
+        for (int r = 0; r < seats; r++) {
+            String[] seating = new String[seats];
+            for (int seat = 0; seat < seats; seat++)
+                seating[seat] = strategies[(seat + r) % seats].trim();
+            Properties rotation = copy(base);
+            rotation.setProperty("ComputerStrategies", String.join(",", seating));
+            rotations[r] = new Config(logger, rotation);
+        }
+
+        RandomSource random = new RandomSource(seed);
+        Report report = new Report(seed, seats, threads, rotations[0].computerStrategies);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<Played> results = new ExecutorCompletionService<>(pool);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < games; i++) {
+                Config config = rotations[i % seats];
+                RandomSource gameRandom = random.derive(i);
+                results.submit(() -> play(logger, config, gameRandom));
+            }
+            for (int i = 0; i < games; i++)
+                report.add(results.take().get());
+        } finally {
+            pool.shutdownNow();
+        }
+        report.nanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * The results of a finished game: how long it took (in game time), and the strategy, score and claim latencies of
+     * each seat.
+     */
+    record Played(long millis, String[] strategies, int[] scores, Histogram[] latencies) {
+    }
+
+    /**
+     * Plays a game to its end.
+     *
+     * @return - the results of the game.
+     */
+    private static Played play(Logger logger, Config config, RandomSource random) throws InterruptedException {
+        Env env = new Env(logger, config, new UserInterfaceCounter(), new UtilImpl(config, random), random);
+        Game game = new Game(env);
+        long start = env.clock.currentTimeMillis();
+        try {
+            game.run();
+        } finally {
+            game.shutdown();
+        }
+        long millis = env.clock.currentTimeMillis() - start;
+        int seats = game.players.length;
+        String[] strategies = new String[seats];
+        int[] scores = new int[seats];
+        Histogram[] latencies = new Histogram[seats];
+        for (var player : game.players) {
+            strategies[player.id] = config.computerStrategies[player.id - config.humanPlayers];
+            scores[player.id] = player.score();
+            latencies[player.id] = game.dealer.getVerificationLatency(player.id);
+        }
+        return new Played(millis, strategies, scores, latencies);
+    }
+
+    private static Properties copy(Properties properties) {
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        return copy;
+    }
+
+    /**
+     * A sample mean with its confidence interval.
+     */
+    static class Mean {
+        long count;
+        double sum;
+        double sumSquares;
+
+        void add(double value) {
+            ++count;
+            sum += value;
+            sumSquares += value * value;
+        }
+
+        double mean() {
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        /**
+         * @return - half the width of the 95% confidence interval of the mean (normal approximation).
+         */
+        double error() {
+            if (count < 2)
+                return Double.NaN;
+            double variance = Math.max((sumSquares - sum * sum / count) / (count - 1), 0);
+            return Z * Math.sqrt(variance / count);
+        }
+    }
+
+    /**
+     * @param successes - the number of successes.
+     * @param trials    - the number of trials.
+     * @return - the lower and upper bounds of the 95% Wilson score interval of the success rate.
+     */
+    static double[] wilson(long successes, long trials) {
+        if (trials == 0)
+            return new double[]{Double.NaN, Double.NaN};
+        double p = (double) successes / trials;
+        double z2 = Z * Z / trials;
+        double center = (p + z2 / 2) / (1 + z2);
+        double error = Z * Math.sqrt(p * (1 - p) / trials + z2 / (4.0 * trials)) / (1 + z2);
+        return new double[]{center - error, center + error};
+    }
+
+    /**
+     * The results of one strategy over all the seats it played.
+     */
+    static class Standing {
+        long seats;
+        long wins;
+        final Mean score = new Mean();
+        final Mean setsPerMinute = new Mean();
+        final Histogram latency = new Histogram();
+    }
+
+    /**
+     * The results of a tournament.
+     */
+    public static class Report {
+        public final long seed;
+        public final int seats;
+        public final int threads;
+        public long games;
+        public long nanos;
+        private final Mean gameSeconds = new Mean();
+        private final Map<String, Standing> standings = new LinkedHashMap<>();
+
+        Report(long seed, int seats, int threads, String[] strategies) {
+            this.seed = seed;
+            this.seats = seats;
+            this.threads = threads;
+            for (String strategy : strategies) // the standings are reported in this order, whatever game ends first
+                standings.computeIfAbsent(strategy.toLowerCase(), name -> new Standing());
+        }
+
+        /**
+         * Adds the results of a finished game. A player wins if no player has a higher score (ties win too).
+         */
+        void add(Played played) {
+            ++games;
+            double minutes = Math.max(played.millis(), 1) / 60_000.0;
+            gameSeconds.add(played.millis() / 1000.0);
+            int[] scores = played.scores();
+            int best = 0;
+            for (int score : scores)
+                best = Math.max(best, score);
+            for (int seat = 0; seat < scores.length; seat++) {
+                Standing standing = standings.computeIfAbsent(played.strategies()[seat].toLowerCase(),
+                        name -> new Standing());
+                ++standing.seats;
+                if (scores[seat] == best) ++standing.wins;
+                standing.score.add(scores[seat]);
+                standing.setsPerMinute.add(scores[seat] / minutes);
+                standing.latency.add(played.latencies()[seat]);
+            }
+        }
+
+        /**
+         * @param strategy - the name of a strategy.
+         * @return - the share of its seats that won, or NaN if it did not play.
+         */
+        public double winRate(String strategy) {
+            Standing standing = standings.get(strategy.toLowerCase());
+            return standing == null ? Double.NaN : (double) standing.wins / standing.seats;
+        }
+
+        /**
+         * @param strategy - the name of a strategy.
+         * @return - its mean score per game, or NaN if it did not play.
+         */
+        public double meanScore(String strategy) {
+            Standing standing = standings.get(strategy.toLowerCase());
+            return standing == null ? Double.NaN : standing.score.mean();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("%d games of %d seats in %.3f s (%.2f games/sec, %d at a time), seed %d%n",
+                    games, seats, nanos / 1e9, games * 1e9 / Math.max(nanos, 1), threads, seed));
+            report.append(String.format("game length (s): %.2f +- %.2f%n", gameSeconds.mean(), gameSeconds.error()));
+            report.append(String.format("%-10s %7s  %-22s %-18s %-18s %s%n", "strategy", "seats", "win rate (95% ci)",
+                    "mean score", "sets/min", "claim latency p50/p99/max (us)"));
+            for (Map.Entry<String, Standing> entry : standings.entrySet()) {
+                Standing standing = entry.getValue();
+                double[] interval = wilson(standing.wins, standing.seats);
+                Histogram latency = standing.latency;
+                report.append(String.format("%-10s %7d  %.3f [%.3f, %.3f]    %7.2f +- %-7.2f %7.2f +- %-7.2f %.1f/%.1f/%.1f%n",
+                        entry.getKey(), standing.seats, (double) standing.wins / standing.seats, interval[0], interval[1],
+                        standing.score.mean(), standing.score.error(),
+                        standing.setsPerMinute.mean(), standing.setsPerMinute.error(),
+                        latency.percentile(50) / 1e3, latency.percentile(99) / 1e3, latency.max() / 1e3));
+            }
+            return report.toString();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException, IOException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        String[] strategies = (args.length > 1 ? args[1] : "random,random,finder,finder").split(",");
+        String reportFile = args.length > 2 ? args[2] : "tournament.txt";
+        String configFile = args.length > 3 ? args[3] : "config.properties";
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        Properties properties = Config.loadProperties(configFile, Simulation.logger());
+
+        // the game threads print when they start and terminate
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Report report;
+        try {
+            report = run(properties, strategies, games, threads);
+        } finally {
+            System.setOut(out);
+        }
+        Files.writeString(Paths.get(reportFile), report.toString());
+        System.out.print(report);
+    }
+}
@@ -0,0 +1,108 @@
+package bguspl.set;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A user interface that shows nothing and only counts the calls (for headless simulations and load tests).
+ */
+public class UserInterfaceCounter implements UserInterface {
+
+    private final LongAdder cardUpdates = new LongAdder();
+    private final LongAdder tokenUpdates = new LongAdder();
+    private final LongAdder timerUpdates = new LongAdder();
+    private final LongAdder playerUpdates = new LongAdder();
+
+    @Override
+    public void placeCard(int card, int slot) {
+        cardUpdates.increment();
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        cardUpdates.increment();
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        tokenUpdates.increment();
+    }
+
+    @Override
+    public void removeTokens() {
+        tokenUpdates.increment();
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        tokenUpdates.increment();
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        tokenUpdates.increment();
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        timerUpdates.increment();
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        timerUpdates.increment();
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        playerUpdates.increment();
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        playerUpdates.increment();
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        playerUpdates.increment();
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    /**
+     * @return - the number of cards placed and removed.
+     */
+    public long cardUpdates() {
+        return cardUpdates.sum();
+    }
+
+    /**
+     * @return - the number of token updates.
+     */
+    public long tokenUpdates() {
+        return tokenUpdates.sum();
+    }
+
+    /**
+     * @return - the number of countdown and elapsed time updates.
+     */
+    public long timerUpdates() {
+        return timerUpdates.sum();
+    }
+
+    /**
+     * @return - the number of freeze, score and winner updates.
+     */
+    public long playerUpdates() {
+        return playerUpdates.sum();
+    }
+
+    /**
+     * @return - the total number of calls.
+     */
+    public long total() {
+        return cardUpdates() + tokenUpdates() + timerUpdates() + playerUpdates();
+    }
+}
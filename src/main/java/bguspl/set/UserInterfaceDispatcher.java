@@ -0,0 +1,313 @@
+package bguspl.set;
+
+import java.awt.EventQueue;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * A UserInterface that turns the calls of the game threads into events on a bounded lock-free queue. A single
+ * dispatcher thread drains the queue and applies the events to the wrapped user interface in batches (on the Swing
+ * event dispatch thread, if requested), so the game threads never wait for rendering or logging.
+ * When the queue is full, only the latest countdown, elapsed time and freeze updates are kept (see LatestValues) and the
+ * other events wait for room, unless the publishing thread is interrupted or the dispatcher is stopped (see stop).
+ */
+public final class UserInterfaceDispatcher implements UserInterface {
+
+    private static final int PLACE_CARD = 0;
+    private static final int REMOVE_CARD = 1;
+    private static final int PLACE_TOKEN = 2;
+    private static final int REMOVE_TOKENS = 3;
+    private static final int REMOVE_SLOT_TOKENS = 4;
+    private static final int REMOVE_TOKEN = 5;
+    private static final int SET_COUNTDOWN = 6;
+    private static final int SET_ELAPSED = 7;
+    private static final int SET_FREEZE = 8;
+    private static final int SET_SCORE = 9;
+    private static final int ANNOUNCE_WINNER = 10;
+    private static final int DISPOSE = 11;
+
+    /**
+     * A queued user interface call.
+     */
+    private static final class Event {
+        int type;
+        int player;
+        int slot;
+        long value;
+        boolean warn;
+        int[] players;
+
+        void copyFrom(Event other) {
+            type = other.type;
+            player = other.player;
+            slot = other.slot;
+            value = other.value;
+            warn = other.warn;
+            players = other.players;
+            other.players = null;
+        }
+    }
+
+    private final Logger logger;
+    private final UserInterface ui;
+    private final boolean onEventDispatchThread;
+
+    // a bounded multi-producer queue: sequences[i] tells whether events[i] is free for ticket i or full for ticket i+1
+    private final Event[] events;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // owned by the dispatcher thread
+
+    private final Event[] batch;
+    private int batchSize;
+    private final Runnable applyBatch = this::applyBatch;
+
+    private final Thread dispatcher;
+    private volatile boolean waiting;
+    private volatile boolean disposed;
+
+    private final LatestValues latest = new LatestValues();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param logger                - the logger.
+     * @param ui                    - the user interface to apply the events to.
+     * @param onEventDispatchThread - true iff the events should be applied on the Swing event dispatch thread.
+     * @param capacity              - the capacity of the queue (rounded up to a power of 2).
+     */
+    public UserInterfaceDispatcher(Logger logger, UserInterface ui, boolean onEventDispatchThread, int capacity) {
+        this.logger = logger;
+        this.ui = ui;
+        this.onEventDispatchThread = onEventDispatchThread;
+
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        events = new Event[size];
+        batch = new Event[size];
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            events[i] = new Event();
+            batch[i] = new Event();
+            sequences.set(i, i);
+        }
+
+        dispatcher = new Thread(this::run, "ui-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * @return - the number of events dropped because the queue was full.
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    private void publish(int type, int player, int slot, long value, boolean warn, int[] players) {
+        boolean coalesced = type == SET_COUNTDOWN || type == SET_ELAPSED || type == SET_FREEZE;
+        int key = coalesced ? LatestValues.key(type, player, SET_FREEZE) : 0;
+        long ticket;
+        while (true) {
+            ticket = tail.get();
+            long sequence = sequences.get((int) ticket & mask);
+            if (sequence == ticket) {
+                if (tail.compareAndSet(ticket, ticket + 1)) break;
+            } else if (sequence < ticket) { // the queue is full
+                if (disposed || (!coalesced && Thread.currentThread().isInterrupted())) {
+                    dropped.increment();
+                    return;
+                }
+                if (coalesced) {
+                    latest.put(key, type, type == SET_COUNTDOWN ? (warn ? 1 : 0) : player, value);
+                    if (waiting) LockSupport.unpark(dispatcher);
+                    return;
+                }
+                Thread.yield();
+            }
+        }
+        if (coalesced) latest.remove(key); // this update is newer than the kept one
+
+        Event event = events[(int) ticket & mask];
+        event.type = type;
+        event.player = player;
+        event.slot = slot;
+        event.value = value;
+        event.warn = warn;
+        event.players = players;
+        sequences.set((int) ticket & mask, ticket + 1);
+        if (waiting) LockSupport.unpark(dispatcher);
+    }
+
+    /**
+     * The main loop of the dispatcher thread.
+     */
+    private void run() {
+        while (!disposed) {
+            batchSize = 0;
+            while (batchSize < batch.length) {
+                int index = (int) head & mask;
+                if (sequences.get(index) != head + 1) break;
+                batch[batchSize++].copyFrom(events[index]);
+                sequences.set(index, head + events.length);
+                ++head;
+            }
+
+            if (batchSize == 0 && latest.isEmpty()) {
+                waiting = true;
+                if (sequences.get((int) head & mask) != head + 1 && latest.isEmpty())
+                    LockSupport.park(this);
+                waiting = false;
+                continue;
+            }
+
+            if (onEventDispatchThread) {
+                try {
+                    EventQueue.invokeAndWait(applyBatch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.warning("ui dispatcher interrupted, dropping the remaining events");
+                    return;
+                } catch (InvocationTargetException e) {
+                    logger.severe("user interface failed: " + e.getCause());
+                }
+            } else applyBatch();
+        }
+    }
+
+    private void applyBatch() {
+        for (int i = 0; i < batchSize; i++) {
+            Event event = batch[i];
+            apply(event);
+            event.players = null;
+        }
+        for (LatestValues.Update update; !disposed && (update = latest.poll()) != null; ) {
+            if (update.type == SET_COUNTDOWN) ui.setCountdown(update.value, update.player == 1);
+            else if (update.type == SET_ELAPSED) ui.setElapsed(update.value);
+            else ui.setFreeze(update.player, update.value);
+        }
+    }
+
+    private void apply(Event event) {
+        switch (event.type) {
+            case PLACE_CARD:
+                ui.placeCard((int) event.value, event.slot);
+                break;
+            case REMOVE_CARD:
+                ui.removeCard(event.slot);
+                break;
+            case PLACE_TOKEN:
+                ui.placeToken(event.player, event.slot);
+                break;
+            case REMOVE_TOKENS:
+                ui.removeTokens();
+                break;
+            case REMOVE_SLOT_TOKENS:
+                ui.removeTokens(event.slot);
+                break;
+            case REMOVE_TOKEN:
+                ui.removeToken(event.player, event.slot);
+                break;
+            case SET_COUNTDOWN:
+                ui.setCountdown(event.value, event.warn);
+                break;
+            case SET_ELAPSED:
+                ui.setElapsed(event.value);
+                break;
+            case SET_FREEZE:
+                ui.setFreeze(event.player, event.value);
+                break;
+            case SET_SCORE:
+                ui.setScore(event.player, (int) event.value);
+                break;
+            case ANNOUNCE_WINNER:
+                ui.announceWinner(event.players);
+                break;
+            case DISPOSE:
+                ui.dispose();
+                disposed = true;
+                break;
+        }
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        publish(PLACE_CARD, -1, slot, card, false, null);
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        publish(REMOVE_CARD, -1, slot, 0, false, null);
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        publish(PLACE_TOKEN, player, slot, 0, false, null);
+    }
+
+    @Override
+    public void removeTokens() {
+        publish(REMOVE_TOKENS, -1, -1, 0, false, null);
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        publish(REMOVE_SLOT_TOKENS, -1, slot, 0, false, null);
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        publish(REMOVE_TOKEN, player, slot, 0, false, null);
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        publish(SET_COUNTDOWN, -1, -1, millies, warn, null);
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        publish(SET_ELAPSED, -1, -1, millies, false, null);
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        publish(SET_FREEZE, player, -1, millies, false, null);
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        publish(SET_SCORE, player, -1, score, false, null);
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        publish(ANNOUNCE_WINNER, -1, -1, 0, false, players);
+    }
+
+    /**
+     * Stops applying events: the queued events and the ones published later are dropped, and the publishers no longer
+     * wait for room. For shutting down from the thread that applies the events (the Swing event dispatch thread, when
+     * the window is closed), which the publishers would otherwise wait for.
+     */
+    public void stop() {
+        disposed = true;
+        LockSupport.unpark(dispatcher);
+    }
+
+    /**
+     * Applies all the queued events, disposes of the wrapped user interface and stops the dispatcher thread.
+     */
+    @Override
+    public void dispose() {
+        publish(DISPOSE, -1, -1, 0, false, null);
+        try {
+            dispatcher.join();
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package bguspl.set;
+
+/**
+ * A UserInterface that counts the calls of the game (the set_ui_events_total metric, see Metrics) and forwards them to
+ * the wrapped user interface. Every game environment wraps its user interface in one (see Env), so the count covers
+ * all the games of the process, whatever user interface they use.
+ */
+final class UserInterfaceMeter implements UserInterface {
+
+    private static final Metrics.Counter UI_EVENTS = Metrics.DEFAULT.counter("set_ui_events_total",
+            "The user interface calls of the games.");
+
+    private final UserInterface ui;
+
+    UserInterfaceMeter(UserInterface ui) {
+        this.ui = ui;
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        UI_EVENTS.increment();
+        ui.placeCard(card, slot);
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        UI_EVENTS.increment();
+        ui.removeCard(slot);
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        UI_EVENTS.increment();
+        ui.placeToken(player, slot);
+    }
+
+    @Override
+    public void removeTokens() {
+        UI_EVENTS.increment();
+        ui.removeTokens();
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        UI_EVENTS.increment();
+        ui.removeTokens(slot);
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        UI_EVENTS.increment();
+        ui.removeToken(player, slot);
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        UI_EVENTS.increment();
+        ui.setCountdown(millies, warn);
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        UI_EVENTS.increment();
+        ui.setElapsed(millies);
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        UI_EVENTS.increment();
+        ui.setFreeze(player, millies);
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        UI_EVENTS.increment();
+        ui.setScore(player, score);
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        UI_EVENTS.increment();
+        ui.announceWinner(players);
+    }
+
+    @Override
+    public void dispose() {
+        UI_EVENTS.increment();
+        ui.dispose();
+    }
+}
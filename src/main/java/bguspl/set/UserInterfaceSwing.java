@@ -4,8 +4,6 @@ import bguspl.set.ex.Player;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.FileNotFoundException;
-import java.net.URL;
 import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
@@ -23,14 +21,20 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
     private final PlayersPanel playersPanel;
     private final WinnerPanel winnerPanel;
     private final Config config;
+    private final CardImageCache cardImages;
 
     static String intInBaseToPaddedString(int n, int padding, int base) {
         return format("%" + padding + "s", Integer.toString(n, base)).replace(' ', '0');
     }
 
     public UserInterfaceSwing(Logger logger, Config config, Player[] players) {
+        this(logger, config, players, new CardImageCache(logger, config, config.cardImageCacheSize));
+    }
+
+    public UserInterfaceSwing(Logger logger, Config config, Player[] players, CardImageCache cardImages) {
 
         this.config = config;
+        this.cardImages = cardImages;
         timerPanel = new TimerPanel();
         gamePanel = new GamePanel();
         playersPanel = new PlayersPanel();
@@ -102,39 +106,47 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     private class GamePanel extends JLayeredPane {
 
-        private final Image emptyCard;
-        private final Image[] deck;
-        private final Image[][] grid;
+        /**
+         * The card in each cell of the grid (-1 for an empty cell).
+         */
+        private final int[][] grid;
         private final boolean[][][] playerTokens;
         private final JLabel[][] tokenText;
 
-        private Image loadImageResource(String filename) {
-            URL imageResource = getClass().getClassLoader().getResource(filename);
-            if (imageResource == null)
-                throw new RuntimeException(new FileNotFoundException(filename));
-            return new ImageIcon(imageResource).getImage();
-        }
+        /**
+         * The slots whose card (or token label) changed since the last frame.
+         */
+        private final boolean[] dirtyCells;
+        private final boolean[] dirtyTokens;
+
+        /**
+         * Fires (on the event dispatch thread) when the next frame is due.
+         */
+        private final Timer frameTimer;
+        private final long frameMillis;
+        private long lastFrame;
 
         private GamePanel() {
 
             setPreferredSize(new Dimension(config.columns * config.cellWidth, config.rows * config.cellHeight));
 
-            // init deck and load all pictures from png files
+            // card images are decoded on first use: placeCard starts decoding a dealt card in the background
             assert config.featureSize < 10; // otherwise there will be naming conflicts
+            cardImages.addListener(card -> EventQueue.invokeLater(() -> cardLoaded(card)));
 
-            // load the image resources
-            deck = new Image[config.deckSize];
-            for (int i = 0; i < config.deckSize; ++i)
-                deck[i] = loadImageResource("cards/" + intInBaseToPaddedString(i, config.featureCount, config.featureSize) + ".png");
-            emptyCard = loadImageResource("cards/empty_card.png");
+            dirtyCells = new boolean[config.tableSize];
+            dirtyTokens = new boolean[config.tableSize];
+            frameMillis = 1000L / Math.max(config.uiFramesPerSecond, 1);
+            frameTimer = new Timer(0, e -> paintFrame());
+            frameTimer.setRepeats(false);
 
-            grid = new Image[config.rows][config.columns];
+            grid = new int[config.rows][config.columns];
             tokenText = new JLabel[config.rows][config.columns];
             playerTokens = new boolean[config.players][config.rows][config.columns];
             for (int row = 0; row < config.rows; row++) {
                 for (int column = 0; column < config.columns; column++) {
                     // init the cards on the table grid as empty cards
-                    grid[row][column] = emptyCard;
+                    grid[row][column] = -1;
 
                     // init the JLabel selection overlay
                     tokenText[row][column] = new JLabel("");
@@ -151,24 +163,22 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         private void placeCard(int slot, int card) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            grid[row][column] = deck[card];
-            validate();
-            repaint();
+            grid[row][column] = card;
+            markDirty(dirtyCells, slot);
         }
 
         private void removeCard(int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            grid[row][column] = emptyCard;
-            validate();
-            repaint();
+            grid[row][column] = -1;
+            markDirty(dirtyCells, slot);
         }
 
         private void placeToken(int player, int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
             playerTokens[player][row][column] = true;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
+            markDirty(dirtyTokens, slot);
         }
 
         private void removeTokens() {
@@ -179,36 +189,83 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         private void removeTokens(int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            for (int player = 0; player < playerTokens.length; player++) {
+            for (int player = 0; player < playerTokens.length; player++)
                 playerTokens[player][row][column] = false;
-                tokenText[row][column].setText(generatePlayersTokenText(row, column));
-            }
+            markDirty(dirtyTokens, slot);
         }
 
         private void removeToken(int player, int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
             playerTokens[player][row][column] = false;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
+            markDirty(dirtyTokens, slot);
         }
 
         private String generatePlayersTokenText(int row, int column) {
-            String text = "";
+            StringBuilder text = new StringBuilder();
             for (int player = 0; player < config.players; player++) {
-                if (playerTokens[player][row][column])
-                    text = text.concat(config.playerNames[player] + ", ");
+                if (playerTokens[player][row][column]) {
+                    if (text.length() > 0)
+                        text.append(", ");
+                    text.append(config.playerNames[player]);
+                }
+            }
+            return text.toString();
+        }
+
+        /**
+         * Marks a slot as changed and makes sure a frame is scheduled to show it.
+         */
+        private void markDirty(boolean[] dirty, int slot) {
+            dirty[slot] = true;
+            if (!frameTimer.isRunning()) {
+                long wait = lastFrame + frameMillis - System.currentTimeMillis();
+                frameTimer.setInitialDelay((int) Math.max(wait, 0));
+                frameTimer.start();
+            }
+        }
+
+        /**
+         * Repaints the cells showing a card whose image was just decoded.
+         */
+        private void cardLoaded(int card) {
+            for (int slot = 0; slot < config.tableSize; slot++)
+                if (grid[slot / config.columns][slot % config.columns] == card)
+                    markDirty(dirtyCells, slot);
+        }
+
+        /**
+         * Shows all the changes since the last frame: updates the changed token labels and repaints the changed cells.
+         */
+        private void paintFrame() {
+            lastFrame = System.currentTimeMillis();
+            for (int slot = 0; slot < config.tableSize; slot++) {
+                int row = slot / config.columns;
+                int column = slot % config.columns;
+                if (dirtyTokens[slot]) {
+                    dirtyTokens[slot] = false;
+                    tokenText[row][column].setText(generatePlayersTokenText(row, column));
+                }
+                if (dirtyCells[slot]) {
+                    dirtyCells[slot] = false;
+                    repaint(column * config.cellWidth, row * config.cellHeight, config.cellWidth, config.cellHeight);
+                }
             }
-            if (text.length() < 2)
-                return "";
-            return text.substring(0, text.length() - 2);
         }
 
         @Override
         public void paintComponent(Graphics g) {
-            // draw card images
+            // draw the card images of the cells in the clip area
+            Rectangle clip = g.getClipBounds();
             for (int row = 0; row < config.rows; row++)
-                for (int column = 0; column < config.columns; column++)
-                    g.drawImage(grid[row][column], (column * config.cellWidth), (row * config.cellHeight), this);
+                for (int column = 0; column < config.columns; column++) {
+                    int x = column * config.cellWidth;
+                    int y = row * config.cellHeight;
+                    if (clip == null || clip.intersects(x, y, config.cellWidth, config.cellHeight)) {
+                        int card = grid[row][column];
+                        g.drawImage(card < 0 ? cardImages.placeholder() : cardImages.get(card), x, y, this);
+                    }
+                }
         }
     }
 
@@ -276,6 +333,7 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     @Override
     public void placeCard(int card, int slot) {
+        cardImages.prefetch(card);
         gamePanel.placeCard(slot, card);
     }
 
@@ -3,7 +3,7 @@ package bguspl.set;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.IntStream;
 
 /**
@@ -13,8 +13,27 @@ public class UtilImpl implements Util {
 
     private final Config config;
 
+    /**
+     * The state of the random spin generator (a SplitMix64 sequence shared by all the threads of the game).
+     */
+    private final AtomicLong spinState;
+
+    /**
+     * The engine metrics of the utils of all the games (see Metrics).
+     */
+    private static final Metrics.Distribution FIND_SETS_TIME = Metrics.DEFAULT.distribution("set_find_sets_seconds",
+            "The time to look for sets in the cards of a deck or a table.", Metrics.NANOSECONDS);
+
     public UtilImpl(Config config) {
+        this(config, new RandomSource(config.randomSeed));
+    }
+
+    /**
+     * @param random - the random numbers of the game (the spin stream is taken from them, as the game's other streams).
+     */
+    public UtilImpl(Config config, RandomSource random) {
         this.config = config;
+        this.spinState = new AtomicLong(random.streamSeed(RandomSource.SPIN));
     }
 
     private void cardToFeatures(int card, int[] features) {
@@ -66,7 +85,15 @@ public class UtilImpl implements Util {
 
     @Override
     public List<int[]> findSets(List<Integer> deck, int count) {
-        LinkedList<int[]> sets = new LinkedList<>();
+        long start = System.nanoTime();
+        try {
+            return findSets(deck, count, new LinkedList<>());
+        } finally {
+            FIND_SETS_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    private List<int[]> findSets(List<Integer> deck, int count, List<int[]> sets) {
         int n = deck.size();
         int r = config.featureSize;
         int[] combination = new int[r];
@@ -92,7 +119,9 @@ public class UtilImpl implements Util {
 
     public void spin() {
         if (config.randomSpinMax <= 0) return;
-        long cycles = ThreadLocalRandom.current().nextLong(config.randomSpinMin, config.randomSpinMax);
+        long bound = config.randomSpinMax - config.randomSpinMin;
+        long random = RandomSource.mix64(spinState.addAndGet(0x9e3779b97f4a7c15L)) >>> 1;
+        long cycles = config.randomSpinMin + (bound > 0 ? random % bound : 0);
         for (int i = 0; i < cycles; ++i)
             Thread.yield();
     }
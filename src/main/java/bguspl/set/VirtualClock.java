@@ -0,0 +1,296 @@
+package bguspl.set;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A clock for simulations: time stands still while any thread of the game runs, and when all of them are idle (waiting
+ * for a deadline, a key press, a verdict etc.) the time jumps straight to the next deadline. So a game with real turn
+ * timeouts and freezes runs as fast as its threads can work.
+ * <p>
+ * A driver thread watches the states of the registered threads. A thread counts as idle when it is blocked or waiting,
+ * and the time advances only if all of them stay idle (and nobody uses the clock) for a short confirmation period, so
+ * a thread that was just woken up has the chance to run first.
+ * <p>
+ * A thread outside the game can also hold the time (see hold), e.g. a replay that feeds the game its recorded input.
+ */
+public final class VirtualClock implements Clock {
+
+    /**
+     * How often the driver thread checks whether the game threads are idle (in real time).
+     */
+    private static final long CHECK_NANOS = 20_000;
+
+    /**
+     * How long the game threads must stay idle before the time advances (in real time).
+     */
+    private static final long CONFIRM_NANOS = 100_000;
+
+    /**
+     * A sleeping thread, a thread waiting on a condition with a timeout or a scheduled task.
+     */
+    private static final class Deadline {
+        final long time;
+        final long sequence;
+        final Thread thread; // the waiting thread (null for a task)
+        final ReentrantLock lock; // the lock of the condition (null for a sleep or a task)
+        final Condition condition;
+        final Runnable task;
+        volatile boolean expired;
+        volatile boolean resumed; // the waiting thread runs again
+
+        Deadline(long time, long sequence, Thread thread, ReentrantLock lock, Condition condition, Runnable task) {
+            this.time = time;
+            this.sequence = sequence;
+            this.thread = thread;
+            this.lock = lock;
+            this.condition = condition;
+            this.task = task;
+        }
+    }
+
+    /**
+     * The pending deadlines, earliest first (guarded by queueLock).
+     */
+    private final PriorityQueue<Deadline> deadlines = new PriorityQueue<>(
+            Comparator.comparingLong((Deadline deadline) -> deadline.time).thenComparingLong(deadline -> deadline.sequence));
+    private final ReentrantLock queueLock = new ReentrantLock();
+    private long sequence;
+
+    private volatile long now;
+
+    /**
+     * The threads of the game, and a counter of the clock calls (the time advances only while it does not change).
+     */
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    private final LongAdder activity = new LongAdder();
+
+    /**
+     * The number of holds on the time (the time does not advance while there are any).
+     */
+    private final AtomicInteger holds = new AtomicInteger();
+
+    private final Thread driver;
+    private volatile boolean shutdown;
+
+    /**
+     * @param start - the initial time in milliseconds.
+     */
+    public VirtualClock(long start) {
+        this.now = start;
+        driver = new Thread(this::drive, "virtual-clock");
+        driver.setDaemon(true);
+        driver.start();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        activity.increment();
+        return now;
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        if (millis <= 0)
+            return;
+        Deadline deadline = add(millis, Thread.currentThread(), null, null, null);
+        try {
+            while (!deadline.expired) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    cancel(deadline);
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            resume(deadline);
+        }
+    }
+
+    @Override
+    public boolean await(ReentrantLock lock, Condition condition, long millis) throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        if (millis <= 0)
+            return false;
+        Deadline deadline = add(millis, Thread.currentThread(), lock, condition, null);
+        try {
+            condition.await();
+        } catch (InterruptedException e) {
+            cancel(deadline);
+            throw e;
+        } finally {
+            resume(deadline);
+        }
+        if (deadline.expired)
+            return false;
+        cancel(deadline);
+        return true;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delay) {
+        add(Math.max(delay, 0), null, null, null, task);
+    }
+
+    @Override
+    public void register() {
+        threads.add(Thread.currentThread());
+        activity.increment();
+    }
+
+    @Override
+    public void unregister() {
+        threads.remove(Thread.currentThread());
+        activity.increment();
+    }
+
+    /**
+     * Stops the time from advancing until release is called: the game threads keep running, and the deadlines that
+     * passed already still fire, but no new deadline passes.
+     */
+    public void hold() {
+        holds.incrementAndGet();
+        activity.increment();
+    }
+
+    /**
+     * Releases a hold on the time (see hold).
+     */
+    public void release() {
+        holds.decrementAndGet();
+        activity.increment();
+        LockSupport.unpark(driver);
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        LockSupport.unpark(driver);
+    }
+
+    private Deadline add(long delay, Thread thread, ReentrantLock lock, Condition condition, Runnable task) {
+        activity.increment();
+        Deadline deadline;
+        boolean first;
+        queueLock.lock();
+        try {
+            deadline = new Deadline(now + delay, sequence++, thread, lock, condition, task);
+            deadlines.add(deadline);
+            first = deadlines.peek() == deadline;
+        } finally {
+            queueLock.unlock();
+        }
+        if (first) LockSupport.unpark(driver);
+        return deadline;
+    }
+
+    private void cancel(Deadline deadline) {
+        queueLock.lock();
+        try {
+            deadlines.remove(deadline);
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    private void resume(Deadline deadline) {
+        deadline.resumed = true;
+        activity.increment();
+    }
+
+    /**
+     * The main loop of the driver thread: fires the deadlines that passed, and advances the time to the next deadline
+     * when the game threads are idle.
+     */
+    private void drive() {
+        List<Deadline> due = new ArrayList<>();
+        while (!shutdown) {
+            Deadline next;
+            queueLock.lock();
+            try {
+                next = deadlines.peek();
+            } finally {
+                queueLock.unlock();
+            }
+
+            if (next == null) {
+                LockSupport.parkNanos(this, CONFIRM_NANOS * 10); // woken up by the next add
+                continue;
+            }
+            if (next.time > now) {
+                if (!quiescent()) {
+                    LockSupport.parkNanos(this, holds.get() > 0 ? CONFIRM_NANOS * 10 : CHECK_NANOS); // woken up by release
+                    continue;
+                }
+                now = next.time;
+            }
+
+            queueLock.lock();
+            try {
+                while (!deadlines.isEmpty() && deadlines.peek().time <= now)
+                    due.add(deadlines.poll());
+            } finally {
+                queueLock.unlock();
+            }
+            for (Deadline deadline : due)
+                fire(deadline);
+            // let the woken threads run before checking whether they are idle again
+            for (Deadline deadline : due)
+                while (deadline.thread != null && !deadline.resumed && deadline.thread.isAlive() && !shutdown)
+                    LockSupport.parkNanos(this, CHECK_NANOS);
+            due.clear();
+        }
+    }
+
+    private void fire(Deadline deadline) {
+        deadline.expired = true;
+        if (deadline.task != null) {
+            try {
+                deadline.task.run();
+            } catch (RuntimeException ignored) {
+            }
+        } else if (deadline.condition != null) {
+            deadline.lock.lock();
+            try {
+                deadline.condition.signalAll();
+            } finally {
+                deadline.lock.unlock();
+            }
+        } else LockSupport.unpark(deadline.thread);
+    }
+
+    /**
+     * @return - true iff the time is not held, and all the game threads stayed idle, without using the clock, for the
+     *           confirmation period.
+     */
+    private boolean quiescent() {
+        if (holds.get() > 0)
+            return false;
+        long before = activity.sum();
+        if (!idle())
+            return false;
+        LockSupport.parkNanos(this, CONFIRM_NANOS);
+        return idle() && activity.sum() == before && holds.get() == 0;
+    }
+
+    private boolean idle() {
+        for (Thread thread : threads) {
+            Thread.State state = thread.getState();
+            if (state == Thread.State.RUNNABLE || state == Thread.State.NEW)
+                return false;
+        }
+        return true;
+    }
+}
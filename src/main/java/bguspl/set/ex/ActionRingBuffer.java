@@ -0,0 +1,148 @@
+package bguspl.set.ex;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded multi-producer/single-consumer queue of key presses (slots) for one player. The presses of a seat may come
+ * from several threads at once (e.g. the keyboard on the ui thread and a network connection on the selector thread).
+ * The producers never block: a press on a slot that is still waiting in the queue cancels it, and a press that does not
+ * fit is dropped and counted.
+ * <p>
+ * A producer claims a cell by moving the tail with a CAS. The sequence number of each cell tells the consumer when
+ * the cell is published and the producers when it is free again (a bounded MPSC queue in the style of Vyukov's).
+ *
+ * @inv 0 <= tail - head <= buffer.length
+ */
+public class ActionRingBuffer {
+
+    private final int[] buffer;
+    private final int mask;
+
+    /**
+     * pending[slot] == 1 iff an odd number of presses on slot are waiting (i.e. the slot should be handled). Queue
+     * entries of slots that are not pending are stale and skipped by the consumer.
+     */
+    private final AtomicIntegerArray pending;
+
+    /**
+     * sequences[i] == t iff cell i is free for the press number t, and == t + 1 iff it holds the published press number
+     * t (so the consumer can take it).
+     */
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong head = new AtomicLong(); // written by the consumer only
+    private final AtomicLong tail = new AtomicLong(); // moved by the producers with a CAS
+
+    private volatile Thread consumer;
+    private volatile boolean waiting;
+
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param slots    - the number of slots on the table.
+     * @param capacity - the minimal number of queued presses (rounded up to a power of 2).
+     */
+    public ActionRingBuffer(int slots, int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.buffer = new int[size];
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+        this.pending = new AtomicIntegerArray(slots);
+    }
+
+    /**
+     * Called by a producer to add a key press (from any thread). Never blocks.
+     *
+     * @param slot - the slot pressed.
+     * @return - true iff the press was queued or cancelled a pending press on the same slot.
+     */
+    public boolean offer(int slot) {
+        while (true) {
+            if (pending.compareAndSet(slot, 1, 0))
+                return true; // a double press: the first press is not handled anymore
+            if (tail.get() - head.get() >= buffer.length) {
+                dropped.increment();
+                return false;
+            }
+            if (pending.compareAndSet(slot, 0, 1))
+                break; // else another producer pressed the slot at the same time: this press cancels it
+        }
+
+        long t;
+        while (true) {
+            t = tail.get();
+            long sequence = sequences.get((int) t & mask);
+            if (sequence == t) {
+                if (tail.compareAndSet(t, t + 1))
+                    break;
+            } else if (sequence < t) { // full: the consumer did not free the cell yet
+                pending.compareAndSet(slot, 1, 0);
+                dropped.increment();
+                return false;
+            }
+        }
+        buffer[(int) t & mask] = slot;
+        sequences.set((int) t & mask, t + 1); // publishes the press
+        if (waiting)
+            LockSupport.unpark(consumer);
+        return true;
+    }
+
+    /**
+     * Called by the consumer to take the next key press, waiting until there is one.
+     *
+     * @return - the slot pressed.
+     * @throws InterruptedException - if the consumer thread was interrupted while waiting.
+     */
+    public int take() throws InterruptedException {
+        consumer = Thread.currentThread();
+        while (true) {
+            long h = head.get();
+            if (sequences.get((int) h & mask) != h + 1) { // empty, or the next press is not published yet
+                waiting = true;
+                if (sequences.get((int) h & mask) != h + 1)
+                    LockSupport.park(this);
+                waiting = false;
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                continue;
+            }
+            int slot = buffer[(int) h & mask];
+            sequences.set((int) h & mask, h + buffer.length); // frees the cell for the press a round later
+            head.lazySet(h + 1);
+            if (pending.compareAndSet(slot, 1, 0))
+                return slot;
+        }
+    }
+
+    /**
+     * Cancels all the waiting presses (may be called by any thread).
+     */
+    public void clear() {
+        for (int slot = 0; slot < pending.length(); slot++)
+            pending.set(slot, 0);
+    }
+
+    /**
+     * @return - the number of waiting presses.
+     */
+    public int size() {
+        int size = 0;
+        for (int slot = 0; slot < pending.length(); slot++)
+            size += pending.get(slot);
+        return size;
+    }
+
+    /**
+     * @return - the number of presses dropped because the queue was full.
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,86 @@
+package bguspl.set.ex;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A request of a player for the dealer to check its set. Only the claiming player waits on it, so the dealer's
+ * verdict wakes up that player alone.
+ */
+public class Claim {
+
+    /**
+     * The possible results of checking a claim.
+     */
+    public enum Verdict {
+        /**
+         * The tokens of the player form a legal set.
+         */
+        VALID,
+        /**
+         * The tokens of the player do not form a legal set.
+         */
+        INVALID,
+        /**
+         * The claim was withdrawn before it was checked (e.g. one of its cards was removed from the table).
+         */
+        CANCELLED
+    }
+
+    /**
+     * The id of the claiming player.
+     */
+    public final int player;
+
+    /**
+     * The time the claim was made (System.nanoTime).
+     */
+    public final long submitted = System.nanoTime();
+
+    /**
+     * Completed by the dealer with the verdict.
+     */
+    private final CompletableFuture<Verdict> verdict = new CompletableFuture<>();
+
+    public Claim(int player) {
+        this.player = player;
+    }
+
+    /**
+     * Sets the verdict of the claim and wakes up the claiming player.
+     *
+     * @param result - the verdict.
+     * @return - true iff this call set the verdict (i.e. the claim was not resolved before).
+     */
+    public boolean resolve(Verdict result) {
+        return verdict.complete(result);
+    }
+
+    /**
+     * Blocks the calling (claiming) player thread until the dealer resolved the claim.
+     *
+     * @return - the verdict.
+     * @throws InterruptedException - if the thread was interrupted while waiting.
+     */
+    public Verdict await() throws InterruptedException {
+        try {
+            return verdict.get();
+        } catch (ExecutionException e) {
+            return Verdict.CANCELLED;
+        }
+    }
+
+    /**
+     * @return - the verdict, or null if the claim was not resolved yet.
+     */
+    public Verdict verdictNow() {
+        return verdict.getNow(null);
+    }
+
+    /**
+     * @return - true iff the claim was resolved.
+     */
+    public boolean isResolved() {
+        return verdict.isDone();
+    }
+}
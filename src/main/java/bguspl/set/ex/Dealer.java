@@ -1,15 +1,28 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.GameExecutor;
+import bguspl.set.Histogram;
+import bguspl.set.Metrics;
 import bguspl.set.Util;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.Queue;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.naming.spi.DirStateFactory.Result;
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.LinkedList;
 
 /**
@@ -28,6 +41,10 @@ public class Dealer implements Runnable {
     private final Table table;
     private final Player[] players;
     private Thread dealerThread;
+    /**
+     * The tasks running the players' main loops.
+     */
+    private final CompletableFuture<?>[] playerTasks;
     /**
      * to give premission to players to put tokens
      */
@@ -36,31 +53,118 @@ public class Dealer implements Runnable {
      * The list of card ids that are left in the dealer's deck.
      */
     private final List<Integer> deck;
+    /**
+     * The random order of the deals (the dealer's stream of the game's random source).
+     */
+    private final SplittableRandom random;
     /**
      * True if game should be terminated due to an external event.
      */
     private volatile boolean terminate = false;
+
+    /**
+     * True if terminate was called before the game ended (the game has no result).
+     */
+    private volatile boolean terminatedEarly = false;
     /**
      *  lock is used to synchornized between dealer to the players
      */
+    private final ReentrantLock lock;
+    /**
+     * signaled when a player asks the dealer to check a set
+     */
+    private final Condition claimSubmitted;
+
+    /**
+     * Reused buffers for the slots and cards of the set being checked.
+     */
+    private final int[] claimSlots = new int[PlayerTokens.MAX_SLOTS];
+    private final int[] claimCards;
+
+    /**
+     * The number of iterations of the timer loop, and the time from making a claim to its verdict (in nanoseconds) of
+     * all the claims and of each player's claims.
+     */
+    private long loopIterations;
+    private final Histogram verificationLatency = new Histogram();
+    private final Histogram[] playerLatency;
+
+    /**
+     * The engine metrics of the dealers of all the games (see Metrics).
+     */
+    private static final Metrics.Distribution CLAIM_LATENCY = Metrics.DEFAULT.distribution("set_claim_latency_seconds",
+            "The time from making a claim to its verdict.", Metrics.NANOSECONDS);
+    private static final Metrics.Distribution VERIFICATION_TIME = Metrics.DEFAULT.distribution(
+            "set_verification_seconds", "The time the dealer takes to check a claimed set.", Metrics.NANOSECONDS);
+    private static final Metrics.Distribution LOOP_DURATION = Metrics.DEFAULT.distribution("set_dealer_loop_seconds",
+            "The time of an iteration of the dealer loop, without its sleep.", Metrics.NANOSECONDS);
+    private static final Metrics.Counter RESHUFFLES = Metrics.DEFAULT.counter("set_reshuffles_total",
+            "The times the cards on the table were returned to the deck.");
+
+    /**
+     * The winners of the game, once it ended (it stays null if the game was terminated early).
+     */
+    private volatile int[] winners;
+
+    /**
+     * The longest time the dealer sleeps between countdown updates, before and during the timeout warning (when the
+     * countdown shows milliseconds).
+     */
+    private static final long COUNTDOWN_UPDATE_MILLIS = 900;
+    private static final long WARNING_UPDATE_MILLIS = 10;
+
+    /**
+     * The time when the dealer needs to reshuffle the deck due to turn timeout (read by a replay, see getReShuffle).
+     */
+    private volatile long reshuffleTime = Long.MAX_VALUE;
+
+    /**
+     * Held (shared) by the players while they change their tokens or apply a verdict, and (exclusively) by the dealer
+     * while it copies the players' state into a checkpoint, so a checkpoint stops the players for the copy only.
+     */
+    private final ReentrantReadWriteLock state = new ReentrantReadWriteLock();
+
+    /**
+     * A request for a checkpoint, served by the dealer thread in its timer loop.
+     */
+    private record CheckpointRequest(CompletableFuture<GameSnapshot> snapshot, boolean stop) {
+    }
+
+    private final Queue<CheckpointRequest> checkpointRequests = new ConcurrentLinkedQueue<>();
+    private volatile boolean finished;
 
-    private final Object lock;
     /**
-     *  true if the set of last check player is valid
+     * The snapshot to resume the game from (null for a new game), the last checkpoint, when the next periodic checkpoint
+     * is due, and the file the periodic checkpoints are written to (null for none).
      */
-    private boolean isValidSet;
+    private GameSnapshot resuming;
+    private volatile GameSnapshot lastCheckpoint;
+    private long nextCheckpoint = Long.MAX_VALUE;
+    private final Path checkpointFile;
 
     /**
-     * The time when the dealer needs to reshuffle the deck due to turn timeout.
+     * The time the players were stopped for each checkpoint (in nanoseconds).
      */
-    private long reshuffleTime = Long.MAX_VALUE;
+    private final Histogram checkpointWindow = new Histogram();
 
     public Dealer(Env env, Table table, Player[] players) {
         this.env = env;
         this.table = table;
         this.players = players;
         deck = IntStream.range(0, env.config.deckSize).boxed().collect(Collectors.toList());
-        this.lock = new Object();
+        this.random = env.random.dealer();
+        this.claimCards = new int[env.config.featureSize];
+        this.lock = new ReentrantLock();
+        this.claimSubmitted = lock.newCondition();
+        this.playerTasks = new CompletableFuture<?>[players.length];
+        this.playerLatency = new Histogram[players.length];
+        Arrays.setAll(playerLatency, i -> new Histogram());
+        if (env.config.checkpointDirectory.isEmpty()) {
+            checkpointFile = null;
+        } else {
+            long id = env.journal.gameId() != 0 ? env.journal.gameId() : ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+            checkpointFile = Paths.get(env.config.checkpointDirectory, Long.toHexString(id) + ".checkpoint");
+        }
     }
 
     /**
@@ -69,23 +173,30 @@ public class Dealer implements Runnable {
     @Override
     public void run() {
         dealerThread = Thread.currentThread();
+        env.clock.register();
         System.out.printf("Info: Thread %s starting.%n", Thread.currentThread().getName());
         for (int i = 0; i < players.length; i++) {
-            Thread playerThread = new Thread(players[i], "player" + i);
-            playerThread.start();
+            playerTasks[i] = env.executor.start(players[i], "player" + i);
         }
+        if (env.config.checkpointMillis > 0)
+            nextCheckpoint = env.clock.currentTimeMillis() + env.config.checkpointMillis;
         while (!shouldFinish()) {
-            placeCardsOnTable();
-            if (!terminate) {
-                this.okPlaceTokens = true;
+            if (!resume()) {
+                placeCardsOnTable();
+                if (!terminate) {
+                    this.okPlaceTokens = true;
+                }
+                updateTimerDisplay(true);
             }
-            updateTimerDisplay(true);
             timerLoop();
+            env.journal.reshuffle(); // before the tokens stop, so a replay can feed the key presses of the last moment
             this.okPlaceTokens = false;
             removeAllCardsFromTable();
         }
         announceWinners();
         terminate();
+        endCheckpoints();
+        env.clock.unregister();
         System.out.printf("Info: Thread %s terminated.%n", Thread.currentThread().getName());
     }
 
@@ -94,58 +205,197 @@ public class Dealer implements Runnable {
      * not time out.
      */
     private void timerLoop() {
-        while (!terminate && System.currentTimeMillis() < reshuffleTime) {
+        while (!terminate && env.clock.currentTimeMillis() < reshuffleTime) {
+            ++loopIterations;
             sleepUntilWokenOrTimeout();
+            long start = System.nanoTime();
             updateTimerDisplay(false);
             checkPlayersInQueue();
+            checkpoints();
+            LOOP_DURATION.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Takes a checkpoint if one is due or requested, and stops the game if a request asks for it.
+     */
+    private void checkpoints() {
+        long now = env.clock.currentTimeMillis();
+        boolean due = env.config.checkpointMillis > 0 && now >= nextCheckpoint;
+        if (!due && checkpointRequests.isEmpty())
+            return;
+        // the requests made from here on get the next checkpoint
+        List<CheckpointRequest> requests = new ArrayList<>();
+        CheckpointRequest request;
+        while ((request = checkpointRequests.poll()) != null)
+            requests.add(request);
+        GameSnapshot snapshot = capture(now);
+        lastCheckpoint = snapshot;
+        if (due) {
+            nextCheckpoint = now + env.config.checkpointMillis;
+            save(snapshot);
+        }
+        boolean stop = false;
+        for (CheckpointRequest served : requests) {
+            if (served.snapshot().complete(snapshot)) // a request that was cancelled (given up) does not stop the game
+                stop |= served.stop();
         }
+        if (stop)
+            terminate();
+    }
+
+    /**
+     * Copies the state of the game (on the dealer thread, so the deck, the table and the countdown do not change). The
+     * players are stopped only while their tokens, scores, claims and freezes are copied.
+     */
+    private GameSnapshot capture(long now) {
+        int[] deckCards = new int[deck.size()];
+        int count = 0;
+        for (Integer card : deck)
+            deckCards[count++] = card;
+        int[] slots = new int[table.slotToCard.length];
+        for (int slot = 0; slot < slots.length; slot++)
+            slots[slot] = table.slotToCard[slot] == null ? -1 : table.slotToCard[slot];
+
+        int[] scores = new int[players.length];
+        long[] tokens = new long[players.length];
+        long[] freezes = new long[players.length];
+        long start = System.nanoTime();
+        state.writeLock().lock();
+        try {
+            for (int i = 0; i < players.length; i++) {
+                Player player = players[i];
+                scores[i] = player.score();
+                freezes[i] = Math.max(player.freezeDeadline() - now, 0);
+                Claim claim = player.claim();
+                long mine = player.getMyTokens().snapshot();
+                if (claim != null) { // the player picks its set again after a restore
+                    Claim.Verdict verdict = claim.verdictNow();
+                    if (verdict == Claim.Verdict.VALID) {
+                        ++scores[i];
+                        freezes[i] = env.config.pointFreezeMillis;
+                    } else if (verdict == Claim.Verdict.INVALID) {
+                        freezes[i] = env.config.penaltyFreezeMillis;
+                    }
+                } else if (Long.bitCount(mine) < env.config.featureSize) { // a full set is about to be claimed
+                    tokens[i] = mine;
+                }
+            }
+        } finally {
+            state.writeLock().unlock();
+        }
+        checkpointWindow.record(System.nanoTime() - start);
+        return new GameSnapshot(deckCards, slots, scores, tokens, freezes, Math.max(reshuffleTime - now, 0));
+    }
+
+    /**
+     * Writes a periodic checkpoint to the checkpoint file (if there is one).
+     */
+    private void save(GameSnapshot snapshot) {
+        if (checkpointFile == null)
+            return;
+        try {
+            Files.createDirectories(checkpointFile.getParent());
+            snapshot.write(checkpointFile);
+        } catch (IOException e) {
+            env.logger.severe("cannot write the checkpoint file " + checkpointFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Called when the game ends: the requests that were not served get no checkpoint, and the checkpoint file is deleted.
+     */
+    private void endCheckpoints() {
+        finished = true;
+        CheckpointRequest request;
+        while ((request = checkpointRequests.poll()) != null)
+            request.snapshot().complete(null);
+        if (checkpointFile != null) {
+            try {
+                Files.deleteIfExists(checkpointFile);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Deals the table of the snapshot the game resumes from, with the players' tokens and the countdown.
+     *
+     * @return - false iff the game does not resume from a snapshot (or it resumed already).
+     */
+    private boolean resume() {
+        GameSnapshot snapshot = resuming;
+        if (snapshot == null)
+            return false;
+        resuming = null;
+        env.ui.removeTokens();
+        int[] slots = snapshot.slots();
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (slots[slot] >= 0) table.placeCard(slots[slot], slot);
+            else env.ui.removeCard(slot);
+        }
+        placeCardsOnTable(); // fills the slots that were empty, and checks for the end of the game
+        long[] tokens = snapshot.tokens();
+        for (int player = 0; player < players.length; player++) {
+            for (long rest = tokens[player]; rest != 0; rest &= rest - 1) {
+                int slot = Long.numberOfTrailingZeros(rest);
+                if (table.placeToken(player, slot))
+                    players[player].getMyTokens().add(slot, env.config.featureSize);
+            }
+        }
+        if (!terminate)
+            this.okPlaceTokens = true;
+        this.reshuffleTime = env.clock.currentTimeMillis() + snapshot.remainingMillis();
+        updateTimerDisplay(false);
+        return true;
     }
      /**
      * The inner loop going through the queue that hold players to check their sets 
      */
     private void checkPlayersInQueue() {
-        while (!table.PlayersToCheck.isEmpty()) {
-            try {
-                int idPlayer = table.PlayersToCheck.take();
-                int[] set = generatePlayerSet(idPlayer);
-                if (env.util.testSet(set)) {
-                    players[idPlayer].setIsValidSet(true);
-                    players[idPlayer].setInCheck(false);
-                    this.okPlaceTokens = false;
-                    removeCardsFromTable(idPlayer);
-                    placeCardsOnTable();
-                    updateTimerDisplay(true);
-                    this.okPlaceTokens = true;
-                    synchronized (lock) {
-                        lock.notifyAll();
-                    }
-                } else {
-                    players[idPlayer].setInCheck(false);
-                    synchronized (lock) {
-                        lock.notifyAll();
-                    }
-                }
-            } catch (InterruptedException e) {
+        Claim claim;
+        while ((claim = table.PlayersToCheck.poll()) != null) {
+            long start = System.nanoTime();
+            int[] set = generatePlayerSet(claim.player);
+            boolean valid = set != null && env.util.testSet(set);
+            VERIFICATION_TIME.record(System.nanoTime() - start);
+            if (valid) {
+                env.journal.claimResolved(claim.player, Claim.Verdict.VALID.ordinal());
+                this.okPlaceTokens = false;
+                removeCardsFromTable(claim.player);
+                placeCardsOnTable();
+                updateTimerDisplay(true);
+                this.okPlaceTokens = true;
+                claim.resolve(Claim.Verdict.VALID);
+            } else {
+                env.journal.claimResolved(claim.player, Claim.Verdict.INVALID.ordinal());
+                claim.resolve(Claim.Verdict.INVALID);
             }
+            long latency = System.nanoTime() - claim.submitted;
+            verificationLatency.record(latency);
+            CLAIM_LATENCY.record(latency);
+            if (claim.player < playerLatency.length)
+                playerLatency[claim.player].record(latency);
         }
     }
      /**
      * This method generate the set a player sent that should be checked 
      * @param id : the id of the player who sent the request
-     * @return set of three card (not speciflcally valid)
+     * @return set of three card (not speciflcally valid), or null if the player's tokens are not a full set
+     * @post the returned array is reused by the next call
      */
-    private int[] generatePlayerSet(int id) { 
-        BlockingQueue<Integer> copyOfPlayerTokens = new LinkedBlockingDeque<Integer>(players[id].getMyTokens());
-        int[] set = new int[env.config.featureSize];
-        if (copyOfPlayerTokens.size() == env.config.featureSize) {
-            try {
-                for (int i = 0; i < env.config.featureSize; i++) {
-                    set[i] = table.slotToCard[copyOfPlayerTokens.take()];
-                }
-            } catch (InterruptedException e) {
-            }
+    private int[] generatePlayerSet(int id) {
+        long tokens = players[id].getMyTokens().snapshot();
+        if (Long.bitCount(tokens) != env.config.featureSize)
+            return null;
+        PlayerTokens.toSlots(tokens, claimSlots);
+        for (int i = 0; i < env.config.featureSize; i++) {
+            Integer card = table.slotToCard[claimSlots[i]];
+            if (card == null)
+                return null;
+            claimCards[i] = card;
         }
-        return set;
+        return claimCards;
     }
     /**
      * This method checks if their are more valid sets in game or should finish
@@ -172,12 +422,101 @@ public class Dealer implements Runnable {
         return dealerThread;
     }
 
-    public Object getLock() {
-        return lock;
+    /**
+     * Wakes the dealer thread up to check the sets in the queue.
+     */
+    public void notifyClaim() {
+        lock.lock();
+        try {
+            claimSubmitted.signal();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public boolean getIsValidSet() {
-        return isValidSet;
+    /**
+     * @return - the number of iterations of the timer loop so far.
+     */
+    public long getLoopIterations() {
+        return loopIterations;
+    }
+
+    /**
+     * @return - the time from making a claim to its verdict (in nanoseconds), of the claims checked so far.
+     */
+    public Histogram getVerificationLatency() {
+        return verificationLatency;
+    }
+
+    /**
+     * @param player - the id of a player.
+     * @return - the time from making a claim to its verdict (in nanoseconds), of the player's claims checked so far.
+     */
+    public Histogram getVerificationLatency(int player) {
+        return playerLatency[player];
+    }
+
+    /**
+     * Asks the dealer for a checkpoint of the game (taken in its next timer loop iteration, while the table is dealt).
+     *
+     * @return - completed with the snapshot of the game, or with null if the game ends first.
+     */
+    public CompletableFuture<GameSnapshot> checkpoint() {
+        return checkpoint(false);
+    }
+
+    /**
+     * Asks the dealer for a checkpoint of the game.
+     *
+     * @param stop - true to end the game right after the checkpoint (e.g. to move it to another host).
+     * @return - completed (on the dealer thread) with the snapshot of the game, or with null if the game ends first.
+     */
+    public CompletableFuture<GameSnapshot> checkpoint(boolean stop) {
+        CompletableFuture<GameSnapshot> snapshot = new CompletableFuture<>();
+        checkpointRequests.add(new CheckpointRequest(snapshot, stop));
+        if (finished)
+            endCheckpoints();
+        else
+            notifyClaim();
+        return snapshot;
+    }
+
+    /**
+     * @return - the ids of the winners, or null if the game did not end yet (or was terminated early).
+     */
+    public int[] getWinners() {
+        return winners;
+    }
+
+    /**
+     * @return - the last checkpoint taken (null if none).
+     */
+    public GameSnapshot getLastCheckpoint() {
+        return lastCheckpoint;
+    }
+
+    /**
+     * @return - the time the players were stopped for each checkpoint (in nanoseconds).
+     */
+    public Histogram getCheckpointWindow() {
+        return checkpointWindow;
+    }
+
+    /**
+     * @return - the lock the players hold while they change the state a checkpoint copies.
+     */
+    Lock sharedState() {
+        return state.readLock();
+    }
+
+    /**
+     * Makes the game resume from a snapshot when it starts (see GameSnapshot.restore).
+     *
+     * @throws IllegalArgumentException - if the snapshot does not fit the game (see GameSnapshot.validate).
+     */
+    void resume(GameSnapshot snapshot) {
+        snapshot.validate(table.slotToCard.length, env.config.deckSize);
+        this.resuming = snapshot;
     }
 
     public boolean getOktoPutTokens() {
@@ -187,26 +526,22 @@ public class Dealer implements Runnable {
     {
         return this.deck;
     }
-    public long getReShuffle() //used for tests
+    public long getReShuffle() //used for tests, and by a replay to keep the countdown from ending early
     {
         return this.reshuffleTime;
     }
-    /**
-     * set the value of isValisSet field
-     * @param a: the new value
-     * @post: isValidSet changed to value a
-     */
-    public void setIsValidSet(boolean a) {
-        this.isValidSet = a;
-    }
     /**
      * Called when the game should be terminated due to an external event.
      */
     public void terminate() {
+        if (winners == null)
+            terminatedEarly = true;
         for (int i = players.length - 1; i >= 0; i--) {
             players[i].terminate();
+            GameExecutor.join(playerTasks[i]);
         }
         this.terminate = true;
+        notifyClaim(); // the dealer stops without waiting for its next countdown update
     }
 
     /**
@@ -223,18 +558,18 @@ public class Dealer implements Runnable {
      * @post : in the env.config.featureSize slots of the set, cards are out from game, and all tokens has been removed
      */
     private void removeCardsFromTable(int playerID) {
-        while (!players[playerID].getMyTokens().isEmpty()) { // Emptying myTokens field
-            int slot = players[playerID].getMyTokens().remove();// Updating myTokens after remove
+        long tokens = players[playerID].getMyTokens().snapshot();
+        players[playerID].getMyTokens().clear(); // Emptying myTokens field
+        int count = PlayerTokens.toSlots(tokens, claimSlots);
+        for (int k = 0; k < count; k++) {
+            int slot = claimSlots[k];
             env.ui.removeTokens(slot); // Clears token from card
             table.getTokensInSlot()[slot].remove(playerID);
             int sizeOfQueue = table.getTokensInSlot()[slot].size();
             for (int j = 0; j < sizeOfQueue; j++) {// For each player who is not "playerId"
                 try {
                     int i = (int) table.getTokensInSlot()[slot].take();
-                    if (table.PlayersToCheck.contains(i)) {// If player "i" had a env.config.featureSize tokens, not anymore
-                        table.PlayersToCheck.remove(i);
-                        players[i].setInCheck(false);
-                    }
+                    table.cancelClaims(i); // If player "i" had a env.config.featureSize tokens, not anymore
                     players[i].getMyTokens().remove(slot); // Updating myTokens after remove
                 } catch (InterruptedException e) {
                 }
@@ -250,29 +585,38 @@ public class Dealer implements Runnable {
      */
     public void placeCardsOnTable() {
         int i = 0;
-        Random rnd = new Random();
         while (!deck.isEmpty() && i < table.slotToCard.length) { // Do not extend over 12 cards, and procceed only if there are cards in deck
             if (table.slotToCard[i] == null) { // meaning no card is in the slot
-                int card = deck.remove(rnd.nextInt(deck.size())); // take a card from deck
+                int card = deck.remove(random.nextInt(deck.size())); // take a card from deck
                 table.placeCard(card, i);
             }
             i++;
         }
-        this.terminate = isFinishedGame();
+        if (isFinishedGame())
+            this.terminate = true; // never clears a terminate() made by another thread meanwhile
     }
 
     /**
      * Sleep for a fixed amount of time or until the thread is awakened for some
      * purpose.
      */
-    private synchronized void sleepUntilWokenOrTimeout() {
-
-        if (this.reshuffleTime - System.currentTimeMillis() > env.config.turnTimeoutWarningMillis) {
-            try {
-                this.wait(900);
-            } catch (InterruptedException e) {
-            }
-
+    private void sleepUntilWokenOrTimeout() {
+        long leftTime = this.reshuffleTime - env.clock.currentTimeMillis();
+        long timeout = leftTime > env.config.turnTimeoutWarningMillis
+                ? Math.min(leftTime - env.config.turnTimeoutWarningMillis, COUNTDOWN_UPDATE_MILLIS)
+                : Math.min(leftTime, WARNING_UPDATE_MILLIS);
+        if (timeout <= 0)
+            return;
+        timeout = Math.min(timeout, nextCheckpoint - env.clock.currentTimeMillis());
+        if (timeout <= 0)
+            return;
+        lock.lock();
+        try {
+            if (table.PlayersToCheck.isEmpty() && checkpointRequests.isEmpty())
+                env.clock.await(lock, claimSubmitted, timeout);
+        } catch (InterruptedException e) {
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -284,10 +628,10 @@ public class Dealer implements Runnable {
      */
     public void updateTimerDisplay(boolean reset) {
         if (reset) {
-             this.reshuffleTime = System.currentTimeMillis() +
+             this.reshuffleTime = env.clock.currentTimeMillis() +
              env.config.turnTimeoutMillis;
         }
-        long leftTime = this.reshuffleTime - System.currentTimeMillis();
+        long leftTime = this.reshuffleTime - env.clock.currentTimeMillis();
         if (leftTime < env.config.turnTimeoutWarningMillis) {
             env.ui.setCountdown(leftTime, true);
         } else {
@@ -299,6 +643,7 @@ public class Dealer implements Runnable {
      * Returns all the cards from the table to the deck. public for tests purpose
      */
     public void removeAllCardsFromTable() {
+        RESHUFFLES.increment();
         // Clearing table fields
         for (int j = 0; j < table.getTokensInSlot().length; j++) {
             table.getTokensInSlot()[j].clear();
@@ -306,12 +651,16 @@ public class Dealer implements Runnable {
         // Clearing players field
         for (int k = 0; k < players.length; k++) {
             players[k].getMyTokens().clear();
-            players[k].setInCheck(false);
+        }
+        Claim claim;
+        while ((claim = table.PlayersToCheck.poll()) != null) {
+            table.cancel(claim);
         }
         env.ui.removeTokens();
         int i = 0;
         while (i < table.slotToCard.length) {
-            deck.add(table.slotToCard[i]);
+            if (table.slotToCard[i] != null) // the slots left empty when the deck ran out have no card to return
+                deck.add(table.slotToCard[i]);
             table.removeCard(i);
             i++;
         }
@@ -331,21 +680,26 @@ public class Dealer implements Runnable {
      * Check who is/are the winner/s and displays them.
      */
     private void announceWinners() {
-        List<Integer> ans = new LinkedList<Integer>();
-        int max = players[0].score();
-        for (int i = 1; i < players.length; i++) {
-            if (players[i].score() > max)
-                max = players[i].score();
-        }
-        for (int j = 0; j < players.length; j++) {
-            if (players[j].score() == max) {
-                ans.add(players[j].id);
+        int max = 0;
+        int count = 0;
+        for (Player player : players) {
+            int score = player.score();
+            if (score > max) {
+                max = score;
+                count = 0;
             }
+            if (score == max)
+                ++count;
         }
-        int[] finalArray = new int[ans.size()];
-        for (int i = 0; i < finalArray.length; i++) {
-            finalArray[i] = ans.get(i);
+        int[] finalArray = new int[count];
+        count = 0;
+        for (Player player : players) {
+            if (player.score() == max)
+                finalArray[count++] = player.id;
         }
+        if (!terminatedEarly)
+            winners = finalArray;
+        env.journal.gameEnd(finalArray);
         env.ui.announceWinner(finalArray);
     }
 }
@@ -0,0 +1,224 @@
+package bguspl.set.ex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * The state of a running game (a checkpoint): the cards in the deck and on the table, the players' scores, tokens and
+ * remaining freeze times, and the time left until the next reshuffle. It is taken by the dealer (see Dealer.checkpoint)
+ * and put into a new game before it starts, which then resumes from it: the same table with the same tokens, the
+ * same countdown and the same frozen players.
+ * <p>
+ * A player that waits for the verdict of its claim is saved with the verdict applied if the dealer already gave it (a
+ * point or a penalty, and the freeze that comes with it), and with no tokens: it picks its set again after a restore.
+ * So is a player whose selection is full but not claimed yet (its claim is about to be submitted): a restore never
+ * starts with a full selection that no claim will check.
+ * <p>
+ * Encoded as: the format version (1 byte), the number of players (2 bytes) and for each player its score (2 bytes),
+ * tokens (8 bytes) and remaining freeze time (4 bytes), the time left until the reshuffle (4 bytes), the number of
+ * slots (2 bytes) and the card of each slot (2 bytes, NO_CARD for none), then the number of cards in the deck (2 bytes)
+ * and the cards (2 bytes each).
+ */
+public class GameSnapshot {
+
+    /**
+     * The version of the encoding.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The card of an empty slot.
+     */
+    private static final int NO_CARD = 0xFFFF;
+
+    private final int[] deck;
+    private final int[] slots;
+    private final int[] scores;
+    private final long[] tokens;
+    private final long[] freezeMillis;
+    private final long remainingMillis;
+
+    GameSnapshot(int[] deck, int[] slots, int[] scores, long[] tokens, long[] freezeMillis, long remainingMillis) {
+        this.deck = deck;
+        this.slots = slots;
+        this.scores = scores;
+        this.tokens = tokens;
+        this.freezeMillis = freezeMillis;
+        this.remainingMillis = remainingMillis;
+    }
+
+    /**
+     * Puts the state into a game that did not start yet (the dealer deals the saved table when it starts).
+     *
+     * @param dealer  - the dealer of the game.
+     * @param players - the players of the game.
+     * @throws IllegalArgumentException - if the game has a different number of players or a different table size, or the
+     *                                  snapshot has a card that is not in the game's deck, a card twice, or a token on a
+     *                                  slot that is not on the table (the game is not changed then).
+     */
+    public void restore(Dealer dealer, Player[] players) {
+        if (players.length != scores.length)
+            throw new IllegalArgumentException("snapshot of " + scores.length + " players for a game of " + players.length);
+        dealer.resume(this); // validates the snapshot (see validate) before anything changes
+        List<Integer> cards = dealer.getDeck();
+        cards.clear();
+        for (int card : deck)
+            cards.add(card);
+        for (int player = 0; player < players.length; player++) {
+            players[player].restoreScore(scores[player]);
+            players[player].restoreFreeze(freezeMillis[player]);
+        }
+    }
+
+    /**
+     * Checks that the snapshot fits a game, so a bad snapshot fails here and not on the dealer thread once the game
+     * started.
+     *
+     * @param tableSize - the number of slots of the game's table.
+     * @param deckSize  - the number of cards of the game.
+     * @throws IllegalArgumentException - if the snapshot has another number of slots, a card that is not in the deck, a
+     *                                  card twice, or a token on a slot that is not on the table.
+     */
+    void validate(int tableSize, int deckSize) {
+        if (slots.length != tableSize)
+            throw new IllegalArgumentException("snapshot of " + slots.length + " slots for a table of " + tableSize);
+        boolean[] seen = new boolean[deckSize];
+        for (int card : slots)
+            if (card >= 0) see(seen, card);
+        for (int card : deck)
+            see(seen, card);
+        long table = tableSize == 64 ? -1L : (1L << tableSize) - 1;
+        for (long mine : tokens)
+            if ((mine & ~table) != 0)
+                throw new IllegalArgumentException("snapshot has a token off the table of " + tableSize + " slots");
+    }
+
+    private static void see(boolean[] seen, int card) {
+        if (card < 0 || card >= seen.length)
+            throw new IllegalArgumentException("snapshot has card " + card + " in a deck of " + seen.length);
+        if (seen[card])
+            throw new IllegalArgumentException("snapshot has card " + card + " twice");
+        seen[card] = true;
+    }
+
+    /**
+     * @return - the number of bytes of the encoded snapshot.
+     */
+    public int size() {
+        return 1 + 2 + 14 * scores.length + 4 + 2 + 2 * slots.length + 2 + 2 * deck.length;
+    }
+
+    /**
+     * Writes the snapshot (the buffer must have size() bytes left).
+     */
+    public void encode(ByteBuffer out) {
+        out.put((byte) VERSION);
+        out.putShort((short) scores.length);
+        for (int player = 0; player < scores.length; player++)
+            out.putShort((short) scores[player]).putLong(tokens[player]).putInt((int) freezeMillis[player]);
+        out.putInt((int) remainingMillis);
+        out.putShort((short) slots.length);
+        for (int card : slots)
+            out.putShort((short) (card < 0 ? NO_CARD : card));
+        out.putShort((short) deck.length);
+        for (int card : deck)
+            out.putShort((short) card);
+    }
+
+    /**
+     * Reads a snapshot written by encode.
+     *
+     * @throws IllegalArgumentException - if the snapshot was written in another format.
+     */
+    public static GameSnapshot decode(ByteBuffer in) {
+        int version = in.get();
+        if (version != VERSION)
+            throw new IllegalArgumentException("unknown snapshot version " + version);
+        int players = in.getShort() & 0xFFFF;
+        int[] scores = new int[players];
+        long[] tokens = new long[players];
+        long[] freezeMillis = new long[players];
+        for (int player = 0; player < players; player++) {
+            scores[player] = in.getShort() & 0xFFFF;
+            tokens[player] = in.getLong();
+            freezeMillis[player] = in.getInt();
+        }
+        long remainingMillis = in.getInt();
+        int[] slots = new int[in.getShort() & 0xFFFF];
+        for (int slot = 0; slot < slots.length; slot++) {
+            int card = in.getShort() & 0xFFFF;
+            slots[slot] = card == NO_CARD ? -1 : card;
+        }
+        int[] deck = new int[in.getShort() & 0xFFFF];
+        for (int i = 0; i < deck.length; i++)
+            deck[i] = in.getShort() & 0xFFFF;
+        return new GameSnapshot(deck, slots, scores, tokens, freezeMillis, remainingMillis);
+    }
+
+    /**
+     * Writes the snapshot to a file, replacing it at once (a crash leaves either the previous or the new snapshot).
+     *
+     * @param file - the file.
+     */
+    public void write(Path file) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(size());
+        encode(out);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temporary, out.array());
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot from a file written by write.
+     */
+    public static GameSnapshot read(Path file) throws IOException {
+        try {
+            return decode(ByteBuffer.wrap(Files.readAllBytes(file)));
+        } catch (RuntimeException e) {
+            throw new IOException("bad snapshot file " + file + ": " + e, e);
+        }
+    }
+
+    /**
+     * @return - the cards in the deck.
+     */
+    public int[] deck() {
+        return deck.clone();
+    }
+
+    /**
+     * @return - the card in each slot (-1 for none).
+     */
+    public int[] slots() {
+        return slots.clone();
+    }
+
+    public int[] scores() {
+        return scores.clone();
+    }
+
+    /**
+     * @return - the tokens of each player (bit i is set iff the player has a token on slot i).
+     */
+    public long[] tokens() {
+        return tokens.clone();
+    }
+
+    /**
+     * @return - the remaining freeze time of each player.
+     */
+    public long[] freezeMillis() {
+        return freezeMillis.clone();
+    }
+
+    /**
+     * @return - the time left until the reshuffle.
+     */
+    public long remainingMillis() {
+        return remainingMillis;
+    }
+}
@@ -1,8 +1,13 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.GameExecutor;
+import bguspl.set.Metrics;
 import java.util.concurrent.*;
-import java.util.Random;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.SplittableRandom;
 
 /**
  * This class manages the players' threads and data
@@ -23,14 +28,13 @@ public class Player implements Runnable {
     private final Table table;
 
     // Player actions queue
-    private BlockingQueue<Integer> actionsQueue;
+    private final ActionRingBuffer actionsQueue;
     // My tokens
-    private BlockingQueue<Integer> myTokens;
+    private final PlayerTokens myTokens;
 
     // token counter of my Player
     // private AtomicInteger tCounter;
     private volatile boolean isWaitingAI;
-    private volatile boolean isValidSet = false;
     private volatile boolean inCheck = false;
     private volatile boolean isFreezed = false;
 
@@ -42,19 +46,40 @@ public class Player implements Runnable {
     /**
      * The thread representing the current player.
      */
-    private Thread playerThread;
+    private volatile Thread playerThread;
 
     /**
      * The thread of the AI (computer) player (an additional thread used to generate
      * key presses).
      */
-    private Thread aiThread;
+    private volatile Thread aiThread;
+
+    /**
+     * The time the AI waits after a rejected key press.
+     */
+    private static final long AI_BACKOFF_MILLIS = 1;
+
+    /**
+     * The task running the AI key presses generator (null for human players).
+     */
+    private CompletableFuture<Void> aiTask;
+
+    /**
+     * Used by the AI thread to wait until the player thread handled its key press.
+     */
+    private final ReentrantLock aiLock = new ReentrantLock();
+    private final Condition aiTurn = aiLock.newCondition();
 
     /**
      * True iff the player is human (not a computer player).
      */
     private final boolean human;
 
+    /**
+     * How the AI chooses its key presses (computer players only).
+     */
+    private final Strategy strategy;
+
     /**
      * True iff game should be terminated due to an external event.
      */
@@ -64,6 +89,39 @@ public class Player implements Runnable {
      * The current score of the player.
      */
     private int score;
+
+    /**
+     * The number of penalties the player got.
+     */
+    private int penalties;
+
+    /**
+     * The claim the player waits for, or whose verdict it did not apply yet (null if none).
+     */
+    private volatile Claim claim;
+
+    /**
+     * The time the player's freeze ends (0 if it is not frozen).
+     */
+    private volatile long freezeDeadline;
+
+    /**
+     * The freeze time left when the game was restored from a snapshot (the player starts frozen).
+     */
+    private long resumeFreezeMillis;
+
+    /**
+     * The engine metrics of the players of all the games (see Metrics).
+     */
+    private static final Metrics.Counter CLAIMS = Metrics.DEFAULT.counter("set_claims_total",
+            "The sets the players claimed.");
+    private static final Metrics.Distribution CLAIM_QUEUE_DEPTH = Metrics.DEFAULT.distribution("set_claim_queue_depth",
+            "The claims waiting for the dealer of the game when a player makes a claim.", Metrics.COUNT);
+    private static final Metrics.Counter PENALTIES = Metrics.DEFAULT.counter("set_penalties_total",
+            "The penalties of the players.");
+    private static final Metrics.Counter FREEZES = Metrics.DEFAULT.counter("set_freezes_total",
+            "The times players were frozen (after a point or a penalty).");
+
     /**
      * The dealer of the game.
      */
@@ -80,13 +138,21 @@ public class Player implements Runnable {
      *               manually, via the keyboard).
      */
     public Player(Env env, Dealer dealer, Table table, int id, boolean human) {
+        this(env, dealer, table, id, human, Strategy.RANDOM);
+    }
+
+    /**
+     * @param strategy - how the AI chooses its key presses (ignored for a human player).
+     */
+    public Player(Env env, Dealer dealer, Table table, int id, boolean human, Strategy strategy) {
         this.env = env;
         this.table = table;
         this.id = id;
         this.human = human;
-        this.actionsQueue = new LinkedBlockingDeque<Integer>(env.config.featureSize);
-        this.myTokens = new LinkedBlockingDeque<Integer>(env.config.featureSize);
+        this.actionsQueue = new ActionRingBuffer(env.config.tableSize, env.config.tableSize);
+        this.myTokens = new PlayerTokens();
         this.dealer = dealer;
+        this.strategy = strategy;
     }
 
     /**
@@ -100,103 +166,89 @@ public class Player implements Runnable {
                 Thread.currentThread().getName());
         if (!human)
             createArtificialIntelligence();
+        if (resumeFreezeMillis > 0) {
+            freezeTime(resumeFreezeMillis);
+            isFreezed = false;
+        }
         while (!terminate) {
             try {
-                int slot = -1;
-                if (!human && isWaitingAI) {
-                    synchronized (this) {
-                        slot = actionsQueue.take();
-                        if (!dealer.getOktoPutTokens()) {
-                            actionsQueue.clear();
-                            this.isWaitingAI = false;
-                            slot = -1;
-                        }
-                        if (slot != -1) {
-                            if (myTokens.contains(slot)) { // If my token exsits in this slot - Remove it
-                                playerRemovingToken(slot);
-                                this.isWaitingAI = false;
-                            } else { // If my token does not exsit in this slot - Add it
-                                if (myTokens.size() < env.config.featureSize) {
-                                    boolean ans = playerPlacingToken(slot);
-                                    this.isWaitingAI = false;
-                                    if (ans) {
-                                        if (myTokens.size() == env.config.featureSize) {
-                                            isValidSet = false;
-                                            inCheck = true;
-                                            table.PlayersToCheck.put(id);
-                                            try {
-                                                synchronized (dealer.getLock()) {
-                                                    synchronized (dealer) {
-                                                        dealer.notify();
-                                                    }
-                                                    while (inCheck) {
-                                                       
-                                                        dealer.getLock().wait();
-                                                    }
-                                                }
-                                            } catch (InterruptedException e) {
-                                            }
-                                            if (isValidSet) {
-                                                this.point();
-                                            } else {
-                                                this.penalty();
-                                            }
-                                        }
-                                    }
-                                } 
-                            } 
-                        } 
-                        this.notify();
-                    }
-                } else if (human) {
-                    slot = actionsQueue.take(); // Taking action from queue of Incoming Actions
-                    if (myTokens.contains(slot)) { // If my token exsits in this slot - Remove it
-                        playerRemovingToken(slot);
-                    } else { // If my token does not exsit in this slot - Add it
-                        if (myTokens.size() < env.config.featureSize) {
-                            boolean ans = playerPlacingToken(slot);
-                            if (ans) {
-                                if (myTokens.size() == env.config.featureSize) {
-                                    isValidSet = false;
-                                    inCheck = true;
-                                    table.PlayersToCheck.put(id);
-                                    try {
-                                        synchronized (dealer.getLock()) {
-                                            synchronized (dealer) {
-                                                dealer.notify();
-                                            }
-                                            while (inCheck) {
-                                                dealer.getLock().wait();
-                                            }
-                                        }
-                                    } catch (InterruptedException e) {
-                                    }
-                                    if (isValidSet) {
-                                        this.point();
-                                    } else {
-                                        this.penalty();
-                                    }
-                                }
-                            }
-                        }
-                    }
+                int slot = actionsQueue.take(); // Taking action from queue of Incoming Actions
+                if (human || dealer.getOktoPutTokens()) {
+                    handleAction(slot);
+                } else {
+                    actionsQueue.clear();
                 }
+                if (!human)
+                    aiActionDone();
             } catch (InterruptedException e) {
             }
         }
-        if (!human)
-            try {
-                aiThread.join();
-            } catch (InterruptedException ignored) {
-            }
+        if (!human) {
+            Thread ai = aiThread;
+            if (ai != null)
+                ai.interrupt();
+            GameExecutor.join(aiTask);
+        }
         System.out.printf("Info: Thread %s terminated.%n",
                 Thread.currentThread().getName());
     }
+
+    /**
+     * Places or removes a token according to a key press, and sends the set to the
+     * dealer when the player placed all of its tokens.
+     * @param slot - the slot of the key pressed.
+     */
+    private void handleAction(int slot) {
+        if (myTokens.contains(slot)) { // If my token exsits in this slot - Remove it
+            playerRemovingToken(slot);
+        } else if (myTokens.size() < env.config.featureSize) { // If my token does not exsit in this slot - Add it
+            boolean ans = playerPlacingToken(slot);
+            if (ans && myTokens.size() == env.config.featureSize) {
+                Claim claim = new Claim(id);
+                Claim.Verdict verdict;
+                inCheck = true;
+                this.claim = claim;
+                try {
+                    table.submitClaim(claim, myTokens.snapshot());
+                    CLAIMS.increment();
+                    CLAIM_QUEUE_DEPTH.record(table.PlayersToCheck.size());
+                    dealer.notifyClaim();
+                    verdict = claim.await();
+                } catch (InterruptedException e) {
+                    table.cancelClaims(id);
+                    this.claim = null;
+                    return;
+                } finally {
+                    inCheck = false;
+                }
+                if (verdict == Claim.Verdict.VALID) {
+                    this.point();
+                } else if (verdict == Claim.Verdict.INVALID) {
+                    this.penalty();
+                } else {
+                    this.claim = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lets the AI thread generate its next key press.
+     */
+    private void aiActionDone() {
+        aiLock.lock();
+        try {
+            isWaitingAI = false;
+            aiTurn.signal();
+        } finally {
+            aiLock.unlock();
+        }
+    }
     /**
      * this method is used only for testing.  
-     * @return - actions blocking queue.
+     * @return - actions queue.
      */
-    public BlockingQueue getMyActions()
+    public ActionRingBuffer getMyActions()
     {
         return this.actionsQueue;
     }
@@ -225,12 +277,15 @@ public class Player implements Runnable {
     private boolean playerPlacingToken(int slot) {
         boolean ans = false;
         if (table.slotToCard[slot] != null && dealer.getOktoPutTokens()) {
-            ans = table.placeToken(id, slot);
+            Lock shared = dealer.sharedState();
+            shared.lock();
             try {
+                ans = table.placeToken(id, slot);
                 if (ans) {
-                    myTokens.put(slot);
+                    myTokens.add(slot, env.config.featureSize);
                 }
-            } catch (InterruptedException e) {
+            } finally {
+                shared.unlock();
             }
         }
         return ans;
@@ -241,9 +296,15 @@ public class Player implements Runnable {
      * @pre - if able to remove token from table,myTokens is updated 
      */
     private void playerRemovingToken(int slot) {
-        boolean ans = table.removeToken(id, slot);
-        if (ans) {
-            myTokens.remove(slot);
+        Lock shared = dealer.sharedState();
+        shared.lock();
+        try {
+            boolean ans = table.removeToken(id, slot);
+            if (ans) {
+                myTokens.remove(slot);
+            }
+        } finally {
+            shared.unlock();
         }
     }
 
@@ -255,24 +316,30 @@ public class Player implements Runnable {
      */
     private void createArtificialIntelligence() {
         // note: this is a very very smart AI (!)
-        aiThread = new Thread(() -> {
+        aiTask = env.executor.start(() -> {
+            aiThread = Thread.currentThread();
             System.out.printf("Info: Thread %s starting.%n", Thread.currentThread().getName());
-            Random rnd = new Random();
+            SplittableRandom rnd = env.random.player(id);
             while (!terminate) { // Key press simulator
-                int slot = rnd.nextInt(table.slotToCard.length) + 0;
-                if (keyPressed(slot)) {
-                    try {
-                        synchronized (this) {
-                            isWaitingAI = true;
-                            this.wait();
-                        }
-                    } catch (InterruptedException ignored) {
+                int slot = strategy.nextSlot(env, table, myTokens, rnd);
+                aiLock.lock();
+                try {
+                    if (slot >= 0 && keyPressed(slot)) {
+                        isWaitingAI = true;
+                        while (isWaitingAI && !terminate)
+                            aiTurn.await();
+                    } else {
+                        // the key press was rejected (or there is nothing to press), back off instead of spinning (frees a
+                        // virtual thread's carrier)
+                        env.clock.await(aiLock, aiTurn, AI_BACKOFF_MILLIS);
                     }
+                } catch (InterruptedException ignored) {
+                } finally {
+                    aiLock.unlock();
                 }
             }
             System.out.printf("Info: Thread %s terminated.%n", Thread.currentThread().getName());
         }, "computer-" + id);
-        aiThread.start();
     }
 
     public boolean getInCheck() {
@@ -283,7 +350,7 @@ public class Player implements Runnable {
         this.inCheck = a;
     }
 
-    public BlockingQueue<Integer> getMyTokens() {
+    public PlayerTokens getMyTokens() {
         return myTokens;
     }
 
@@ -292,11 +359,16 @@ public class Player implements Runnable {
      */
     public void terminate() {
         this.terminate = true;
-        playerThread.interrupt();
-        try {
-            playerThread.join();
-        } catch (InterruptedException ignored) {
-        }
+        Thread thread = playerThread;
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    /**
+     * @return - the number of key presses dropped because the actions queue was full.
+     */
+    public long droppedKeyPresses() {
+        return actionsQueue.dropped();
     }
 
     /**
@@ -308,13 +380,9 @@ public class Player implements Runnable {
     public boolean keyPressed(int slot) {
         boolean ans = false;
         if (dealer.getOktoPutTokens()) {
-            try {
-                if (table.slotToCard[slot] != null && !inCheck && !isFreezed
-                        && (myTokens.size() < env.config.featureSize || myTokens.contains(slot))) {
-                    actionsQueue.put(slot);
-                    ans = true;
-                }
-            } catch (InterruptedException e) {
+            if (table.slotToCard[slot] != null && !inCheck && !isFreezed
+                    && (myTokens.size() < env.config.featureSize || myTokens.contains(slot))) {
+                ans = actionsQueue.offer(slot); // never blocks (this may run on the ui thread)
             }
         } else {
             actionsQueue.clear();
@@ -329,7 +397,8 @@ public class Player implements Runnable {
      * @post - the player's score is updated in the ui.
      */
     public void point() {
-        this.score++;
+        applyVerdict(env.config.pointFreezeMillis, 1);
+        env.journal.score(id, score);
         env.ui.setScore(id, score);
         freezeTime(env.config.pointFreezeMillis);
         isFreezed = false;
@@ -343,19 +412,45 @@ public class Player implements Runnable {
     
     private void freezeTime(long freezeTime) {
         isFreezed = true;
-        long time = System.currentTimeMillis();
-        while (freezeTime > 0) {
-            long passed = System.currentTimeMillis() - time;
-            freezeTime = freezeTime - passed;
-            if (freezeTime < 0)
-                freezeTime = 0;
-            env.ui.setFreeze(id, freezeTime);
-            time = System.currentTimeMillis();
+        if (freezeTime <= 0)
+            return;
+        env.journal.freeze(id, freezeTime);
+        FREEZES.increment();
+        long deadline = env.clock.currentTimeMillis() + freezeTime;
+        freezeDeadline = deadline;
+        CompletableFuture<Void> thawed = new CompletableFuture<>();
+        env.ui.setFreeze(id, freezeTime);
+        env.clock.schedule(() -> updateFreeze(deadline, thawed), nextFreezeUpdate(freezeTime));
+        while (!thawed.isDone() && !terminate) {
             try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
+                thawed.get(); // parked until the clock's timer thaws the player
+            } catch (InterruptedException | ExecutionException e) {
             }
         }
+        freezeDeadline = 0;
+    }
+
+    /**
+     * Runs on the clock's timer: shows the remaining freeze time, and thaws the player at the deadline.
+     * @param deadline - the time the freeze ends.
+     * @param thawed - completed when the freeze ends.
+     */
+    private void updateFreeze(long deadline, CompletableFuture<Void> thawed) {
+        long remaining = Math.max(deadline - env.clock.currentTimeMillis(), 0);
+        env.ui.setFreeze(id, remaining);
+        if (remaining == 0 || terminate) {
+            thawed.complete(null);
+        } else {
+            env.clock.schedule(() -> updateFreeze(deadline, thawed), nextFreezeUpdate(remaining));
+        }
+    }
+
+    /**
+     * @param remaining - the remaining freeze time.
+     * @return - the delay until the displayed (whole) seconds of the remaining freeze time change.
+     */
+    private static long nextFreezeUpdate(long remaining) {
+        return Math.min((remaining - 1) % 1000 + 1, remaining);
     }
     /**
      * Penalize a player (freeze) and update the field isFreezed.
@@ -363,6 +458,9 @@ public class Player implements Runnable {
      */
 
     public void penalty() {
+        ++penalties;
+        PENALTIES.increment();
+        applyVerdict(env.config.penaltyFreezeMillis, 0);
         freezeTime(env.config.penaltyFreezeMillis);
         isFreezed = false;
     }
@@ -372,17 +470,63 @@ public class Player implements Runnable {
     public int score() {
         return score;
     }
+
+    /**
+     * @return: the number of penalties of the player
+     */
+    public int penalties() {
+        return penalties;
+    }
+
+    /**
+     * Applies the verdict of the player's claim, atomically for a checkpoint (see Dealer.checkpoint): the claim is done,
+     * the score goes up by the points and the freeze starts.
+     * @param freezeMillis - the freeze time of the verdict.
+     * @param points - the points of the verdict.
+     */
+    private void applyVerdict(long freezeMillis, int points) {
+        Lock shared = dealer.sharedState();
+        shared.lock();
+        try {
+            score += points;
+            claim = null;
+            if (freezeMillis > 0)
+                freezeDeadline = env.clock.currentTimeMillis() + freezeMillis;
+        } finally {
+            shared.unlock();
+        }
+    }
+
+    /**
+     * @return - the claim the player waits for, or whose verdict it did not apply yet (null if none).
+     */
+    Claim claim() {
+        return claim;
+    }
+
+    /**
+     * @return - the time the player's freeze ends (0 if it is not frozen).
+     */
+    long freezeDeadline() {
+        return freezeDeadline;
+    }
+
     /**
-     * @return: the field IsValidSet
+     * Sets the freeze time left of a player of a game restored from a snapshot, before the game starts.
+     * @param millis - the freeze time left (0 for none).
      */
-    public boolean getIsValidSet() {
-        return this.isValidSet;
+    void restoreFreeze(long millis) {
+        this.resumeFreezeMillis = millis;
+        // a checkpoint before the player thread starts its freeze keeps it
+        this.freezeDeadline = millis > 0 ? env.clock.currentTimeMillis() + millis : 0;
     }
+
     /**
-     * set the field IsValidSet
-     * @param input: boolean value of validation of the set
+     * Sets the score of a player of a game restored from a snapshot, before the game starts.
+     * @param score - the score the player had.
      */
-    public void setIsValidSet(boolean input) {
-        this.isValidSet = input;
+    void restoreScore(int score) {
+        this.score = score;
+        env.ui.setScore(id, score);
     }
 }
@@ -0,0 +1,85 @@
+package bguspl.set.ex;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The slots a player placed its tokens on, kept as a bitmask (bit i is set iff the player has a token on slot i).
+ * The whole selection can be read atomically with a single read, without copying, boxing or locking.
+ *
+ * @inv 0 <= size() <= 64
+ */
+public class PlayerTokens {
+
+    /**
+     * The maximal number of slots supported.
+     */
+    public static final int MAX_SLOTS = Long.SIZE;
+
+    private final AtomicLong mask = new AtomicLong();
+
+    /**
+     * Adds a token, unless the slot already has one or the player has no tokens left.
+     *
+     * @param slot  - the slot of the token.
+     * @param limit - the maximal number of tokens of the player.
+     * @return - true iff the token was added.
+     */
+    public boolean add(int slot, int limit) {
+        long bit = 1L << slot;
+        long current;
+        do {
+            current = mask.get();
+            if ((current & bit) != 0 || Long.bitCount(current) >= limit)
+                return false;
+        } while (!mask.compareAndSet(current, current | bit));
+        return true;
+    }
+
+    /**
+     * Removes a token.
+     *
+     * @param slot - the slot of the token.
+     * @return - true iff there was a token on the slot.
+     */
+    public boolean remove(int slot) {
+        long bit = 1L << slot;
+        return (mask.getAndUpdate(current -> current & ~bit) & bit) != 0;
+    }
+
+    public boolean contains(int slot) {
+        return (mask.get() & (1L << slot)) != 0;
+    }
+
+    public int size() {
+        return Long.bitCount(mask.get());
+    }
+
+    public boolean isEmpty() {
+        return mask.get() == 0;
+    }
+
+    public void clear() {
+        mask.set(0);
+    }
+
+    /**
+     * @return - the current selection (bit i is set iff there is a token on slot i).
+     */
+    public long snapshot() {
+        return mask.get();
+    }
+
+    /**
+     * Writes the slots of a selection to an array, in increasing order.
+     *
+     * @param snapshot - a selection returned by snapshot().
+     * @param slots    - the array to fill (must be at least as long as the number of tokens in the selection).
+     * @return - the number of slots written.
+     */
+    public static int toSlots(long snapshot, int[] slots) {
+        int count = 0;
+        for (long rest = snapshot; rest != 0; rest &= rest - 1)
+            slots[count++] = Long.numberOfTrailingZeros(rest);
+        return count;
+    }
+}
@@ -0,0 +1,70 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * How a computer player chooses its key presses. A strategy is called on the player's AI thread only, but the table
+ * and the tokens change under it, so it must cope with a slot that was emptied after it looked.
+ */
+public interface Strategy {
+
+    /**
+     * @param env    - the game environment.
+     * @param table  - the table.
+     * @param tokens - the tokens of the player.
+     * @param random - the random stream of the player.
+     * @return - the slot of the next key press, or -1 to wait a moment (e.g. there is nothing worth pressing).
+     */
+    int nextSlot(Env env, Table table, PlayerTokens tokens, SplittableRandom random);
+
+    /**
+     * Presses random slots.
+     */
+    Strategy RANDOM = (env, table, tokens, random) -> random.nextInt(table.slotToCard.length);
+
+    /**
+     * Finds the set on the table that shares the most cards with the player's tokens, removes the tokens that are not
+     * on it and then places the missing ones. When there is no set on the table it removes its tokens and waits for the
+     * dealer to reshuffle (pressing keys would only keep the player's thread and the AI thread busy).
+     */
+    Strategy FINDER = (env, table, tokens, random) -> {
+        List<Integer> cards = new ArrayList<>(table.slotToCard.length);
+        for (Integer card : table.slotToCard)
+            if (card != null) cards.add(card);
+        long selection = tokens.snapshot();
+        long best = 0;
+        int bestShared = -1;
+        for (int[] set : env.util.findSets(cards, Integer.MAX_VALUE)) {
+            long slots = 0;
+            for (int card : set) {
+                Integer slot = table.cardToSlot[card];
+                if (slot != null) slots |= 1L << slot;
+            }
+            int shared = Long.bitCount(slots & selection);
+            if (shared > bestShared) {
+                best = slots;
+                bestShared = shared;
+            }
+        }
+        long next = (selection & ~best) != 0 ? selection & ~best : best & ~selection;
+        if (next == 0) // no set, or the set is already selected (and waits for the dealer)
+            return -1;
+        return Long.numberOfTrailingZeros(next);
+    };
+
+    /**
+     * @param name - the name of a strategy (case insensitive).
+     * @return - the strategy, or null if there is no strategy with that name.
+     */
+    static Strategy forName(String name) {
+        return switch (name.trim().toLowerCase()) {
+            case "random" -> RANDOM;
+            case "finder" -> FINDER;
+            default -> null;
+        };
+    }
+}
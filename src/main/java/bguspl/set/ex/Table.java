@@ -1,11 +1,13 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.Metrics;
 
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.*;;
 
 /**
@@ -29,9 +31,24 @@ public class Table {
      * Mapping between a card and the slot it is in (null if none).
      */
     protected final Integer[] cardToSlot; // slot per card (if any)
-    protected BlockingQueue<Integer> PlayersToCheck;
+    protected BlockingQueue<Claim> PlayersToCheck;
     protected final BlockingQueue<Integer>[] TokensInSlot;
 
+    /**
+     * Keeps the claims in the journal in the order of the queue.
+     */
+    private final ReentrantLock submitLock = new ReentrantLock();
+
+    /**
+     * The engine metrics of the tables of all the games (see Metrics).
+     */
+    private static final Metrics.Counter CARDS_PLACED = Metrics.DEFAULT.counter("set_cards_placed_total",
+            "The cards placed on the tables.");
+    private static final Metrics.Counter TOKENS_PLACED = Metrics.DEFAULT.counter("set_tokens_placed_total",
+            "The tokens the players placed.");
+    private static final Metrics.Counter TOKENS_REMOVED = Metrics.DEFAULT.counter("set_tokens_removed_total",
+            "The tokens the players removed.");
+
     /**
      * Constructor for testing.
      *
@@ -46,7 +63,7 @@ public class Table {
         this.env = env;
         this.slotToCard = slotToCard;
         this.cardToSlot = cardToSlot;
-        PlayersToCheck = new LinkedBlockingDeque<Integer>();
+        PlayersToCheck = new LinkedBlockingDeque<Claim>();
         TokensInSlot = new BlockingQueue[slotToCard.length];
         for (int i = 0; i < TokensInSlot.length; i++) {
             TokensInSlot[i] = new LinkedBlockingDeque<Integer>();
@@ -77,6 +94,14 @@ public class Table {
                     sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)));
         });
     }
+    /**
+     * @param slot - a grid slot.
+     * @return - the card in the slot (null if none).
+     */
+    public Integer getCard(int slot) {
+        return slotToCard[slot];
+    }
+
     /**
      * This method returns the blocking queue which hold the tokens in each slot
      * @return - blocking queue which hold the tokens in each slot.
@@ -84,14 +109,60 @@ public class Table {
     public BlockingQueue<Integer>[] getTokensInSlot() {
         return TokensInSlot;
     }
+
+    /**
+     * @param slot - a grid slot.
+     * @return - the players with a token on the slot (bit i is set iff player i has a token there).
+     */
+    public long getTokens(int slot) {
+        long tokens = 0;
+        for (Integer player : TokensInSlot[slot])
+            tokens |= 1L << player;
+        return tokens;
+    }
     /**
      * This method returns the blocking queue that hold the players asked for dealer's check
      * @return - the blocking queue which hold players sent set to check.
      */
-    public BlockingQueue<Integer> getPlayersToCheck() {
+    public BlockingQueue<Claim> getPlayersToCheck() {
         return this.PlayersToCheck;
     }
 
+    /**
+     * Queues a claim for the dealer's check (and records it in the journal).
+     * @param claim - the claim.
+     * @param slots - the slots of the claimed set (bit i is set iff slot i is in it).
+     */
+    public void submitClaim(Claim claim, long slots) {
+        submitLock.lock();
+        try {
+            env.journal.claimSubmitted(claim.player, slots);
+            PlayersToCheck.add(claim);
+        } finally {
+            submitLock.unlock();
+        }
+    }
+
+    /**
+     * Withdraws the claims of a player that were not checked yet (waking the player up).
+     * @param player - the player whose claims are withdrawn.
+     */
+    public void cancelClaims(int player) {
+        PlayersToCheck.removeIf(claim -> claim.player == player && cancel(claim));
+    }
+
+    /**
+     * Resolves a claim as cancelled (and records it in the journal).
+     * @param claim - the claim to cancel.
+     * @return - true iff the claim was not resolved before.
+     */
+    boolean cancel(Claim claim) {
+        if (!claim.resolve(Claim.Verdict.CANCELLED))
+            return false;
+        env.journal.claimResolved(claim.player, Claim.Verdict.CANCELLED.ordinal());
+        return true;
+    }
+
     /**
      * Count the number of cards currently on the table.
      *
@@ -115,12 +186,14 @@ public class Table {
      */
     public void placeCard(int card, int slot) {
         try {
-            Thread.sleep(env.config.tableDelayMillis);
+            env.clock.sleep(env.config.tableDelayMillis);
         } catch (InterruptedException ignored) {
         }
 
         cardToSlot[card] = slot;
         slotToCard[slot] = card;
+        env.journal.cardPlaced(card, slot);
+        CARDS_PLACED.increment();
         env.ui.placeCard(card, slot);
     }
 
@@ -131,9 +204,11 @@ public class Table {
      */
     public void removeCard(int slot) {
         try {
-            Thread.sleep(env.config.tableDelayMillis);
+            env.clock.sleep(env.config.tableDelayMillis);
         } catch (InterruptedException ignored) {
         }
+        if (slotToCard[slot] != null)
+            env.journal.cardRemoved(slot);
         env.ui.removeCard(slot);
         slotToCard[slot] = null; // Updating there is not any card there
     }
@@ -148,6 +223,8 @@ public class Table {
         try {
             if (slotToCard[slot] != null) {
                 TokensInSlot[slot].put(player);
+                env.journal.tokenPlaced(player, slot);
+                TOKENS_PLACED.increment();
                 env.ui.placeToken(player, slot);
                 return true;
             }
@@ -165,11 +242,11 @@ public class Table {
      */
     public boolean removeToken(int player, int slot) {
         if (slotToCard[slot] != null) {
+            env.journal.tokenRemoved(player, slot);
+            TOKENS_REMOVED.increment();
             env.ui.removeToken(player, slot);
             TokensInSlot[slot].remove(player);
-            if (PlayersToCheck.contains(player)) {
-                PlayersToCheck.remove(player);
-            }
+            cancelClaims(player);
             return true;
         }
         return false;
@@ -0,0 +1,100 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class ClusterTest {
+
+    ClusterCoordinator coordinator;
+    ClusterCoordinator.Worker first;
+    ClusterCoordinator.Worker second;
+    @Mock
+    UserInterface ui;
+
+    @BeforeEach
+    void setUp(@TempDir Path directory) throws Exception {
+        Properties properties = Simulation.configure(new Properties(), 1);
+        properties.setProperty("ThreadModel", "virtual");
+        properties.setProperty("TurnTimeoutSeconds", "60");
+        File configFile = directory.resolve("worker.properties").toFile();
+        try (FileOutputStream out = new FileOutputStream(configFile)) {
+            properties.store(out, null);
+        }
+        Logger logger = Logger.getLogger("ClusterTest");
+        logger.setUseParentHandlers(false);
+        coordinator = new ClusterCoordinator(logger, new Config(logger, properties));
+        first = coordinator.launch(configFile.getPath());
+        second = coordinator.launch(configFile.getPath());
+    }
+
+    @AfterEach
+    void tearDown() {
+        coordinator.close();
+    }
+
+    /**
+     * play a game with a human player on a worker, and drain the worker.
+     * @pre - two workers
+     * @post - the game moves to the other worker with its scores, and the presses of the player reach it there
+     */
+    @Test
+    void drain_MovesGamesToOtherWorkers() throws Exception {
+        long game = coordinator.open(1, 1, ui);
+        assertNotEquals(-1, game);
+        ClusterCoordinator.Worker worker = coordinator.route(game);
+        verify(ui, timeout(5000)).placeCard(anyInt(), eq(0));
+        pressUntilPlaced(game, 1);
+
+        assertEquals(1, coordinator.drain(worker));
+
+        ClusterCoordinator.Worker other = worker == first ? second : first;
+        assertSame(other, coordinator.route(game));
+        assertEquals(0, worker.games());
+        assertEquals(1, other.games());
+        verify(ui, timeout(5000)).setScore(0, 0);
+        pressUntilPlaced(game, 2);
+
+        // a drained worker takes no new games
+        long next = coordinator.open(0, 2, ui);
+        assertSame(other, coordinator.route(next));
+        assertTrue(coordinator.presses() >= 2);
+    }
+
+    /**
+     * Presses slot 0 until the player's token shows up (the dealer takes no presses while it deals).
+     */
+    private void pressUntilPlaced(long game, int times) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            coordinator.press(game, 0, 0);
+            try {
+                verify(ui, timeout(300).times(times)).placeToken(0, 0);
+                return;
+            } catch (AssertionError e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameHostTest {
+
+    GameHost host;
+
+    @BeforeEach
+    void setUp() {
+        Properties properties = Simulation.configure(new Properties(), 2);
+        properties.setProperty("ComputerStrategies", "finder,finder");
+        properties.setProperty("ThreadModel", "virtual");
+        properties.setProperty("HostCapacity", "2");
+        Logger logger = Logger.getLogger("GameHostTest");
+        logger.setUseParentHandlers(false);
+        host = new GameHost(logger, new Config(logger, properties));
+    }
+
+    @AfterEach
+    void tearDown() {
+        host.shutdown();
+    }
+
+    /**
+     * open games until the host is full, and play them to the end.
+     * @pre - the host has room for two games
+     * @post - the third game is rejected, and the two games end and release their room
+     */
+    @Test
+    void open_AdmitsUpToCapacity() throws Exception {
+        GameHost.HostedGame first = host.open(new UserInterfaceCounter());
+        GameHost.HostedGame second = host.open(new UserInterfaceCounter());
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(host.open(new UserInterfaceCounter()));
+        assertEquals(1, host.rejected());
+
+        first.done().get(30, TimeUnit.SECONDS);
+        second.done().get(30, TimeUnit.SECONDS);
+
+        assertEquals(2, host.completed());
+        assertEquals(0, host.active());
+        assertEquals(0.0, host.load());
+        assertTrue(first.usage().claims() > 0);
+        assertEquals(5, first.usage().tasks());
+    }
+
+    @Test
+    void shutdown_TerminatesRunningGames() throws Exception {
+        GameHost.HostedGame game = host.open(new UserInterfaceCounter());
+        assertNotNull(game);
+
+        host.shutdown();
+
+        assertTrue(game.done().isDone());
+        assertNull(host.open(new UserInterfaceCounter()));
+    }
+}
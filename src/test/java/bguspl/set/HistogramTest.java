@@ -0,0 +1,45 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistogramTest {
+
+    /**
+     * count the values 1 to 10000.
+     * @pre - the histogram is empty
+     * @post - the percentiles are within the precision of the histogram
+     */
+    @Test
+    void percentile_WithinPrecision() {
+        Histogram histogram = new Histogram();
+        for (int value = 1; value <= 10000; value++)
+            histogram.record(value);
+
+        assertEquals(10000, histogram.count());
+        assertEquals(10000, histogram.max());
+        assertEquals(5000.5, histogram.mean(), 1e-9);
+        for (double percentile : new double[]{50, 90, 99}) {
+            long expected = (long) (percentile * 100);
+            long actual = histogram.percentile(percentile);
+            assertTrue(actual >= expected && actual <= expected * 33 / 32, percentile + ": " + actual);
+        }
+        assertEquals(10000, histogram.percentile(100));
+    }
+
+    @Test
+    void add_MergesCounts() {
+        Histogram first = new Histogram();
+        Histogram second = new Histogram();
+        first.record(3);
+        second.record(1L << 40);
+
+        first.add(second);
+
+        assertEquals(2, first.count());
+        assertEquals(3, first.percentile(50));
+        assertEquals(1L << 40, first.percentile(100));
+    }
+}
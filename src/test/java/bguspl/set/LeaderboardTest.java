@@ -0,0 +1,150 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class LeaderboardTest {
+
+    /**
+     * record many games and reopen the leaderboard.
+     * @pre - an empty leaderboard file, mapped in small regions
+     * @post - the top and the rank of each player match the totals of its games, before and after the reopen
+     */
+    @Test
+    void record_RanksPlayersAcrossReopen(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("leaderboard.log");
+        Map<String, long[]> totals = new HashMap<>(); // sets, wins, penalties
+        SplittableRandom random = new SplittableRandom(7);
+        try (Leaderboard leaderboard = new Leaderboard(file, 256)) {
+            for (int game = 0; game < 300; game++) {
+                String[] names = new String[2 + random.nextInt(3)];
+                int[] sets = new int[names.length];
+                int[] penalties = new int[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = "player" + random.nextInt(40);
+                    sets[i] = random.nextInt(10);
+                    penalties[i] = random.nextInt(3);
+                }
+                for (int i = 1; i < names.length; i++) // the names of a game's players are unique
+                    names[i] = names[i].equals(names[0]) ? names[i] + "x" : names[i];
+                int winner = random.nextInt(names.length);
+                leaderboard.record(game, names, sets, penalties, new int[names.length], new long[names.length],
+                        new int[]{winner});
+                for (int i = 0; i < names.length; i++) {
+                    long[] total = totals.computeIfAbsent(names[i], name -> new long[3]);
+                    total[0] += sets[i];
+                    total[1] += i == winner ? 1 : 0;
+                    total[2] += penalties[i];
+                }
+            }
+            assertRanking(leaderboard, totals);
+        }
+        try (Leaderboard leaderboard = new Leaderboard(file, 256)) {
+            assertEquals(300, leaderboard.games());
+            assertRanking(leaderboard, totals);
+        }
+    }
+
+    /**
+     * reopen a leaderboard whose last game was not fully written.
+     * @pre - a leaderboard file of one game, followed by an unfinished record
+     * @post - the unfinished record is ignored, and the next game is recorded over it
+     */
+    @Test
+    void open_IgnoresUnfinishedGame(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("leaderboard.log");
+        try (Leaderboard leaderboard = new Leaderboard(file, 256)) {
+            leaderboard.record(1, new String[]{"a", "b"}, new int[]{2, 1}, new int[2], new int[]{3, 1},
+                    new long[]{3000, 500}, new int[]{0});
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(40).put(0, (byte) 0).putInt(1, 35));
+        }
+        try (Leaderboard leaderboard = new Leaderboard(file, 256)) {
+            assertEquals(1, leaderboard.games());
+            leaderboard.record(2, new String[]{"b"}, new int[]{4}, new int[1], new int[]{4}, new long[]{1500},
+                    new int[]{0});
+        }
+        try (Leaderboard leaderboard = new Leaderboard(file, 256)) {
+            assertEquals(2, leaderboard.games());
+            assertEquals(1, leaderboard.rank("b"));
+            assertEquals(2, leaderboard.rank("a"));
+            assertEquals(0, leaderboard.rank("c"));
+            Leaderboard.Standing b = leaderboard.standing("b");
+            assertEquals(5, b.sets);
+            assertEquals(2, b.games);
+            assertEquals(400.0, b.meanClaimLatencyNanos());
+        }
+    }
+
+    /**
+     * play games on a host with a leaderboard.
+     * @pre - a host whose configuration has a leaderboard file
+     * @post - the sets, penalties and claims of each player of the games are on the leaderboard
+     */
+    @Test
+    void host_RecordsEndedGames(@TempDir Path directory) throws Exception {
+        Properties properties = Simulation.configure(new Properties(), 2);
+        properties.setProperty("ComputerStrategies", "finder,random");
+        properties.setProperty("ThreadModel", "virtual");
+        properties.setProperty("LeaderboardFile", directory.resolve("leaderboard.log").toString());
+        Logger logger = Logger.getLogger("LeaderboardTest");
+        logger.setUseParentHandlers(false);
+        GameHost host = new GameHost(logger, new Config(logger, properties));
+        try {
+            GameHost.HostedGame first = host.open(new UserInterfaceCounter());
+            GameHost.HostedGame second = host.open(new UserInterfaceCounter());
+            assertNotNull(first);
+            assertNotNull(second);
+            first.done().get(30, TimeUnit.SECONDS);
+            second.done().get(30, TimeUnit.SECONDS);
+
+            Leaderboard leaderboard = host.leaderboard();
+            assertEquals(2, leaderboard.games());
+            Leaderboard.Standing finder = leaderboard.standing("Player 1");
+            assertEquals(first.game.players[0].score() + second.game.players[0].score(), finder.sets);
+            assertEquals(first.game.players[1].penalties() + second.game.players[1].penalties(),
+                    leaderboard.standing("Player 2").penalties);
+            assertEquals(first.game.dealer.getVerificationLatency(0).count()
+                    + second.game.dealer.getVerificationLatency(0).count(), finder.claims);
+            assertEquals(1, leaderboard.rank("Player 1"));
+        } finally {
+            host.shutdown();
+        }
+    }
+
+    private static void assertRanking(Leaderboard leaderboard, Map<String, long[]> totals) {
+        List<String> expected = new ArrayList<>(totals.keySet());
+        expected.sort(Comparator.comparingLong((String name) -> -totals.get(name)[0])
+                .thenComparingLong(name -> -totals.get(name)[1])
+                .thenComparingLong(name -> totals.get(name)[2])
+                .thenComparing(name -> name));
+        assertEquals(expected.size(), leaderboard.players());
+        List<String> top = new ArrayList<>();
+        for (Leaderboard.Standing standing : leaderboard.top(10))
+            top.add(standing.name);
+        assertEquals(expected.subList(0, 10), top);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(i + 1, leaderboard.rank(expected.get(i)));
+            assertEquals(totals.get(expected.get(i))[0], leaderboard.standing(expected.get(i)).sets);
+        }
+    }
+}
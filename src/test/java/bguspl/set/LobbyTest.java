@@ -0,0 +1,83 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class LobbyTest {
+
+    GameHost host;
+    Lobby lobby;
+
+    @BeforeEach
+    void setUp() {
+        Properties properties = Simulation.configure(new Properties(), 4);
+        properties.setProperty("ThreadModel", "virtual");
+        properties.setProperty("HostCapacity", "4");
+        properties.setProperty("LobbyMaxWaitSeconds", "0.3");
+        properties.setProperty("LobbyWarmGames", "1");
+        Logger logger = Logger.getLogger("LobbyTest");
+        logger.setUseParentHandlers(false);
+        host = new GameHost(logger, new Config(logger, properties));
+        lobby = new Lobby(logger, host, properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        lobby.close();
+        host.shutdown();
+    }
+
+    /**
+     * join two humans and two bots of the same skill and latency.
+     * @pre - games of 4 players
+     * @post - they share one game, the humans get the human seats and the bots the computer seats
+     */
+    @Test
+    void join_FullBucketStartsAGame() throws Exception {
+        List<CompletableFuture<Lobby.Seat>> seats = new ArrayList<>();
+        seats.add(lobby.join(new Lobby.Ticket(true, 1500, 20)));
+        seats.add(lobby.join(new Lobby.Ticket(false, 1510, 30)));
+        seats.add(lobby.join(new Lobby.Ticket(true, 1520, 40)));
+        seats.add(lobby.join(new Lobby.Ticket(false, 1530, 10)));
+
+        Set<Integer> players = new HashSet<>();
+        GameHost.HostedGame game = seats.get(0).get(5, TimeUnit.SECONDS).game();
+        for (CompletableFuture<Lobby.Seat> seat : seats) {
+            assertSame(game, seat.get(5, TimeUnit.SECONDS).game());
+            players.add(seat.get().player());
+        }
+        assertEquals(Set.of(0, 1, 2, 3), players);
+        assertEquals(0, seats.get(0).get().player());
+        assertEquals(2, seats.get(1).get().player());
+        assertEquals(2, game.game.env.config.humanPlayers);
+        assertEquals(1, lobby.games());
+        assertEquals(0, lobby.bots());
+    }
+
+    @Test
+    void join_LongWaitFillsWithComputerPlayers() throws Exception {
+        CompletableFuture<Lobby.Seat> strong = lobby.join(new Lobby.Ticket(true, 2900, 20));
+        CompletableFuture<Lobby.Seat> weak = lobby.join(new Lobby.Ticket(true, 100, 20));
+
+        Lobby.Seat seat = strong.get(5, TimeUnit.SECONDS);
+        assertEquals(0, seat.player());
+        assertEquals(3, seat.game().game.env.config.computerPlayers);
+        assertFalse(seat.game() == weak.get(5, TimeUnit.SECONDS).game());
+        assertEquals(2, lobby.games());
+        assertEquals(6, lobby.bots());
+    }
+}
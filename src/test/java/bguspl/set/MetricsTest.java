@@ -0,0 +1,140 @@
+package bguspl.set;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+
+    /**
+     * update a counter and a distribution from many threads, and scrape them.
+     * @pre - new metrics
+     * @post - the scrape has every update, in the Prometheus text format
+     */
+    @Test
+    void scrape_HasAllUpdates() throws InterruptedException {
+        Metrics metrics = new Metrics();
+        Metrics.Counter counter = metrics.counter("test_events_total", "Test events.");
+        Metrics.Distribution latency = metrics.distribution("test_latency_seconds", "Test latency.",
+                Metrics.NANOSECONDS);
+        assertSame(counter, metrics.counter("test_events_total", "Test events."));
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 1; j <= 1000; j++) {
+                    counter.increment();
+                    latency.record(j * 1000L);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(4000, counter.getValue());
+        assertEquals(4000, latency.getCount());
+        String scrape = metrics.scrape();
+        assertTrue(scrape.contains("# TYPE test_events_total counter\ntest_events_total 4000\n"), scrape);
+        assertTrue(scrape.contains("# TYPE test_latency_seconds summary\n"), scrape);
+        assertTrue(scrape.contains("test_latency_seconds_count 4000\n"), scrape);
+        assertTrue(scrape.contains("test_latency_seconds_sum 2.002000000\n"), scrape);
+        double median = latency.getP50();
+        assertTrue(median > 0.00048 && median < 0.00052, Double.toString(median));
+    }
+
+    /**
+     * export metrics over JMX and HTTP.
+     * @pre - a counter, and a configuration with JMX on
+     * @post - the counter is an MBean (and so is a metric created after the export), the HTTP endpoint serves it, and
+     *         the MBeans are unregistered when the export is closed
+     */
+    @Test
+    void export_ServesMBeansAndScrapes() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.counter("test_exported_total", "Exported.").add(5);
+        Properties properties = new Properties();
+        properties.setProperty("MetricsJmx", "True");
+        Logger logger = Logger.getLogger("MetricsTest");
+        logger.setUseParentHandlers(false);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName exported = new ObjectName("bguspl.set:type=Metrics,name=test_exported_total");
+        ObjectName later = new ObjectName("bguspl.set:type=Metrics,name=test_later_seconds");
+
+        try (Metrics.Exposure exposure = metrics.export(logger, new Config(logger, properties))) {
+            assertEquals(0, exposure.port());
+            assertEquals(5L, server.getAttribute(exported, "Value"));
+            metrics.distribution("test_later_seconds", "Created later.", Metrics.NANOSECONDS).record(2000);
+            assertEquals(1L, server.getAttribute(later, "Count"));
+            assertEquals(2e-6, (double) server.getAttribute(later, "Max"), 1e-7);
+
+            HttpServer http = metrics.serve(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try {
+                URL url = new URL("http://localhost:" + http.getAddress().getPort() + "/metrics");
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                assertEquals(200, connection.getResponseCode());
+                try (InputStream in = connection.getInputStream()) {
+                    String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                    assertTrue(body.contains("test_exported_total 5\n"), body);
+                    assertTrue(body.contains("test_later_seconds_count 1\n"), body);
+                }
+            } finally {
+                http.stop(0);
+            }
+        }
+        assertFalse(server.isRegistered(exported));
+        assertFalse(server.isRegistered(later));
+    }
+
+    /**
+     * play a game on a host.
+     * @pre - computer players that find sets
+     * @post - the engine metrics count the game's claims, verifications, dealer loops, cards and user interface calls
+     */
+    @Test
+    void engine_UpdatesMetrics() throws Exception {
+        Metrics.Counter claims = Metrics.DEFAULT.counter("set_claims_total", "");
+        long claimsBefore = claims.getValue();
+        Metrics.Counter uiEvents = Metrics.DEFAULT.counter("set_ui_events_total", "");
+        long uiEventsBefore = uiEvents.getValue();
+        Properties properties = Simulation.configure(new Properties(), 2);
+        properties.setProperty("ComputerStrategies", "finder,finder");
+        properties.setProperty("ThreadModel", "virtual");
+        Logger logger = Logger.getLogger("MetricsTest");
+        logger.setUseParentHandlers(false);
+        GameHost host = new GameHost(logger, new Config(logger, properties));
+        try {
+            GameHost.HostedGame hosted = host.open(new UserInterfaceCounter());
+            assertNotNull(hosted);
+            hosted.done().get(30, TimeUnit.SECONDS);
+        } finally {
+            host.shutdown();
+        }
+
+        assertTrue(claims.getValue() > claimsBefore);
+        assertTrue(uiEvents.getValue() > uiEventsBefore);
+        String scrape = Metrics.DEFAULT.scrape();
+        for (String name : new String[]{"set_claim_latency_seconds_count", "set_verification_seconds_count",
+                "set_dealer_loop_seconds_count", "set_claim_queue_depth_count", "set_find_sets_seconds_count",
+                "set_cards_placed_total", "set_tokens_placed_total", "set_reshuffles_total"})
+            assertTrue(scrape.contains("\n" + name + " "), name);
+    }
+}
@@ -0,0 +1,126 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class NetworkServerTest {
+
+    NetworkServer server;
+    InetSocketAddress address;
+    @Mock
+    Player player0;
+    @Mock
+    Player player1;
+    @Mock
+    UserInterface clientUi;
+    @Mock
+    UserInterface spectatorUi;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("HumanPlayers", "1");
+        properties.setProperty("ComputerPlayers", "1");
+        Logger logger = Logger.getLogger("NetworkServerTest");
+        logger.setUseParentHandlers(false);
+        server = new NetworkServer(logger, new Config(logger, properties), new InetSocketAddress("127.0.0.1", 0), null,
+                new Player[]{player0, player1});
+        address = new InetSocketAddress("127.0.0.1", server.port());
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.dispose();
+    }
+
+    /**
+     * join a game that is already running.
+     * @pre - a card with a token of the computer player is on the table
+     * @post - the client gets the free seat and the state of the table, and then the next calls
+     */
+    @Test
+    void join_SeatAndSnapshot() throws Exception {
+        server.placeCard(17, 3);
+        server.placeToken(1, 3);
+        server.setScore(1, 2);
+
+        try (NetworkClient client = new NetworkClient(address, clientUi)) {
+            assertEquals(0, client.awaitSeat(5, TimeUnit.SECONDS));
+            assertEquals(2, client.players());
+            verify(clientUi, timeout(5000)).placeCard(17, 3);
+            verify(clientUi, timeout(5000)).placeToken(1, 3);
+            verify(clientUi, timeout(5000)).setScore(1, 2);
+
+            server.removeToken(1, 3);
+            server.announceWinner(new int[]{0, 1});
+            verify(clientUi, timeout(5000)).removeToken(1, 3);
+            verify(clientUi, timeout(5000)).announceWinner(new int[]{0, 1});
+        }
+    }
+
+    @Test
+    void press_ReachesTheSeatOnly() throws Exception {
+        try (NetworkClient client = new NetworkClient(address, clientUi);
+             NetworkClient spectator = new NetworkClient(address, spectatorUi)) {
+            assertEquals(0, client.awaitSeat(5, TimeUnit.SECONDS));
+            assertEquals(NetworkProtocol.NO_SEAT, spectator.awaitSeat(5, TimeUnit.SECONDS));
+
+            assertTrue(client.press(5));
+            assertTrue(spectator.press(6));
+            verify(player0, timeout(5000)).keyPressed(5);
+            verify(player0, after(200).never()).keyPressed(6);
+            verify(player1, never()).keyPressed(6);
+        }
+    }
+
+    @Test
+    void dispose_ClosesTheClients() throws Exception {
+        NetworkClient client = new NetworkClient(address, clientUi);
+        assertEquals(0, client.awaitSeat(5, TimeUnit.SECONDS));
+        server.setCountdown(5000, true);
+        server.dispose();
+
+        verify(clientUi, timeout(5000)).setCountdown(5000, true);
+        verify(clientUi, timeout(5000)).dispose();
+        client.close();
+        assertTrue(client.closed());
+    }
+
+    @Test
+    void protocol_RoundTrip() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        NetworkProtocol.put(buffer, NetworkProtocol.SET_FREEZE, 3, 0, -1000);
+        NetworkProtocol.put(buffer, NetworkProtocol.PRESS, 0, 11, 0);
+        buffer.flip();
+        int[] fields = new int[5];
+
+        assertEquals(NetworkProtocol.SET_FREEZE, NetworkProtocol.get(buffer, clientUi, fields));
+        verify(clientUi).setFreeze(3, -1000);
+        buffer.limit(buffer.limit() - 1);
+        assertEquals(0, NetworkProtocol.get(buffer, clientUi, fields));
+        buffer.limit(buffer.limit() + 1);
+        assertEquals(NetworkProtocol.PRESS, NetworkProtocol.get(buffer, clientUi, fields));
+        assertEquals(11, fields[1]);
+        assertArrayEquals(new int[]{0, 5, 63}, NetworkProtocol.players(NetworkProtocol.mask(new int[]{0, 5, 63})));
+    }
+}
@@ -0,0 +1,131 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.net.InetSocketAddress;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class PredictingClientTest {
+
+    /**
+     * The one way delay of the network.
+     */
+    static final long DELAY_MILLIS = 100;
+
+    NetworkServer server;
+    LatencyProxy proxy;
+    PredictingClient client;
+    @Mock
+    Player player;
+    @Mock
+    UserInterface display;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("HumanPlayers", "1");
+        properties.setProperty("ComputerPlayers", "1");
+        properties.setProperty("PredictionTimeoutMillis", "1000");
+        Logger logger = Logger.getLogger("PredictingClientTest");
+        logger.setUseParentHandlers(false);
+        Config config = new Config(logger, properties);
+        server = new NetworkServer(logger, config, new InetSocketAddress("127.0.0.1", 0), null,
+                new Player[]{player, null});
+        proxy = new LatencyProxy(0, new InetSocketAddress("127.0.0.1", server.port()), DELAY_MILLIS);
+
+        server.placeCard(5, 2);
+        client = new PredictingClient(config, new InetSocketAddress("127.0.0.1", proxy.port()), display);
+        assertEquals(0, client.awaitSeat(5, TimeUnit.SECONDS));
+        verify(display, timeout(5000)).placeCard(5, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        proxy.close();
+        server.dispose();
+    }
+
+    /**
+     * press a slot over a slow network.
+     * @pre - a card in slot 2, the player takes the press
+     * @post - the token is shown before the server has it, and the server's token changes nothing on the screen
+     */
+    @Test
+    void press_ShownAtOnceThenConfirmed() throws Exception {
+        when(player.keyPressed(2)).thenReturn(true);
+
+        long start = System.nanoTime();
+        client.press(2);
+        verify(display).placeToken(0, 2);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(DELAY_MILLIS));
+
+        verify(player, timeout(5000)).keyPressed(2);
+        server.placeToken(0, 2);
+        waitFor(() -> client.confirmed() == 1);
+        assertTrue(client.confirmLatency().max() >= TimeUnit.MILLISECONDS.toNanos(2 * DELAY_MILLIS));
+        verify(display, never()).removeToken(0, 2);
+        assertEquals(0, client.rolledBack());
+    }
+
+    @Test
+    void press_RejectedIsRolledBack() throws Exception {
+        when(player.keyPressed(2)).thenReturn(false);
+
+        client.press(2);
+        verify(display).placeToken(0, 2);
+
+        verify(display, timeout(5000)).removeToken(0, 2);
+        assertEquals(1, client.rolledBack());
+    }
+
+    @Test
+    void press_CardReplacedIsRolledBack() throws Exception {
+        when(player.keyPressed(2)).thenReturn(true);
+        client.press(2);
+        verify(player, timeout(5000)).keyPressed(2);
+
+        // the dealer took the card before the player placed the token
+        server.removeTokens(2);
+        server.removeCard(2);
+        server.placeCard(9, 2);
+
+        verify(display, timeout(5000)).placeCard(9, 2);
+        assertEquals(1, client.rolledBack());
+        assertEquals(0, client.confirmed());
+    }
+
+    @Test
+    void press_UnconfirmedExpires() throws Exception {
+        when(player.keyPressed(2)).thenReturn(true);
+        client.press(2);
+        verify(display).placeToken(0, 2);
+
+        verify(display, timeout(5000)).removeToken(0, 2);
+        assertEquals(1, client.rolledBack());
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(condition.getAsBoolean());
+    }
+}
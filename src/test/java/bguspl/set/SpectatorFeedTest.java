@@ -0,0 +1,117 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class SpectatorFeedTest {
+
+    Logger logger;
+    Config config;
+    Game game;
+    SpectatorFeed feed;
+    @Mock
+    UserInterface spectatorUi;
+
+    @BeforeEach
+    void setUp() {
+        Properties properties = Simulation.configure(new Properties(), 0);
+        properties.setProperty("HumanPlayers", "2");
+        properties.setProperty("SpectatorFramesPerSecond", "10");
+        properties.setProperty("SpectatorKeyframeSeconds", "0.3");
+        logger = Logger.getLogger("SpectatorFeedTest");
+        logger.setUseParentHandlers(false);
+        config = new Config(logger, properties);
+        game = new Game(new Env(logger, config, new UserInterfaceCounter(), new UtilImpl(config)));
+        game.table.placeCard(7, 0);
+        game.table.placeCard(8, 1);
+        feed = new SpectatorFeed(config, game);
+    }
+
+    @AfterEach
+    void tearDown() {
+        game.shutdown();
+    }
+
+    /**
+     * @return - the number of SLOT messages in a frame, and checks its header.
+     */
+    private int slots(SpectatorFeed.Frame frame, boolean keyframe) {
+        ByteBuffer data = frame.data.duplicate();
+        int[] fields = new int[5];
+        assertEquals(NetworkProtocol.FRAME, NetworkProtocol.get(data, null, fields));
+        assertEquals(keyframe ? 1 : 0, fields[1]);
+        assertEquals(frame.sequence, fields[2]);
+        int slots = 0;
+        int type;
+        while ((type = NetworkProtocol.get(data, null, fields)) > 0)
+            if (type == NetworkProtocol.SLOT) ++slots;
+        return slots;
+    }
+
+    /**
+     * sample the table as it changes.
+     * @pre - two cards on the table, a keyframe every 3 frames
+     * @post - the deltas hold the slots that changed since the keyframe (even if they changed back), and the fourth frame
+     * is a keyframe again
+     */
+    @Test
+    void sample_KeyframesAndDeltas() {
+        SpectatorFeed.Frame keyframe = feed.sample();
+        assertEquals(config.tableSize, slots(keyframe, true));
+        assertSame(keyframe, feed.next(-1, -1));
+
+        game.table.placeToken(1, 0);
+        SpectatorFeed.Frame delta = feed.sample();
+        assertEquals(1, slots(delta, false));
+        assertEquals(keyframe.sequence, delta.keyframe);
+        assertSame(delta, feed.next(keyframe.sequence, keyframe.sequence));
+        assertNull(feed.next(keyframe.sequence, delta.sequence));
+
+        game.table.removeToken(1, 0);
+        game.table.removeCard(1);
+        assertEquals(2, slots(feed.sample(), false));
+
+        SpectatorFeed.Frame next = feed.sample();
+        assertEquals(config.tableSize, slots(next, true));
+        assertNotSame(keyframe, next);
+        assertSame(next, feed.next(keyframe.sequence, delta.sequence));
+    }
+
+    @Test
+    void watch_SpectatorGetsTheTable() throws Exception {
+        NetworkServer server = new NetworkServer(logger, config, new InetSocketAddress("127.0.0.1", 0), null,
+                game.players);
+        server.watch(feed);
+        try (NetworkClient first = new NetworkClient(new InetSocketAddress("127.0.0.1", server.port()), null);
+             NetworkClient second = new NetworkClient(new InetSocketAddress("127.0.0.1", server.port()), null);
+             NetworkClient spectator = new NetworkClient(new InetSocketAddress("127.0.0.1", server.port()), spectatorUi)) {
+            assertEquals(0, first.awaitSeat(5, TimeUnit.SECONDS));
+            assertEquals(1, second.awaitSeat(5, TimeUnit.SECONDS));
+            assertEquals(NetworkProtocol.NO_SEAT, spectator.awaitSeat(5, TimeUnit.SECONDS));
+
+            verify(spectatorUi, timeout(5000)).placeCard(8, 1);
+            game.table.placeToken(0, 1);
+            verify(spectatorUi, timeout(5000)).placeToken(0, 1);
+        } finally {
+            server.dispose();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TournamentTest {
+
+    /**
+     * play a few games of a set finder against a random player, two games at a time.
+     * @pre - the default configuration
+     * @post - every game is counted, each strategy played every seat, and the finder wins more
+     */
+    @Test
+    void run_FinderBeatsRandom() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("RandomSeed", "7");
+
+        Tournament.Report report = Tournament.run(properties, new String[]{"finder", "random"}, 4, 2);
+
+        assertEquals(4, report.games);
+        assertEquals(7, report.seed);
+        assertTrue(report.meanScore("finder") > report.meanScore("random"));
+        assertTrue(report.winRate("finder") > report.winRate("random"));
+    }
+
+    @Test
+    void run_InvalidStrategy() {
+        assertThrows(IllegalArgumentException.class,
+                () -> Tournament.run(new Properties(), new String[]{"finder", "psychic"}, 1, 1));
+    }
+
+    @Test
+    void wilson_ContainsTheRate() {
+        double[] interval = Tournament.wilson(30, 100);
+        assertTrue(interval[0] < 0.3 && 0.3 < interval[1]);
+        assertEquals(0.219, interval[0], 0.001);
+        assertEquals(0.395, interval[1], 0.001);
+    }
+}
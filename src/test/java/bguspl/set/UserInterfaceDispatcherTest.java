@@ -0,0 +1,67 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class UserInterfaceDispatcherTest {
+
+    /**
+     * publish timer and freeze updates while the user interface is stuck.
+     * @pre - a dispatcher with a queue of 2 events, whose user interface blocks on the first card
+     * @post - the last countdown and the last freeze of each player are applied after the queued events
+     */
+    @Test
+    void publish_KeepsLatestUpdatesOfAFullQueue() throws InterruptedException {
+        UserInterface ui = mock(UserInterface.class);
+        CountDownLatch stuck = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            stuck.countDown();
+            release.await();
+            return null;
+        }).when(ui).placeCard(0, 0);
+        Logger logger = Logger.getLogger("UserInterfaceDispatcherTest");
+        logger.setUseParentHandlers(false);
+        UserInterfaceDispatcher dispatcher = new UserInterfaceDispatcher(logger, ui, false, 2);
+
+        dispatcher.placeCard(0, 0);
+        stuck.await();
+        dispatcher.placeCard(1, 1);
+        dispatcher.placeCard(2, 2);
+        for (int millies = 5000; millies >= 0; millies -= 1000) {
+            dispatcher.setFreeze(0, millies);
+            dispatcher.setFreeze(1, millies + 1);
+            dispatcher.setCountdown(millies, millies < 2000);
+        }
+        release.countDown();
+        dispatcher.dispose();
+
+        ArgumentCaptor<Long> freezes = ArgumentCaptor.forClass(Long.class);
+        verify(ui, atLeastOnce()).setFreeze(eq(0), freezes.capture());
+        assertEquals(0, last(freezes.getAllValues()));
+        ArgumentCaptor<Long> otherFreezes = ArgumentCaptor.forClass(Long.class);
+        verify(ui, atLeastOnce()).setFreeze(eq(1), otherFreezes.capture());
+        assertEquals(1, last(otherFreezes.getAllValues()));
+        ArgumentCaptor<Long> countdowns = ArgumentCaptor.forClass(Long.class);
+        verify(ui, atLeastOnce()).setCountdown(countdowns.capture(), eq(true));
+        assertEquals(0, last(countdowns.getAllValues()));
+        verify(ui).placeCard(2, 2);
+        verify(ui).dispose();
+        assertEquals(0, dispatcher.dropped());
+    }
+
+    private static long last(List<Long> values) {
+        return values.get(values.size() - 1);
+    }
+}
@@ -0,0 +1,109 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VirtualClockTest {
+
+    VirtualClock clock;
+
+    @BeforeEach
+    void setUp() {
+        clock = new VirtualClock(1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        clock.shutdown();
+    }
+
+    /**
+     * sleep for an hour of virtual time.
+     * @pre - the only game thread is the sleeping one
+     * @post - the sleep ends (in much less real time) exactly at its deadline
+     */
+    @Test
+    void sleep_JumpsToDeadline() throws Exception {
+        CompletableFuture<Long> woke = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            clock.register();
+            try {
+                clock.sleep(3_600_000);
+                woke.complete(clock.currentTimeMillis());
+            } catch (InterruptedException e) {
+                woke.completeExceptionally(e);
+            } finally {
+                clock.unregister();
+            }
+        });
+        thread.start();
+
+        assertEquals(3_601_000, woke.get(10, TimeUnit.SECONDS));
+        thread.join();
+    }
+
+    /**
+     * wait on a condition that is signalled, then on one that is not.
+     * @pre - the waiting thread holds the lock
+     * @post - the first wait is signalled, the second one times out at its deadline
+     */
+    @Test
+    void await_SignalledOrTimedOut() throws Exception {
+        ReentrantLock lock = new ReentrantLock();
+        Condition condition = lock.newCondition();
+        CompletableFuture<Boolean> signalled = new CompletableFuture<>();
+        CompletableFuture<Long> timedOut = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            clock.register();
+            lock.lock();
+            try {
+                signalled.complete(clock.await(lock, condition, 60_000));
+                long start = clock.currentTimeMillis();
+                assertFalse(clock.await(lock, condition, 500));
+                timedOut.complete(clock.currentTimeMillis() - start);
+            } catch (InterruptedException e) {
+                signalled.completeExceptionally(e);
+            } finally {
+                lock.unlock();
+                clock.unregister();
+            }
+        });
+        clock.register(); // the time stands still until this thread signals the condition
+        thread.start();
+        while (true) {
+            lock.lock();
+            try {
+                if (lock.hasWaiters(condition)) {
+                    condition.signal();
+                    break;
+                }
+            } finally {
+                lock.unlock();
+            }
+            Thread.onSpinWait();
+        }
+        clock.unregister();
+
+        assertTrue(signalled.get(10, TimeUnit.SECONDS));
+        assertEquals(500, timedOut.get(10, TimeUnit.SECONDS));
+        thread.join();
+    }
+
+    @Test
+    void schedule_RunsAtDeadline() throws Exception {
+        CompletableFuture<Long> ran = new CompletableFuture<>();
+        clock.schedule(() -> ran.complete(clock.currentTimeMillis()), 250);
+
+        assertEquals(1250, ran.get(10, TimeUnit.SECONDS));
+    }
+}
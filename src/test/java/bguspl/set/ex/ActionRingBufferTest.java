@@ -0,0 +1,117 @@
+package bguspl.set.ex;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ActionRingBufferTest {
+
+    ActionRingBuffer actions;
+
+    @BeforeEach
+    void setUp() {
+        actions = new ActionRingBuffer(12, 4);
+    }
+
+    @Test
+    void offerAndTake_KeepsOrder() throws InterruptedException {
+        actions.offer(3);
+        actions.offer(7);
+
+        assertEquals(3, actions.take());
+        assertEquals(7, actions.take());
+        assertEquals(0, actions.size());
+    }
+
+    /**
+     * press the same slot twice before the player handled it.
+     * @pre - no presses are waiting
+     * @post - the second press cancelled the first one
+     */
+    @Test
+    void offer_DoublePressIsNoOp() throws InterruptedException {
+        actions.offer(3);
+        actions.offer(3);
+        actions.offer(5);
+
+        assertEquals(1, actions.size());
+        assertEquals(5, actions.take());
+    }
+
+    /**
+     * press more keys than the queue can hold.
+     * @pre - the queue is full
+     * @post - the press is rejected without blocking and counted as dropped
+     */
+    @Test
+    void offer_FullQueueDrops() {
+        for (int slot = 0; slot < 4; slot++)
+            assertTrue(actions.offer(slot));
+
+        assertFalse(actions.offer(9));
+        assertEquals(1, actions.dropped());
+        assertEquals(4, actions.size());
+    }
+
+    /**
+     * press distinct slots from two threads at once (e.g. the keyboard and a network connection of one seat).
+     * @pre - a consumer takes the presses as they come
+     * @post - every press is taken exactly once
+     */
+    @Test
+    void offer_FromTwoProducersLosesNothing() throws InterruptedException {
+        ActionRingBuffer shared = new ActionRingBuffer(64, 64);
+        AtomicIntegerArray taken = new AtomicIntegerArray(64);
+        AtomicInteger total = new AtomicInteger();
+        Thread consumer = new Thread(() -> {
+            try {
+                while (true) {
+                    taken.incrementAndGet(shared.take());
+                    total.incrementAndGet();
+                }
+            } catch (InterruptedException ignored) {
+            }
+        });
+        consumer.start();
+        int rounds = 300;
+        for (int round = 1; round <= rounds; round++) {
+            Thread[] producers = new Thread[2];
+            for (int p = 0; p < producers.length; p++) {
+                int first = p * 32;
+                producers[p] = new Thread(() -> {
+                    for (int slot = first; slot < first + 32; slot++)
+                        assertTrue(shared.offer(slot));
+                });
+                producers[p].start();
+            }
+            for (Thread producer : producers)
+                producer.join();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (total.get() < 64 * round && System.currentTimeMillis() < deadline)
+                Thread.onSpinWait();
+            assertEquals(64 * round, total.get());
+        }
+        consumer.interrupt();
+        consumer.join();
+
+        for (int slot = 0; slot < 64; slot++)
+            assertEquals(rounds, taken.get(slot));
+        assertEquals(0, shared.dropped());
+    }
+
+    @Test
+    void clear_SkipsWaitingPresses() throws InterruptedException {
+        actions.offer(1);
+        actions.offer(2);
+        actions.clear();
+        actions.offer(6);
+
+        assertEquals(6, actions.take());
+    }
+}
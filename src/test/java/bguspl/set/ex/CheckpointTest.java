@@ -0,0 +1,182 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.GameHost;
+import bguspl.set.Simulation;
+import bguspl.set.UserInterfaceCounter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CheckpointTest {
+
+    GameHost host;
+    Config config;
+
+    private void setUp(Properties properties) {
+        properties.setProperty("ThreadModel", "virtual");
+        Logger logger = Logger.getLogger("CheckpointTest");
+        logger.setUseParentHandlers(false);
+        config = new Config(logger, properties);
+        host = new GameHost(logger, config);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (host != null)
+            host.shutdown();
+    }
+
+    /**
+     * take checkpoints while computer players play a game.
+     * @pre - a game of four computer players that find sets
+     * @post - every checkpoint holds each card once, in the deck, on the table or in the sets the players scored
+     */
+    @Test
+    void checkpoint_IsConsistentWhilePlaying() throws Exception {
+        Properties properties = Simulation.configure(new Properties(), 4);
+        properties.setProperty("ComputerStrategies", "finder,finder,finder,finder");
+        setUp(properties);
+        GameHost.HostedGame hosted = host.open(new UserInterfaceCounter());
+        assertNotNull(hosted);
+
+        int checkpoints = 0;
+        while (true) {
+            GameSnapshot snapshot = hosted.game.dealer.checkpoint().get(10, TimeUnit.SECONDS);
+            if (snapshot == null)
+                break;
+            checkpoints++;
+            assertConsistent(snapshot);
+        }
+        hosted.done().get(30, TimeUnit.SECONDS);
+
+        assertTrue(checkpoints > 0);
+        assertEquals(checkpoints, hosted.game.dealer.getCheckpointWindow().count());
+        assertNull(hosted.game.dealer.checkpoint().getNow(null));
+    }
+
+    /**
+     * restore a snapshot into a new game and checkpoint it again.
+     * @pre - a snapshot of a table with tokens, scores and a frozen player, encoded and written to a file
+     * @post - the restored game has the same deck, table, tokens and scores, the frozen player is still frozen, and
+     *         the countdown goes on from the saved time
+     */
+    @Test
+    void restore_ResumesTheSavedGame(@TempDir Path directory) throws Exception {
+        Properties properties = Simulation.configure(new Properties(), 0);
+        properties.setProperty("HumanPlayers", "2");
+        properties.setProperty("TurnTimeoutSeconds", "60");
+        setUp(properties);
+
+        int[] slots = new int[config.tableSize];
+        Arrays.setAll(slots, slot -> slot);
+        int[] deck = {20, 21, 22, 23};
+        GameSnapshot saved = new GameSnapshot(deck, slots, new int[]{3, 1}, new long[]{0b101, 0},
+                new long[]{0, 5000}, 30000);
+        Path file = directory.resolve("game.checkpoint");
+        saved.write(file);
+        assertEquals(saved.size(), Files.size(file));
+        GameSnapshot read = GameSnapshot.read(file);
+
+        GameHost.HostedGame hosted = host.prepare(config, new UserInterfaceCounter());
+        read.restore(hosted.game.dealer, hosted.game.players);
+        assertTrue(host.start(hosted));
+        GameSnapshot resumed = hosted.game.dealer.checkpoint(true).get(10, TimeUnit.SECONDS);
+        hosted.done().get(10, TimeUnit.SECONDS);
+
+        assertArrayEquals(deck, resumed.deck());
+        assertArrayEquals(slots, resumed.slots());
+        assertArrayEquals(new int[]{3, 1}, resumed.scores());
+        assertArrayEquals(new long[]{0b101, 0}, resumed.tokens());
+        assertEquals(0, resumed.freezeMillis()[0]);
+        assertTrue(resumed.freezeMillis()[1] > 3000);
+        assertTrue(resumed.remainingMillis() <= 30000 && resumed.remainingMillis() > 25000);
+    }
+
+    /**
+     * restore snapshots that do not fit the game.
+     * @pre - snapshots with too many slots, a card out of the deck, a card twice and a token off the table
+     * @post - each restore throws before the game changes
+     */
+    @Test
+    void restore_RejectsSnapshotsThatDoNotFit() {
+        Properties properties = Simulation.configure(new Properties(), 0);
+        properties.setProperty("HumanPlayers", "1");
+        setUp(properties);
+        GameHost.HostedGame hosted = host.prepare(config, new UserInterfaceCounter());
+        int[] slots = new int[config.tableSize];
+        Arrays.fill(slots, -1);
+        int[] more = new int[config.tableSize + 1];
+        Arrays.fill(more, -1);
+        int[] twice = slots.clone();
+        twice[0] = 5;
+
+        GameSnapshot[] bad = {
+                new GameSnapshot(new int[]{1}, more, new int[1], new long[1], new long[1], 100),
+                new GameSnapshot(new int[]{config.deckSize}, slots, new int[1], new long[1], new long[1], 100),
+                new GameSnapshot(new int[]{5}, twice, new int[1], new long[1], new long[1], 100),
+                new GameSnapshot(new int[]{1}, slots, new int[1], new long[]{1L << config.tableSize}, new long[1], 100)};
+        for (GameSnapshot snapshot : bad)
+            assertThrows(IllegalArgumentException.class,
+                    () -> snapshot.restore(hosted.game.dealer, hosted.game.players));
+        assertEquals(config.deckSize, hosted.game.dealer.getDeck().size());
+    }
+
+    @Test
+    void decode_RejectsOtherVersions() {
+        GameSnapshot snapshot = new GameSnapshot(new int[]{4}, new int[]{0, -1}, new int[]{2}, new long[]{1},
+                new long[]{0}, 100);
+        ByteBuffer buffer = ByteBuffer.allocate(snapshot.size());
+        snapshot.encode(buffer);
+        assertFalse(buffer.hasRemaining());
+
+        GameSnapshot decoded = GameSnapshot.decode(buffer.flip());
+        assertArrayEquals(new int[]{0, -1}, decoded.slots());
+        assertEquals(100, decoded.remainingMillis());
+
+        buffer.put(0, (byte) 9);
+        assertThrows(IllegalArgumentException.class, () -> GameSnapshot.decode(buffer.rewind()));
+    }
+
+    private void assertConsistent(GameSnapshot snapshot) {
+        BitSet cards = new BitSet();
+        int count = 0;
+        for (int card : snapshot.deck()) {
+            assertFalse(cards.get(card));
+            cards.set(card);
+            count++;
+        }
+        long onTable = 0;
+        int[] slots = snapshot.slots();
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (slots[slot] < 0)
+                continue;
+            assertFalse(cards.get(slots[slot]));
+            cards.set(slots[slot]);
+            count++;
+            onTable |= 1L << slot;
+        }
+        for (long tokens : snapshot.tokens())
+            assertEquals(0, tokens & ~onTable);
+        for (int score : snapshot.scores())
+            count += 3 * score;
+        assertEquals(config.deckSize, count);
+    }
+}
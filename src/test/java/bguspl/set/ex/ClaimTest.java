@@ -0,0 +1,62 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClaimTest {
+
+    Table table;
+
+    @BeforeEach
+    void setUp() {
+        TableTest.MockLogger logger = new TableTest.MockLogger();
+        Config config = new Config(logger, new Properties());
+        Env env = new Env(logger, config, new TableTest.MockUserInterface(), new TableTest.MockUtil());
+        table = new Table(env);
+    }
+
+    /**
+     * resolve a claim from another thread while the player waits for it.
+     * @pre - the claim is not resolved
+     * @post - the waiting player gets the verdict, and the verdict cannot change anymore
+     */
+    @Test
+    void await_ReturnsVerdict() throws InterruptedException {
+        Claim claim = new Claim(0);
+        Thread dealer = new Thread(() -> claim.resolve(Claim.Verdict.VALID));
+        dealer.start();
+
+        assertEquals(Claim.Verdict.VALID, claim.await());
+        assertFalse(claim.resolve(Claim.Verdict.INVALID));
+        assertEquals(Claim.Verdict.VALID, claim.await());
+        dealer.join();
+    }
+
+    /**
+     * cancel the claims of one player.
+     * @pre - two players are waiting for a check
+     * @post - only the claim of the first player is cancelled and removed from the queue
+     */
+    @Test
+    void cancelClaims_OnlyOfThePlayer() throws InterruptedException {
+        Claim first = new Claim(0);
+        Claim second = new Claim(1);
+        table.getPlayersToCheck().put(first);
+        table.getPlayersToCheck().put(second);
+
+        table.cancelClaims(0);
+
+        assertTrue(first.isResolved());
+        assertEquals(Claim.Verdict.CANCELLED, first.await());
+        assertFalse(second.isResolved());
+        assertEquals(1, table.getPlayersToCheck().size());
+    }
+}
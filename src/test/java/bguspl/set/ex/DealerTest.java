@@ -2,6 +2,7 @@ package bguspl.set.ex;
 
 import bguspl.set.Config;
 import bguspl.set.Env;
+import bguspl.set.RandomSource;
 import bguspl.set.UserInterface;
 import bguspl.set.Util;
 import org.junit.jupiter.api.AfterEach;
@@ -11,9 +12,13 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.Arrays;
+import java.util.Properties;
 import java.util.logging.Logger;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
@@ -33,6 +38,7 @@ class DealerTest {
     private Dealer dealer;
     @Mock
     private Logger logger;
+    private Env env;
     
     void assertInvariants() {
         assertTrue(player.id >= 0);
@@ -42,7 +48,7 @@ class DealerTest {
     @BeforeEach
     void setUp() {
         // purposely do not find the configuration files (use defaults here).
-        Env env = new Env(logger, new Config(logger, (String) null), ui, util);
+        env = new Env(logger, new Config(logger, (String) null), ui, util);
         Integer[] newSlotToCard=new Integer[12];
         Integer[] newCardToslot=new Integer[81];
         Player[] players = {};
@@ -56,6 +62,7 @@ class DealerTest {
     @AfterEach
     void tearDown() {
         assertInvariants();
+        env.shutdown();
     }
 
     /**
@@ -86,4 +93,30 @@ class DealerTest {
         // check that the reshffule time has changed
         assertEquals(check, secondCheck);
     }
+
+    /**
+     * deal the table twice with the same random seed, then with another one.
+     * @pre - slots are empty and deck size is 81.
+     * @post - the same seed deals the same cards to the same slots
+     */
+    @Test
+    void placeCardsOnTable_SameSeedSameDeal() {
+        Properties properties = new Properties();
+        properties.setProperty("TableDelaySeconds", "0");
+        Config config = new Config(logger, properties);
+        Integer[][] deals = new Integer[3][];
+        long[] seeds = {42, 42, 43};
+        for (int i = 0; i < deals.length; i++) {
+            Env env = new Env(logger, config, ui, util, new RandomSource(seeds[i]));
+            try {
+                Table seeded = new Table(env, new Integer[12], new Integer[81]);
+                new Dealer(env, seeded, new Player[0]).placeCardsOnTable();
+                deals[i] = seeded.slotToCard;
+            } finally {
+                env.shutdown();
+            }
+        }
+        assertArrayEquals(deals[0], deals[1]);
+        assertFalse(Arrays.equals(deals[0], deals[2]));
+    }
 }
@@ -0,0 +1,205 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.Game;
+import bguspl.set.Journal;
+import bguspl.set.JournalReader;
+import bguspl.set.Replay;
+import bguspl.set.UtilImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JournalTest {
+
+    @TempDir
+    Path directory;
+
+    Env env;
+    Table table;
+
+    @BeforeEach
+    void setUp() {
+        TableTest.MockLogger logger = new TableTest.MockLogger();
+        Properties properties = new Properties();
+        properties.put("JournalDirectory", directory.toString());
+        properties.put("JournalFileSize", "64"); // a few events per mapped region
+        Config config = new Config(logger, properties);
+        env = new Env(logger, config, new TableTest.MockUserInterface(), new TableTest.MockUtil());
+        table = new Table(env);
+    }
+
+    private JournalReader closeAndRead() throws IOException {
+        env.journal.close();
+        env.timers.shutdown();
+        try (Stream<Path> files = Files.list(directory)) {
+            return new JournalReader(files.findFirst().orElseThrow());
+        }
+    }
+
+    /**
+     * record the events of the table, and read them back.
+     * @pre - the table is empty
+     * @post - the journal has all the events, in order, and nothing else
+     */
+    @Test
+    void tableEvents_ReadBackInOrder() throws IOException {
+        table.placeCard(17, 3);
+        table.placeToken(1, 3);
+        table.removeToken(1, 3);
+        table.removeCard(3);
+        table.removeCard(4); // there is no card there, so nothing happens
+        env.journal.claimSubmitted(1, 1L << 63 | 1);
+
+        JournalReader reader = closeAndRead();
+        assertEquals(env.journal.gameId(), reader.gameId);
+        assertEquals(env.config.tableSize, reader.tableSize);
+
+        assertTrue(reader.next());
+        assertEquals(Journal.CARD_PLACED, reader.type());
+        assertEquals(17, reader.card());
+        assertEquals(3, reader.slot());
+        assertTrue(reader.next());
+        assertEquals(Journal.TOKEN_PLACED, reader.type());
+        assertEquals(1, reader.player());
+        assertTrue(reader.next());
+        assertEquals(Journal.TOKEN_REMOVED, reader.type());
+        assertTrue(reader.next());
+        assertEquals(Journal.CARD_REMOVED, reader.type());
+        assertEquals(3, reader.slot());
+        assertTrue(reader.next());
+        assertEquals(Journal.CLAIM_SUBMITTED, reader.type());
+        assertEquals(1L << 63 | 1, reader.value());
+        assertTrue(reader.millis() >= reader.startMillis);
+        assertFalse(reader.next());
+    }
+
+    /**
+     * record more events than fit in one mapped region.
+     * @pre - the journal is empty
+     * @post - all the events are read back
+     */
+    @Test
+    void manyEvents_SpanRegions() throws IOException {
+        for (int i = 0; i < 100; i++)
+            env.journal.score(i % 4, i);
+        env.journal.gameEnd(new int[]{0, 2});
+
+        JournalReader reader = closeAndRead();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(reader.next());
+            assertEquals(i, reader.value());
+        }
+        assertTrue(reader.next());
+        assertArrayEquals(new int[]{0, 2}, reader.winners());
+        assertFalse(reader.next());
+    }
+
+    /**
+     * replay a recorded game on a dealer that deals from the recorded seed.
+     * @pre - a recorded game where player 0 claimed a set, player 1 claimed cards that are not a set, and the game was
+     *        ended before its countdown
+     * @post - the replayed dealer deals the same cards and gives the same verdicts, scores and winners
+     * @post - a replay with another seed deals other cards, and does not match the recording
+     */
+    @Test
+    void replay_RunsTheDealerOnTheRecordedKeyPresses() throws IOException, InterruptedException {
+        TableTest.MockLogger logger = new TableTest.MockLogger();
+        Properties properties = new Properties();
+        properties.put("JournalDirectory", directory.resolve("games").toString());
+        properties.put("HumanPlayers", "2");
+        properties.put("ComputerPlayers", "0");
+        properties.put("TableDelaySeconds", "0");
+        properties.put("RandomSeed", "1"); // the first deal has a set
+        Config config = new Config(logger, properties);
+        Env recordEnv = new Env(logger, config, new TableTest.MockUserInterface(), new UtilImpl(config));
+        Game game = new Game(recordEnv);
+        CompletableFuture<Void> done = game.start("dealer");
+
+        List<Integer> cards = waitForCards(game);
+        press(game, 0, recordEnv.util.findSets(cards, 1).get(0));
+        while (game.players[0].score() == 0)
+            Thread.sleep(1);
+        cards = waitForCards(game);
+        int[] other = {cards.get(0), cards.get(1), cards.get(2)};
+        for (int i = 3; recordEnv.util.testSet(other); i++)
+            other[2] = cards.get(i);
+        press(game, 1, other);
+        while (game.players[1].penalties() == 0)
+            Thread.sleep(1);
+        game.dealer.terminate();
+        done.join();
+        recordEnv.shutdown();
+
+        Path file;
+        try (Stream<Path> files = Files.list(directory.resolve("games"))) {
+            file = files.findFirst().orElseThrow();
+        }
+        JournalReader recorded = new JournalReader(file);
+        assertEquals(1, recorded.seed);
+        Config replayConfig = new Config(logger, Replay.configure(properties, recorded));
+        Replay replay = new Replay(logger, replayConfig, new TableTest.MockUserInterface(), new UtilImpl(replayConfig),
+                recorded, 0);
+        try {
+            assertTrue(replay.run(), replay.firstMismatch());
+            assertEquals(2, replay.claims());
+        } finally {
+            replay.env.shutdown();
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, 2), 2 * Integer.BYTES + Long.BYTES);
+        }
+        Replay reseeded = new Replay(logger, replayConfig, new TableTest.MockUserInterface(), new UtilImpl(replayConfig),
+                new JournalReader(file), 0);
+        try {
+            assertFalse(reseeded.run());
+            assertTrue(reseeded.firstMismatch().contains("card placed"), reseeded.firstMismatch());
+        } finally {
+            reseeded.env.shutdown();
+        }
+    }
+
+    /**
+     * @return - the cards on the table, once the players may place tokens on them.
+     */
+    private static List<Integer> waitForCards(Game game) throws InterruptedException {
+        while (!game.dealer.getOktoPutTokens())
+            Thread.sleep(1);
+        List<Integer> cards = new ArrayList<>();
+        for (Integer card : game.table.slotToCard)
+            if (card != null) cards.add(card);
+        return cards;
+    }
+
+    /**
+     * Presses the keys of cards for a player, each once the token of the previous one is on the table.
+     */
+    private static void press(Game game, int player, int[] cards) throws InterruptedException {
+        for (int i = 0; i < cards.length; i++) {
+            int slot = game.table.cardToSlot[cards[i]];
+            while (!game.players[player].keyPressed(slot))
+                Thread.sleep(1);
+            while (i < cards.length - 1 && (game.table.getTokens(slot) & 1L << player) == 0)
+                Thread.sleep(1);
+        }
+    }
+}